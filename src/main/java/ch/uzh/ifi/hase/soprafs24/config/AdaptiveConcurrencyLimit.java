@@ -0,0 +1,125 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.uzh.ifi.hase.soprafs24.constant.RequestPriority;
+
+/**
+ * Adaptive Concurrency Limit
+ * How many requests may be in flight at once, adjusted to the observed
+ * latency (the gradient algorithm of Netflix' concurrency-limits, slightly
+ * simplified). Latencies are averaged over windows of a few samples, and
+ * every window is compared to the no-load latency, the fastest window of the
+ * last one or two epochs. As long as the window is about that fast, the
+ * limit grows by its square root. Once requests queue (for a database
+ * connection, say) and get slower, it shrinks by the ratio of the two, at
+ * most by half per window. The epochs let the no-load latency follow a
+ * backend that became permanently slower. Windows in which less than half
+ * of the limit was used say nothing about the limit and leave it unchanged.
+ */
+public class AdaptiveConcurrencyLimit {
+
+  // a window may be up to 50% slower than the no-load latency before the limit shrinks
+  private static final double TOLERANCE = 1.5;
+  private static final double SMOOTHING = 0.2;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final int windowSize;
+  private final int epochWindows;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private volatile int limit;
+
+  // guarded by this
+  private double estimatedLimit;
+  private double previousEpochMinRtt = Double.MAX_VALUE;
+  private double epochMinRtt = Double.MAX_VALUE;
+  private int epochWindowCount;
+  private long windowRttNanos;
+  private int windowSamples;
+  private int windowMaxInFlight;
+
+  /**
+   * @param windowSize   samples per window
+   * @param epochWindows windows per epoch of the no-load latency
+   */
+  public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, int windowSize, int epochWindows) {
+    if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.windowSize = windowSize;
+    this.epochWindows = epochWindows;
+    this.estimatedLimit = initialLimit;
+    this.limit = initialLimit;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Admits a request if fewer requests than its priority's share of the
+   * limit are in flight. Every admitted request must be completed with
+   * release.
+   *
+   * @return the number of requests in flight including this one, 0 if it
+   *         was rejected
+   */
+  public int tryAcquire(RequestPriority priority) {
+    int allowed = Math.max(1, (int) (limit * priority.getShare()));
+    while (true) {
+      int current = inFlight.get();
+      if (current >= allowed) {
+        return 0;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return current + 1;
+      }
+    }
+  }
+
+  /**
+   * @param rttNanos        how long the request took
+   * @param inFlightAtStart what tryAcquire returned for it
+   */
+  public void release(long rttNanos, int inFlightAtStart) {
+    inFlight.decrementAndGet();
+    onSample(rttNanos, inFlightAtStart);
+  }
+
+  private synchronized void onSample(long rttNanos, int inFlightAtStart) {
+    windowRttNanos += rttNanos;
+    windowMaxInFlight = Math.max(windowMaxInFlight, inFlightAtStart);
+    if (++windowSamples < windowSize) {
+      return;
+    }
+    double shortRtt = (double) windowRttNanos / windowSamples;
+    int maxInFlight = windowMaxInFlight;
+    windowRttNanos = 0;
+    windowSamples = 0;
+    windowMaxInFlight = 0;
+
+    epochMinRtt = Math.min(epochMinRtt, shortRtt);
+    double noLoadRtt = Math.min(previousEpochMinRtt, epochMinRtt);
+    if (++epochWindowCount == epochWindows) {
+      previousEpochMinRtt = epochMinRtt;
+      epochMinRtt = Double.MAX_VALUE;
+      epochWindowCount = 0;
+    }
+    if (maxInFlight < estimatedLimit / 2) {
+      return;
+    }
+    double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * noLoadRtt / shortRtt));
+    double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+    estimatedLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+    estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit));
+    limit = (int) estimatedLimit;
+  }
+}
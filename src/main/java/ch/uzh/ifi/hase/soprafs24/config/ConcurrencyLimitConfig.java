@@ -0,0 +1,38 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Load shedding for the user endpoints (see ConcurrencyLimiter), switched
+ * off with limits.enabled=false. The admin endpoints are never limited.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "limits.enabled", matchIfMissing = true)
+public class ConcurrencyLimitConfig {
+
+  @Bean
+  public AdaptiveConcurrencyLimit adaptiveConcurrencyLimit(@Value("${limits.initial:20}") int initialLimit,
+      @Value("${limits.min:4}") int minLimit, @Value("${limits.max:200}") int maxLimit,
+      @Value("${limits.window-size:20}") int windowSize, @Value("${limits.epoch-windows:100}") int epochWindows) {
+    return new AdaptiveConcurrencyLimit(initialLimit, minLimit, maxLimit, windowSize, epochWindows);
+  }
+
+  @Bean
+  public WebMvcConfigurer concurrencyLimitInterceptor(AdaptiveConcurrencyLimit adaptiveConcurrencyLimit,
+      MeterRegistry meterRegistry) {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(adaptiveConcurrencyLimit, meterRegistry);
+    return new WebMvcConfigurer() {
+      @Override
+      public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(limiter).addPathPatterns("/users", "/users/**", "/login/**");
+      }
+    };
+  }
+}
@@ -0,0 +1,78 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import ch.uzh.ifi.hase.soprafs24.constant.RequestPriority;
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Concurrency Limiter
+ * Sheds load in front of the controllers: a request that would exceed the
+ * AdaptiveConcurrencyLimit for its @Priority is answered with 503 and
+ * Retry-After right away, instead of waiting in Tomcat's queue for a
+ * database connection and timing out there. Metrics:
+ * http.concurrency.limit, http.concurrency.in_flight and
+ * http.concurrency.rejected per priority.
+ */
+public class ConcurrencyLimiter implements HandlerInterceptor {
+
+  private static final String START = ConcurrencyLimiter.class.getName() + ".start";
+  private static final String IN_FLIGHT = ConcurrencyLimiter.class.getName() + ".inFlight";
+
+  private final AdaptiveConcurrencyLimit limit;
+  private final Map<RequestPriority, Counter> rejected = new EnumMap<>(RequestPriority.class);
+
+  public ConcurrencyLimiter(AdaptiveConcurrencyLimit limit, MeterRegistry meterRegistry) {
+    this.limit = limit;
+    Gauge.builder("http.concurrency.limit", limit, AdaptiveConcurrencyLimit::getLimit).register(meterRegistry);
+    Gauge.builder("http.concurrency.in_flight", limit, AdaptiveConcurrencyLimit::getInFlight).register(meterRegistry);
+    for (RequestPriority priority : RequestPriority.values()) {
+      rejected.put(priority,
+          Counter.builder("http.concurrency.rejected").tag("priority", priority.name()).register(meterRegistry));
+    }
+  }
+
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+    RequestPriority priority = priorityOf(handler);
+    int inFlight = limit.tryAcquire(priority);
+    if (inFlight == 0) {
+      rejected.get(priority).increment();
+      response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+      throw new DomainException(ErrorCode.OVERLOADED);
+    }
+    request.setAttribute(START, System.nanoTime());
+    request.setAttribute(IN_FLIGHT, inFlight);
+    return true;
+  }
+
+  // only called when preHandle returned true, i.e. the request was admitted
+  @Override
+  public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+      Exception ex) {
+    long start = (Long) request.getAttribute(START);
+    limit.release(System.nanoTime() - start, (Integer) request.getAttribute(IN_FLIGHT));
+  }
+
+  private static RequestPriority priorityOf(Object handler) {
+    if (handler instanceof HandlerMethod) {
+      Priority priority = ((HandlerMethod) handler).getMethodAnnotation(Priority.class);
+      if (priority != null) {
+        return priority.value();
+      }
+    }
+    return RequestPriority.NORMAL;
+  }
+}
@@ -0,0 +1,18 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import ch.uzh.ifi.hase.soprafs24.constant.RequestPriority;
+
+/**
+ * Priority of a handler method for the ConcurrencyLimiter, handlers without
+ * it are NORMAL.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Priority {
+  RequestPriority value();
+}
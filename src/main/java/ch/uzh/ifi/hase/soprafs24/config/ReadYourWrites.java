@@ -0,0 +1,79 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import ch.uzh.ifi.hase.soprafs24.service.SessionIssuedEvent;
+import ch.uzh.ifi.hase.soprafs24.service.UserChangedEvent;
+
+/**
+ * Read Your Writes
+ * Remembers the tokens whose latest writes a replica may not have yet, so
+ * that reads on behalf of such a token use the primary. A token is recorded
+ * when a request with it changes a user, together with the account token of
+ * the changed user, and when login, signup or a refresh issues it (a replica
+ * may not have the new session yet, which would answer its first request
+ * with 401). The token of the current request is taken from the
+ * Authorization header.
+ */
+public class ReadYourWrites implements HandlerInterceptor {
+
+  private final ThreadLocal<String> currentToken = new ThreadLocal<>();
+  private final ConcurrentHashMap<String, Long> lastWrite = new ConcurrentHashMap<>();
+  private final long rememberMillis;
+
+  public ReadYourWrites(long rememberMillis) {
+    this.rememberMillis = rememberMillis;
+  }
+
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+    currentToken.set(request.getHeader("Authorization"));
+    return true;
+  }
+
+  @Override
+  public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+      Exception ex) {
+    currentToken.remove();
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    long now = System.currentTimeMillis();
+    String token = currentToken.get();
+    if (token != null) {
+      lastWrite.put(token, now);
+    }
+    if (event.getUser().getToken() != null) {
+      lastWrite.put(event.getUser().getToken(), now);
+    }
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onSessionIssued(SessionIssuedEvent event) {
+    lastWrite.put(event.getToken(), System.currentTimeMillis());
+  }
+
+  /**
+   * @return milliseconds since the last write recorded for the token of the
+   *         current request, Long.MAX_VALUE if not recently
+   */
+  public long millisSinceLastWrite() {
+    String token = currentToken.get();
+    Long written = token == null ? null : lastWrite.get(token);
+    return written == null ? Long.MAX_VALUE : System.currentTimeMillis() - written;
+  }
+
+  @Scheduled(fixedDelayString = "${users.replicas.heartbeat-ms:1000}")
+  public void forgetOldWrites() {
+    long cutoff = System.currentTimeMillis() - rememberMillis;
+    lastWrite.values().removeIf(written -> written < cutoff);
+  }
+}
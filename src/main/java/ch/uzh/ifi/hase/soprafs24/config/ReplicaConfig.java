@@ -0,0 +1,83 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Read replicas, active when users.replicas.urls lists the JDBC URLs of
+ * replicas of the main database, e.g.
+ * users.replicas.urls=jdbc:h2:tcp://replica-1/users,jdbc:h2:tcp://replica-2/users
+ * Read-only transactions are then served by the replicas (see
+ * ReplicaRoutingDataSource), everything else by spring.datasource.url.
+ * users.replicas.max-lag-ms is the replica lag that is still tolerated.
+ * Needs spring.jpa.open-in-view=false, otherwise the first connection of a
+ * request would be kept for all its transactions.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "users.replicas.urls")
+public class ReplicaConfig {
+
+  @Bean
+  public ReadYourWrites readYourWrites(@Value("${users.replicas.max-lag-ms:2000}") long maxLagMs,
+      @Value("${users.replicas.heartbeat-ms:1000}") long heartbeatMs) {
+    // replicas further behind than that are not used at all
+    return new ReadYourWrites(maxLagMs + heartbeatMs);
+  }
+
+  @Bean
+  public ReplicaLagMonitor replicaLagMonitor(DataSourceProperties properties,
+      @Value("${users.replicas.urls}") String[] urls) {
+    HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    primary.setPoolName("primary");
+    List<HikariDataSource> replicas = new ArrayList<>(urls.length);
+    for (int i = 0; i < urls.length; i++) {
+      HikariDataSource replica = properties.initializeDataSourceBuilder().type(HikariDataSource.class)
+          .url(urls[i].trim()).build();
+      replica.setPoolName("replica-" + i);
+      replica.setReadOnly(true);
+      replicas.add(replica);
+    }
+    ReplicaLagMonitor monitor = new ReplicaLagMonitor(primary, replicas);
+    monitor.heartbeat();
+    return monitor;
+  }
+
+  /**
+   * The only DataSource bean; the pools behind it are not beans, so Boot
+   * neither initializes nor closes them.
+   */
+  @Bean
+  @Primary
+  public DataSource dataSource(ReplicaLagMonitor replicaLagMonitor, ReadYourWrites readYourWrites,
+      @Value("${users.replicas.max-lag-ms:2000}") long maxLagMs,
+      @Value("${users.replicas.heartbeat-ms:1000}") long heartbeatMs, MeterRegistry meterRegistry) {
+    return new LazyConnectionDataSourceProxy(
+        new ReplicaRoutingDataSource(replicaLagMonitor, readYourWrites, maxLagMs, heartbeatMs, meterRegistry));
+  }
+
+  @Bean
+  public WebMvcConfigurer readYourWritesInterceptor(ReadYourWrites readYourWrites) {
+    return new WebMvcConfigurer() {
+      @Override
+      public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(readYourWrites);
+      }
+    };
+  }
+}
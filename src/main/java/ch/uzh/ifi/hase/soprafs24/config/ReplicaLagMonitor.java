@@ -0,0 +1,95 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Replica Lag Monitor
+ * Writes a heartbeat (the current time of the primary) into
+ * REPLICATION_HEARTBEAT on the primary and reads it back from every replica.
+ * The lag of a replica is the age of the heartbeat it has. A replica that
+ * cannot be read (or has no heartbeat yet) counts as infinitely behind.
+ * Owns and closes the connection pools of the primary and the replicas.
+ */
+public class ReplicaLagMonitor implements DisposableBean {
+
+  static final long UNKNOWN = Long.MAX_VALUE;
+
+  private final Logger log = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+  private final HikariDataSource primary;
+  private final List<HikariDataSource> replicas;
+  private final AtomicLongArray lagMillis;
+
+  public ReplicaLagMonitor(HikariDataSource primary, List<HikariDataSource> replicas) {
+    this.primary = primary;
+    this.replicas = List.copyOf(replicas);
+    this.lagMillis = new AtomicLongArray(replicas.size());
+    for (int i = 0; i < replicas.size(); i++) {
+      lagMillis.set(i, UNKNOWN);
+    }
+  }
+
+  public HikariDataSource getPrimary() {
+    return primary;
+  }
+
+  public List<HikariDataSource> getReplicas() {
+    return replicas;
+  }
+
+  public long getLagMillis(int replica) {
+    return lagMillis.get(replica);
+  }
+
+  @Scheduled(fixedDelayString = "${users.replicas.heartbeat-ms:1000}")
+  public void heartbeat() {
+    long now = System.currentTimeMillis();
+    try (Connection connection = primary.getConnection()) {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("create table if not exists replication_heartbeat (id int primary key, beat bigint not null)");
+      }
+      try (PreparedStatement statement = connection.prepareStatement(
+          "merge into replication_heartbeat key (id) values (1, ?)")) {
+        statement.setLong(1, now);
+        statement.executeUpdate();
+      }
+    } catch (SQLException e) {
+      log.warn("Could not write the replication heartbeat: {}", e.getMessage());
+      return;
+    }
+    for (int i = 0; i < replicas.size(); i++) {
+      lagMillis.set(i, readLag(replicas.get(i), now));
+    }
+  }
+
+  private long readLag(HikariDataSource replica, long now) {
+    try (Connection connection = replica.getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("select beat from replication_heartbeat where id = 1")) {
+      return result.next() ? Math.max(0, now - result.getLong(1)) : UNKNOWN;
+    } catch (SQLException e) {
+      return UNKNOWN;
+    }
+  }
+
+  @Override
+  public void destroy() {
+    for (HikariDataSource replica : replicas) {
+      replica.close();
+    }
+    primary.close();
+  }
+}
@@ -0,0 +1,89 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Replica Routing DataSource
+ * Hands out replica connections (round robin) for read-only transactions and
+ * primary connections for everything else. A replica is skipped while its lag
+ * is above the tolerance, or while it may not yet contain the last change of
+ * the user of the current request. Has to sit behind a
+ * LazyConnectionDataSourceProxy, so that the connection is only chosen once
+ * the transaction is marked read-only.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+  static final String PRIMARY = "primary";
+
+  private final int replicaCount;
+  private final ReplicaLagMonitor lagMonitor;
+  private final ReadYourWrites readYourWrites;
+  private final long maxLagMillis;
+  private final long heartbeatMillis;
+  private final AtomicInteger next = new AtomicInteger();
+  private final Map<Object, Counter> routed = new HashMap<>();
+
+  public ReplicaRoutingDataSource(ReplicaLagMonitor lagMonitor, ReadYourWrites readYourWrites, long maxLagMillis,
+      long heartbeatMillis, MeterRegistry meterRegistry) {
+    HikariDataSource primary = lagMonitor.getPrimary();
+    List<HikariDataSource> replicas = lagMonitor.getReplicas();
+    this.replicaCount = replicas.size();
+    this.lagMonitor = lagMonitor;
+    this.readYourWrites = readYourWrites;
+    this.maxLagMillis = maxLagMillis;
+    this.heartbeatMillis = heartbeatMillis;
+
+    Map<Object, Object> targets = new HashMap<>();
+    targets.put(PRIMARY, primary);
+    routed.put(PRIMARY, counter(meterRegistry, PRIMARY));
+    for (int i = 0; i < replicas.size(); i++) {
+      targets.put(replicaKey(i), replicas.get(i));
+      routed.put(replicaKey(i), counter(meterRegistry, replicaKey(i)));
+    }
+    setTargetDataSources(targets);
+    setDefaultTargetDataSource(primary);
+    afterPropertiesSet();
+  }
+
+  private static Counter counter(MeterRegistry meterRegistry, String target) {
+    return Counter.builder("datasource.routing.connections").tag("target", target).register(meterRegistry);
+  }
+
+  private static String replicaKey(int replica) {
+    return "replica-" + replica;
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    Object key = chooseTarget();
+    routed.get(key).increment();
+    return key;
+  }
+
+  private Object chooseTarget() {
+    if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+      return PRIMARY;
+    }
+    long sinceWrite = readYourWrites.millisSinceLastWrite();
+    for (int i = 0; i < replicaCount; i++) {
+      int replica = Math.floorMod(next.getAndIncrement(), replicaCount);
+      long lag = lagMonitor.getLagMillis(replica);
+      // the heartbeat is up to one interval old, so the lag may be that much higher
+      if (lag <= maxLagMillis && lag + heartbeatMillis < sinceWrite) {
+        return replicaKey(replica);
+      }
+    }
+    return PRIMARY;
+  }
+}
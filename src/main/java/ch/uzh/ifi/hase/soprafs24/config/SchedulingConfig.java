@@ -0,0 +1,13 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables @Scheduled methods (periodic background work such as reconciling
+ * in-memory state against the database).
+ */
+@Configuration(proxyBeanMethods = false)
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,82 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import java.time.Duration;
+
+import org.apache.catalina.startup.Tomcat;
+import org.apache.coyote.http11.AbstractHttp11Protocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.embedded.undertow.UndertowServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.undertow.Undertow;
+import io.undertow.server.protocol.http2.Http2UpgradeHandler;
+
+/**
+ * Embedded server settings that Spring Boot 2.4 has no properties for.
+ * server.http2.enabled only turns on HTTP/2 over TLS; without TLS the
+ * connectors are given h2c here (HTTP/2 over cleartext after an Upgrade
+ * header, on Tomcat also with prior knowledge), which is what runs behind a
+ * TLS-terminating proxy.
+ * Tomcat also closes an idle keep-alive connection after the connection
+ * timeout and any connection after 100 requests, so a busy client pays a new
+ * TCP handshake every 100 requests: server.tomcat.keep-alive-timeout and
+ * server.tomcat.max-keep-alive-requests (the names of the Spring Boot 2.5
+ * properties) change that, unset they keep the defaults.
+ */
+@Configuration(proxyBeanMethods = false)
+public class ServerTuningConfig {
+
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnClass(Tomcat.class)
+  static class TomcatTuning {
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> tomcatConnectorCustomizer(
+        @Value("${server.http2.enabled:false}") boolean http2,
+        @Value("${server.tomcat.keep-alive-timeout:#{null}}") Duration keepAliveTimeout,
+        @Value("${server.tomcat.max-keep-alive-requests:#{null}}") Integer maxKeepAliveRequests) {
+      return factory -> factory.addConnectorCustomizers(connector -> {
+        if (http2 && !isSslEnabled(factory)) {
+          connector.addUpgradeProtocol(new Http2Protocol());
+        }
+        if (!(connector.getProtocolHandler() instanceof AbstractHttp11Protocol)) {
+          return;
+        }
+        AbstractHttp11Protocol<?> protocol = (AbstractHttp11Protocol<?>) connector.getProtocolHandler();
+        if (keepAliveTimeout != null) {
+          protocol.setKeepAliveTimeout((int) keepAliveTimeout.toMillis());
+        }
+        if (maxKeepAliveRequests != null) {
+          protocol.setMaxKeepAliveRequests(maxKeepAliveRequests);
+        }
+      });
+    }
+
+    private static boolean isSslEnabled(TomcatServletWebServerFactory factory) {
+      return factory.getSsl() != null && factory.getSsl().isEnabled();
+    }
+  }
+
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnClass(Undertow.class)
+  @ConditionalOnProperty(name = "server.http2.enabled", havingValue = "true")
+  static class UndertowTuning {
+
+    // Undertow speaks HTTP/2 once enabled, but only switches a cleartext connection with this handler in front
+    @Bean
+    public WebServerFactoryCustomizer<UndertowServletWebServerFactory> undertowH2cCustomizer() {
+      return factory -> {
+        if (factory.getSsl() == null || !factory.getSsl().isEnabled()) {
+          factory.addDeploymentInfoCustomizers(deployment ->
+              deployment.addInitialHandlerChainWrapper(Http2UpgradeHandler::new));
+        }
+      };
+    }
+  }
+}
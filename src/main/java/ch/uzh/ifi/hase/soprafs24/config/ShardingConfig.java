@@ -0,0 +1,47 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.orm.jpa.EntityManagerFactoryBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import ch.uzh.ifi.hase.soprafs24.repository.ShardedUserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserDirectoryRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserShard;
+
+/**
+ * Sharded user storage, active when users.sharding.urls lists the JDBC URLs of
+ * the shards, e.g.
+ * users.sharding.urls=jdbc:h2:file:./shards/s0,jdbc:h2:file:./shards/s1
+ * The sharded repository then takes the place of the "userRepository", the
+ * services do not notice the difference. The order of the URLs must never
+ * change once users are stored. All shards are opened with the credentials
+ * users.sharding.username and users.sharding.password, which default to
+ * those of the main datasource.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "users.sharding.urls")
+public class ShardingConfig {
+
+  @Bean
+  @Primary
+  @Qualifier("userRepository")
+  public ShardedUserRepository shardedUserRepository(@Value("${users.sharding.urls}") String[] urls,
+      @Value("${users.sharding.username:${spring.datasource.username:sa}}") String username,
+      @Value("${users.sharding.password:${spring.datasource.password:}}") String password,
+      EntityManagerFactoryBuilder builder, ConfigurableListableBeanFactory beanFactory,
+      @Qualifier("userDirectoryRepository") UserDirectoryRepository userDirectoryRepository) {
+    List<UserShard> shards = new ArrayList<>(urls.length);
+    for (int i = 0; i < urls.length; i++) {
+      shards.add(UserShard.open(i, urls.length, urls[i].trim(), username, password, builder, beanFactory));
+    }
+    return new ShardedUserRepository(shards, userDirectoryRepository);
+  }
+}
@@ -0,0 +1,37 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Startup Training Run
+ * Only active with startup.training-run=true (see the cdsArchive Gradle task).
+ * Once the application is ready it calls GET / once, so that the classes of the
+ * request path are loaded as well, and then shuts the JVM down. The JVM then
+ * writes the class-data-sharing archive on exit.
+ */
+@Component
+@ConditionalOnProperty(name = "startup.training-run", havingValue = "true")
+public class StartupTrainingRun implements ApplicationListener<ApplicationReadyEvent> {
+
+  private final Logger log = LoggerFactory.getLogger(StartupTrainingRun.class);
+
+  @Override
+  public void onApplicationEvent(ApplicationReadyEvent event) {
+    ConfigurableApplicationContext context = event.getApplicationContext();
+    String port = context.getEnvironment().getProperty("local.server.port");
+    try {
+      new RestTemplate().getForObject("http://localhost:" + port + "/", String.class);
+    } catch (RuntimeException e) {
+      log.warn("Training request to GET / failed: {}", e.getMessage());
+    }
+    System.exit(SpringApplication.exit(context));
+  }
+}
@@ -0,0 +1,38 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.service.UserListSnapshot;
+
+/**
+ * JPA entity listener of User that invalidates the UserListSnapshot. Unlike
+ * a UserChangedEvent listener it also sees writes that bypass the services,
+ * e.g. direct repository access. Hibernate creates it through Spring while
+ * the EntityManagerFactory is built, hence the lazy lookup of the snapshot;
+ * the shard EntityManagerFactories (see UserShard) are given the same bean
+ * container, so writes to the shards invalidate the snapshot as well.
+ */
+public class UserListSnapshotInvalidator {
+
+  private ObjectProvider<UserListSnapshot> userListSnapshot;
+
+  @Autowired
+  public void setUserListSnapshot(ObjectProvider<UserListSnapshot> userListSnapshot) {
+    this.userListSnapshot = userListSnapshot;
+  }
+
+  @PostPersist
+  @PostUpdate
+  @PostRemove
+  public void onChange(User user) {
+    if (userListSnapshot != null) {
+      userListSnapshot.ifAvailable(UserListSnapshot::invalidate);
+    }
+  }
+}
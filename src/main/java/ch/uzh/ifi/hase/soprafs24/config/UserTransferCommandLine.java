@@ -0,0 +1,57 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import ch.uzh.ifi.hase.soprafs24.service.UserTransferService;
+
+/**
+ * User Transfer Command Line
+ * Runs the bulk export/import without going through HTTP and exits afterwards:
+ * java -jar soprafs24.jar --spring.main.web-application-type=none --export-users=users.ndjson
+ * java -jar soprafs24.jar --spring.main.web-application-type=none --import-users=users.ndjson
+ * Point spring.datasource.url at the database that should be dumped or restored.
+ */
+@Component
+public class UserTransferCommandLine implements ApplicationRunner {
+
+  private final UserTransferService userTransferService;
+  private final ConfigurableApplicationContext context;
+
+  public UserTransferCommandLine(UserTransferService userTransferService, ConfigurableApplicationContext context) {
+    this.userTransferService = userTransferService;
+    this.context = context;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) throws Exception {
+    boolean export = args.containsOption("export-users");
+    boolean imports = args.containsOption("import-users");
+    if (!export && !imports) {
+      return;
+    }
+    if (export) {
+      try (OutputStream out = new BufferedOutputStream(
+          Files.newOutputStream(Paths.get(args.getOptionValues("export-users").get(0))))) {
+        userTransferService.exportUsers(out);
+      }
+    }
+    if (imports) {
+      try (InputStream in = new BufferedInputStream(
+          Files.newInputStream(Paths.get(args.getOptionValues("import-users").get(0))))) {
+        userTransferService.importUsers(in);
+      }
+    }
+    System.exit(SpringApplication.exit(context));
+  }
+}
@@ -0,0 +1,20 @@
+package ch.uzh.ifi.hase.soprafs24.constant;
+
+/**
+ * How important a request is when the server is overloaded: a request is
+ * only admitted while fewer requests are in flight than its share of the
+ * concurrency limit, so LOW requests are shed first.
+ */
+public enum RequestPriority {
+  HIGH(1.0), NORMAL(0.9), LOW(0.75);
+
+  private final double share;
+
+  RequestPriority(double share) {
+    this.share = share;
+  }
+
+  public double getShare() {
+    return share;
+  }
+}
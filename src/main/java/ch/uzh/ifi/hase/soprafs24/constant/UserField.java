@@ -0,0 +1,55 @@
+package ch.uzh.ifi.hase.soprafs24.constant;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The fields of a user a client can select with ?fields= (sparse fieldsets).
+ * The JSON name of each field is also the name of the entity property.
+ */
+public enum UserField {
+  ID("id"), NAME("name"), USERNAME("username"), STATUS("status"), DATE("date"), BIRTHDAY("birthday"),
+  TOKEN("token");
+
+  public static final Set<UserField> ALL = EnumSet.allOf(UserField.class);
+  // what is shown of other users, e.g. in the friend lists
+  public static final Set<UserField> PUBLIC = EnumSet.complementOf(EnumSet.of(TOKEN));
+
+  private final String fieldName;
+
+  UserField(String fieldName) {
+    this.fieldName = fieldName;
+  }
+
+  public String getFieldName() {
+    return fieldName;
+  }
+
+  /**
+   * @param fields comma separated field names, e.g. "username,status"
+   * @throws IllegalArgumentException for unknown or no field names
+   */
+  public static Set<UserField> parse(String fields) {
+    Set<UserField> selected = EnumSet.noneOf(UserField.class);
+    for (String name : fields.split(",")) {
+      String trimmed = name.trim();
+      if (trimmed.isEmpty()) {
+        continue;
+      }
+      UserField field = null;
+      for (UserField candidate : values()) {
+        if (candidate.fieldName.equals(trimmed)) {
+          field = candidate;
+        }
+      }
+      if (field == null) {
+        throw new IllegalArgumentException("Unknown field: " + trimmed);
+      }
+      selected.add(field);
+    }
+    if (selected.isEmpty()) {
+      throw new IllegalArgumentException("No fields selected");
+    }
+    return selected;
+  }
+}
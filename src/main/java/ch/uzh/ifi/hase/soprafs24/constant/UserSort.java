@@ -0,0 +1,33 @@
+package ch.uzh.ifi.hase.soprafs24.constant;
+
+/**
+ * The orders of GET /users?sort= (see UserSortIndex).
+ */
+public enum UserSort {
+  // latest signup first
+  NEWEST("newest"),
+  // next birthday first, starting today and wrapping around the end of the year
+  BIRTHDAY("birthday");
+
+  private final String parameter;
+
+  UserSort(String parameter) {
+    this.parameter = parameter;
+  }
+
+  public String getParameter() {
+    return parameter;
+  }
+
+  /**
+   * @throws IllegalArgumentException for an unknown order
+   */
+  public static UserSort parse(String sort) {
+    for (UserSort candidate : values()) {
+      if (candidate.parameter.equals(sort.trim())) {
+        return candidate;
+      }
+    }
+    throw new IllegalArgumentException("Unknown sort: " + sort);
+  }
+}
@@ -0,0 +1,102 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
+import ch.uzh.ifi.hase.soprafs24.profiling.FlightRecordingService;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserImportResultDTO;
+import ch.uzh.ifi.hase.soprafs24.service.UserTransferService;
+
+/**
+ * Admin Controller
+ * Operator endpoints below /admin. Every request has to carry the configured
+ * admin key in the X-Admin-Key header; without a configured key all admin
+ * endpoints are forbidden.
+ */
+@RestController
+public class AdminController {
+
+  static final String NDJSON = "application/x-ndjson";
+
+  private final UserTransferService userTransferService;
+  private final FlightRecordingService flightRecordingService;
+  private final String adminKey;
+
+  AdminController(UserTransferService userTransferService, FlightRecordingService flightRecordingService,
+      @Value("${admin.api-key:}") String adminKey) {
+    this.userTransferService = userTransferService;
+    this.flightRecordingService = flightRecordingService;
+    this.adminKey = adminKey;
+  }
+
+  @GetMapping(value = "/admin/users/export")
+  public void exportUsers(@RequestHeader(value = "X-Admin-Key", required = false) String key,
+      HttpServletResponse response) throws IOException {
+    checkAdminKey(key);
+    response.setContentType(NDJSON);
+    response.setCharacterEncoding("UTF-8");
+    userTransferService.exportUsers(response.getOutputStream());
+  }
+
+  @PostMapping(value = "/admin/users/import", consumes = NDJSON)
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public UserImportResultDTO importUsers(@RequestHeader(value = "X-Admin-Key", required = false) String key,
+      HttpServletRequest request) throws IOException {
+    checkAdminKey(key);
+    return userTransferService.importUsers(request.getInputStream());
+  }
+
+  @PostMapping(value = "/admin/jfr/start")
+  @ResponseStatus(HttpStatus.NO_CONTENT)
+  public void startRecording(@RequestHeader(value = "X-Admin-Key", required = false) String key,
+      @RequestParam(defaultValue = "0") long thresholdMs) {
+    checkAdminKey(key);
+    flightRecordingService.start(Duration.ofMillis(thresholdMs));
+  }
+
+  // answers with the recording, open it in JDK Mission Control or with "jfr print"
+  @PostMapping(value = "/admin/jfr/stop")
+  public void stopRecording(@RequestHeader(value = "X-Admin-Key", required = false) String key,
+      HttpServletResponse response) throws IOException {
+    checkAdminKey(key);
+    Path file = flightRecordingService.stop();
+    try {
+      response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+      response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"soprafs.jfr\"");
+      response.setContentLengthLong(Files.size(file));
+      Files.copy(file, response.getOutputStream());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private void checkAdminKey(String key) {
+    // constant time, so the response time does not tell how much of a guessed key was right
+    if (adminKey.isEmpty() || key == null
+        || !MessageDigest.isEqual(adminKey.getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8))) {
+      throw new DomainException(ErrorCode.ADMIN_KEY_INVALID);
+    }
+  }
+}
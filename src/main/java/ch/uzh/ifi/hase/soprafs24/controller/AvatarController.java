@@ -0,0 +1,159 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
+import ch.uzh.ifi.hase.soprafs24.service.AvatarStore;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+
+/**
+ * Avatar Controller
+ * Profile pictures of the users. Uploads go to the AvatarStore, downloads
+ * are served straight from its files: with Tomcat's sendfile support the
+ * kernel copies the file to the socket, otherwise FileChannel.transferTo is
+ * used. Both support single byte ranges and answer conditional requests on
+ * the strong ETag (the content hash) with 304.
+ */
+@RestController
+public class AvatarController {
+
+  // request attributes of Tomcat's NIO connector for sendfile
+  static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+  private final UserService userService;
+  private final AvatarStore avatarStore;
+
+  AvatarController(UserService userService, AvatarStore avatarStore) {
+    this.userService = userService;
+    this.avatarStore = avatarStore;
+  }
+
+  @PutMapping(value = "/users/{id}/avatar", consumes = { MediaType.IMAGE_PNG_VALUE, MediaType.IMAGE_JPEG_VALUE })
+  public void uploadAvatar(@PathVariable Long id,
+      @RequestHeader(value = "Authorization", required = false) String authToken,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+    User authenticatedUser = authenticate(authToken);
+    if (!authenticatedUser.getId().equals(id)) {
+      throw new DomainException(ErrorCode.NOT_OWNER);
+    }
+    // one byte more than allowed is enough to tell that the upload is too large
+    byte[] image = request.getInputStream().readNBytes(avatarStore.getMaxBytes() + 1);
+    String hash = avatarStore.store(image);
+    userService.setAvatar(userService.getUserById(id), hash);
+    response.setStatus(HttpStatus.NO_CONTENT.value());
+    response.setHeader(HttpHeaders.ETAG, etag(hash));
+  }
+
+  /**
+   * The avatar as uploaded, or with ?size= a PNG thumbnail that fits into
+   * size x size pixels.
+   */
+  @GetMapping("/users/{id}/avatar")
+  public void getAvatar(@PathVariable Long id,
+      @RequestHeader(value = "Authorization", required = false) String authToken,
+      @RequestParam(required = false) Integer size,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+    authenticate(authToken);
+    String hash = userService.getUserById(id).getAvatarHash();
+    if (hash == null) {
+      throw new DomainException(ErrorCode.AVATAR_NOT_FOUND);
+    }
+    String etag = size == null ? etag(hash) : etag(hash + "-" + size);
+    response.setHeader(HttpHeaders.ETAG, etag);
+    response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+    if (ETags.noneMatchHits(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+      response.setStatus(HttpStatus.NOT_MODIFIED.value());
+      return;
+    }
+    Path file = size == null ? avatarStore.original(hash) : avatarStore.thumbnail(hash, size);
+    MediaType mediaType = avatarStore.mediaType(file);
+    response.setContentType(mediaType != null ? mediaType.toString() : MediaType.APPLICATION_OCTET_STREAM_VALUE);
+    serve(file, etag, request, response);
+  }
+
+  private User authenticate(String authToken) {
+    User authenticatedUser = userService.getUserByToken(authToken);
+    if (authToken == null || authenticatedUser == null) {
+      throw new DomainException(ErrorCode.INVALID_TOKEN);
+    }
+    return authenticatedUser;
+  }
+
+  private static void serve(Path file, String etag, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long length = channel.size();
+      long start = 0;
+      long end = length - 1;
+      String range = request.getHeader(HttpHeaders.RANGE);
+      String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+      // an outdated If-Range and several ranges are answered with the whole file
+      if (range != null && (ifRange == null || ifRange.equals(etag))) {
+        List<HttpRange> ranges;
+        try {
+          ranges = HttpRange.parseRanges(range);
+          if (ranges.size() == 1) {
+            start = ranges.get(0).getRangeStart(length);
+            end = ranges.get(0).getRangeEnd(length);
+            if (start >= length || start > end) {
+              throw new IllegalArgumentException("Range not satisfiable: " + range);
+            }
+          }
+        } catch (IllegalArgumentException e) {
+          response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+          response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+          return;
+        }
+        if (ranges.size() == 1) {
+          response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+          response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+      }
+      long count = end - start + 1;
+      response.setContentLengthLong(count);
+
+      if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+        // Tomcat sends the file after the handler returned
+        request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START, start);
+        request.setAttribute(SENDFILE_END, end + 1);
+        return;
+      }
+      WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+      long position = start;
+      while (position <= end) {
+        position += channel.transferTo(position, end + 1 - position, out);
+      }
+    }
+  }
+
+  private static String etag(String value) {
+    return "\"" + value + "\"";
+  }
+}
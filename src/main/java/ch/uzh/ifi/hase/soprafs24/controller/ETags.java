@@ -0,0 +1,31 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+/**
+ * Conditional GETs on entity tags (RFC 7232). If-None-Match holds "*" or a
+ * comma separated list of tags and is compared weakly, so W/"x" matches "x".
+ */
+final class ETags {
+
+  private ETags() {
+  }
+
+  /**
+   * @return true if the If-None-Match header (may be null) matches the
+   *         quoted etag, i.e. the client's copy is current
+   */
+  static boolean noneMatchHits(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = candidate.trim();
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals("*") || tag.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
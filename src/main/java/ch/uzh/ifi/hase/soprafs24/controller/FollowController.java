@@ -0,0 +1,133 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.UserJsonWriter;
+import ch.uzh.ifi.hase.soprafs24.service.FollowService;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+
+/**
+ * Follow Controller
+ * Following other users, and paging through the users someone follows, their
+ * followers and their friends (users that follow each other). Pages are
+ * ordered by id and look like {"users": [...], "next": 42}; pass next as
+ * ?after= for the following page, the last page has no next.
+ */
+@RestController
+public class FollowController {
+
+  private final UserService userService;
+  private final FollowService followService;
+  private final UserJsonWriter userJsonWriter;
+
+  FollowController(UserService userService, FollowService followService, UserJsonWriter userJsonWriter) {
+    this.userService = userService;
+    this.followService = followService;
+    this.userJsonWriter = userJsonWriter;
+  }
+
+  @PutMapping("/users/{id}/following/{followeeId}")
+  @ResponseStatus(HttpStatus.NO_CONTENT)
+  public void follow(@PathVariable Long id, @PathVariable Long followeeId,
+      @RequestHeader(value = "Authorization", required = false) String authToken) {
+    checkOwner(id, authToken);
+    if (id.equals(followeeId)) {
+      throw new DomainException(ErrorCode.INVALID_REQUEST, "Users cannot follow themselves");
+    }
+    // 404 for an unknown followee
+    userService.getUserById(followeeId);
+    followService.follow(id, followeeId);
+  }
+
+  @DeleteMapping("/users/{id}/following/{followeeId}")
+  @ResponseStatus(HttpStatus.NO_CONTENT)
+  public void unfollow(@PathVariable Long id, @PathVariable Long followeeId,
+      @RequestHeader(value = "Authorization", required = false) String authToken) {
+    checkOwner(id, authToken);
+    followService.unfollow(id, followeeId);
+  }
+
+  @GetMapping("/users/{id}/following")
+  public void getFollowing(@PathVariable Long id,
+      @RequestHeader(value = "Authorization", required = false) String authToken,
+      @RequestParam(defaultValue = "0") long after, @RequestParam(defaultValue = "50") int limit,
+      HttpServletResponse response) throws IOException {
+    authenticate(authToken);
+    checkLimit(limit);
+    writePage(followService.getFollowing(id, after, limit), limit, response);
+  }
+
+  @GetMapping("/users/{id}/followers")
+  public void getFollowers(@PathVariable Long id,
+      @RequestHeader(value = "Authorization", required = false) String authToken,
+      @RequestParam(defaultValue = "0") long after, @RequestParam(defaultValue = "50") int limit,
+      HttpServletResponse response) throws IOException {
+    authenticate(authToken);
+    checkLimit(limit);
+    writePage(followService.getFollowers(id, after, limit), limit, response);
+  }
+
+  /**
+   * With ?online=true only the friends that are online right now.
+   */
+  @GetMapping("/users/{id}/friends")
+  public void getFriends(@PathVariable Long id,
+      @RequestHeader(value = "Authorization", required = false) String authToken,
+      @RequestParam(defaultValue = "false") boolean online, @RequestParam(defaultValue = "0") long after,
+      @RequestParam(defaultValue = "50") int limit, HttpServletResponse response) throws IOException {
+    authenticate(authToken);
+    checkLimit(limit);
+    writePage(followService.getFriends(id, after, limit, online), limit, response);
+  }
+
+  private void writePage(long[] ids, int limit, HttpServletResponse response) throws IOException {
+    List<Long> idList = new ArrayList<>(ids.length);
+    for (long id : ids) {
+      idList.add(id);
+    }
+    Long next = ids.length == limit ? ids[ids.length - 1] : null;
+    response.setStatus(HttpStatus.OK.value());
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    userJsonWriter.writeUserPage(userService.getUsersInOrder(idList), UserField.PUBLIC, next,
+        response.getOutputStream());
+  }
+
+  private static void checkLimit(int limit) {
+    if (limit < 1 || limit > 1000) {
+      throw new DomainException(ErrorCode.INVALID_REQUEST, "limit must be within 1..1000");
+    }
+  }
+
+  private void checkOwner(Long id, String authToken) {
+    if (!authenticate(authToken).getId().equals(id)) {
+      throw new DomainException(ErrorCode.NOT_OWNER);
+    }
+  }
+
+  private User authenticate(String authToken) {
+    User authenticatedUser = userService.getUserByToken(authToken);
+    if (authToken == null || authenticatedUser == null) {
+      throw new DomainException(ErrorCode.INVALID_TOKEN);
+    }
+    return authenticatedUser;
+  }
+}
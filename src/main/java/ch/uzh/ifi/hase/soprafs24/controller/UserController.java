@@ -1,12 +1,20 @@
 package ch.uzh.ifi.hase.soprafs24.controller;
 
-import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -14,18 +22,38 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.server.ResponseStatusException;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.uzh.ifi.hase.soprafs24.config.Priority;
+import ch.uzh.ifi.hase.soprafs24.constant.RequestPriority;
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
+import ch.uzh.ifi.hase.soprafs24.constant.UserSort;
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.LogOutDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.RefreshDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.SessionDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserChangesDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserStatsDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserStatusBatchDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.UserJsonWriter;
+import ch.uzh.ifi.hase.soprafs24.service.IdempotencyService;
+import ch.uzh.ifi.hase.soprafs24.service.SessionService;
+import ch.uzh.ifi.hase.soprafs24.service.UserChangeLog;
+import ch.uzh.ifi.hase.soprafs24.service.UserListSnapshot;
 import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import ch.uzh.ifi.hase.soprafs24.service.UserStatistics;
 
 /**
  * User Controller
@@ -38,63 +66,286 @@ import ch.uzh.ifi.hase.soprafs24.service.UserService;
 public class UserController {
   private static final Logger logger = LoggerFactory.getLogger(UserController.class);
   private final UserService userService;
+  private final UserJsonWriter userJsonWriter;
+  private final UserStatistics userStatistics;
+  private final UserChangeLog userChangeLog;
+  private final IdempotencyService idempotencyService;
+  private final UserListSnapshot userListSnapshot;
+  private final SessionService sessionService;
+  private final ObjectMapper objectMapper;
+  private final int maxStatusBatch;
 
-  UserController(UserService userService) {
+  static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+  static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+
+  UserController(UserService userService, UserJsonWriter userJsonWriter, UserStatistics userStatistics,
+      UserChangeLog userChangeLog, IdempotencyService idempotencyService, UserListSnapshot userListSnapshot,
+      SessionService sessionService, ObjectMapper objectMapper,
+      @Value("${users.status-batch.max-ids:5000}") int maxStatusBatch) {
     this.userService = userService;
+    this.userJsonWriter = userJsonWriter;
+    this.userStatistics = userStatistics;
+    this.userChangeLog = userChangeLog;
+    this.idempotencyService = idempotencyService;
+    this.userListSnapshot = userListSnapshot;
+    this.sessionService = sessionService;
+    this.objectMapper = objectMapper;
+    this.maxStatusBatch = maxStatusBatch;
   }
 
+  /**
+   * Same JSON as a List of UserGetDTO. The full list comes from the
+   * UserListSnapshot (gzipped if the client accepts it, 304 for a matching
+   * If-None-Match). With ?fields=username,status only these fields are read
+   * from the database and written straight to the response (see
+   * UserJsonWriter). ?sort=newest|birthday&limit=k returns the first k users
+   * of that order (see UserSortIndex), also together with fields.
+   */
   @GetMapping("/users")
+  @Priority(RequestPriority.LOW)
+  public void getAllUsers(@RequestHeader (value = "Authorization", required = false) String authToken,
+      @RequestParam(required = false) String fields, @RequestParam(required = false) String sort,
+      @RequestParam(defaultValue = "20") int limit, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    User authenticatedUser = userService.getUserByToken(authToken);
+    if (authToken == null || authenticatedUser == null) {
+        throw new DomainException(ErrorCode.INVALID_TOKEN);
+    }
+    Set<UserField> selected = fields == null ? null : parseFields(fields);
+    if (sort != null) {
+      if (limit < 1 || limit > 1000) {
+        throw new DomainException(ErrorCode.INVALID_REQUEST, "limit must be within 1..1000");
+      }
+      List<User> users = userService.getUsers(parseSort(sort), limit);
+      response.setStatus(HttpStatus.OK.value());
+      response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+      if (selected == null) {
+        userJsonWriter.writeUsers(users, response.getOutputStream());
+      } else {
+        userJsonWriter.writeUsers(users, selected, response.getOutputStream());
+      }
+      return;
+    }
+    if (selected == null) {
+      writeSnapshot(userListSnapshot.get(), request, response);
+      return;
+    }
+    response.setStatus(HttpStatus.OK.value());
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    userJsonWriter.writeUsers(userService.getUsers(selected), selected, response.getOutputStream());
+  }
+
+  private static void writeSnapshot(UserListSnapshot.Snapshot snapshot, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    boolean gzip = acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    String etag = gzip ? snapshot.getGzipEtag() : snapshot.getEtag();
+    response.setHeader(HttpHeaders.ETAG, etag);
+    response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (ETags.noneMatchHits(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+      response.setStatus(HttpStatus.NOT_MODIFIED.value());
+      return;
+    }
+    byte[] body = snapshot.getJson();
+    if (gzip) {
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+      body = snapshot.getGzip();
+    }
+    response.setStatus(HttpStatus.OK.value());
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  // "gzip" with any quality but q=0
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase("gzip")) {
+        return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+      }
+    }
+    return false;
+  }
+
+  private static UserSort parseSort(String sort) {
+    try {
+      return UserSort.parse(sort);
+    } catch (IllegalArgumentException e) {
+      throw new DomainException(ErrorCode.INVALID_REQUEST, e.getMessage());
+    }
+  }
+
+  private static Set<UserField> parseFields(String fields) {
+    try {
+      return UserField.parse(fields);
+    } catch (IllegalArgumentException e) {
+      throw new DomainException(ErrorCode.INVALID_REQUEST, e.getMessage());
+    }
+  }
+
+  @GetMapping("/users/stats")
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
-  public List<UserGetDTO> getAllUsers(@RequestHeader (value = "Authorization", required = false) String authToken) {
+  public UserStatsDTO getUserStats(@RequestHeader(value = "Authorization", required = false) String authToken) {
     User authenticatedUser = userService.getUserByToken(authToken);
     if (authToken == null || authenticatedUser == null) {
-        throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid or missing token");
+        throw new DomainException(ErrorCode.INVALID_TOKEN);
     }
-    List<User> users = userService.getUsers();
-    List<UserGetDTO> userGetDTOs = new ArrayList<>();
-    for (User user : users) {
-      userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+    return userStatistics.getStats();
+  }
+
+  /**
+   * Delta sync: the users changed or deleted after the cursor "since". Start
+   * with since=0 and continue with the returned cursor.
+   */
+  @GetMapping("/users/changes")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public UserChangesDTO getUserChanges(@RequestHeader(value = "Authorization", required = false) String authToken,
+      @RequestParam(defaultValue = "0") long since, @RequestParam(defaultValue = "500") int limit) {
+    User authenticatedUser = userService.getUserByToken(authToken);
+    if (authToken == null || authenticatedUser == null) {
+        throw new DomainException(ErrorCode.INVALID_TOKEN);
+    }
+    if (since < 0 || limit < 1 || limit > 1000) {
+        throw new DomainException(ErrorCode.INVALID_REQUEST, "since must be >= 0 and limit within 1..1000");
     }
-    return userGetDTOs;
+    return userChangeLog.getChanges(since, limit);
   }
 
-  @PostMapping("/login/auth")
+  /**
+   * Presence of a whole roster in one request: {"ids": [1, 2, 3]} is answered
+   * with {"1": "ONLINE", "2": "OFFLINE"}, unknown ids are left out.
+   */
+  @PostMapping("/users/status:batch")
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
-  public UserGetDTO loginUser(@RequestBody UserPostDTO userPostDTO) {
+  public Map<Long, UserStatus> getUserStatuses(@RequestBody UserStatusBatchDTO batch,
+      @RequestHeader(value = "Authorization", required = false) String authToken) {
+    User authenticatedUser = userService.getUserByToken(authToken);
+    if (authToken == null || authenticatedUser == null) {
+        throw new DomainException(ErrorCode.INVALID_TOKEN);
+    }
+    if (batch.getIds() == null || batch.getIds().size() > maxStatusBatch) {
+        throw new DomainException(ErrorCode.INVALID_REQUEST, "ids must be a list of at most " + maxStatusBatch + " ids");
+    }
+    return userService.getStatuses(batch.getIds());
+  }
+
+  @PostMapping("/login/auth")
+  @Priority(RequestPriority.HIGH)
+  public ResponseEntity<?> loginUser(@RequestBody UserPostDTO userPostDTO,
+      @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) throws IOException {
     logger.info("Got request to login user: {}", userPostDTO.getUsername());
-    User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
-    User loggedInUser = userService.loginUser(userInput);
-    return DTOMapper.INSTANCE.convertEntityToUserGetDTO(loggedInUser);
+    if (idempotencyKey != null) {
+      User[] loggedIn = new User[1];
+      IdempotencyService.StoredResponse response = idempotencyService.execute("POST /login/auth", idempotencyKey,
+          userPostDTO, HttpStatus.OK, () -> {
+            loggedIn[0] = userService.loginUser(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
+            return DTOMapper.INSTANCE.convertEntityToUserGetDTO(loggedIn[0]);
+          });
+      return replayableWithSession(response, loggedIn[0]);
+    }
+    User loggedInUser = userService.loginUser(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
+    return ResponseEntity.ok(withSession(DTOMapper.INSTANCE.convertEntityToUserGetDTO(loggedInUser), loggedInUser));
   }
 
-  @PostMapping("/users")
-  @ResponseStatus(HttpStatus.CREATED)
-  @ResponseBody
-  public UserGetDTO createUser(@RequestBody UserPostDTO userPostDTO) {
-    User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
-    User createdUser = userService.createUser(userInput);
-    return DTOMapper.INSTANCE.convertEntityToUserGetDTO(createdUser);
+  // a new session per login: token is its access token, refreshToken renews it
+  private UserGetDTO withSession(UserGetDTO userGetDTO, User user) {
+    SessionService.IssuedTokens tokens = sessionService.open(user);
+    userGetDTO.setToken(tokens.getToken());
+    userGetDTO.setRefreshToken(tokens.getRefreshToken());
+    userGetDTO.setTokenExpiresAt(tokens.getExpiresAt());
+    return userGetDTO;
   }
 
-  @GetMapping("/users/{id}")
+  /**
+   * New access and refresh token for a refresh token; the old ones are no
+   * longer valid afterwards.
+   */
+  @PostMapping("/login/refresh")
+  @Priority(RequestPriority.HIGH)
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
-  public UserGetDTO getUserById(@PathVariable Long id, @RequestHeader(value="Authorization", required=false) String authToken ) {
+  public SessionDTO refreshSession(@RequestBody RefreshDTO refreshDTO) {
+    SessionService.IssuedTokens tokens = sessionService.refresh(refreshDTO.getRefreshToken());
+    SessionDTO sessionDTO = new SessionDTO();
+    sessionDTO.setToken(tokens.getToken());
+    sessionDTO.setRefreshToken(tokens.getRefreshToken());
+    sessionDTO.setExpiresAt(tokens.getExpiresAt());
+    return sessionDTO;
+  }
+
+  /**
+   * Retries with the same Idempotency-Key get the response of the first
+   * request instead of a 409 for the now existing username.
+   */
+  @PostMapping("/users")
+  public ResponseEntity<?> createUser(@RequestBody UserPostDTO userPostDTO,
+      @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) throws IOException {
+    if (idempotencyKey != null) {
+      User[] created = new User[1];
+      IdempotencyService.StoredResponse response = idempotencyService.execute("POST /users", idempotencyKey,
+          userPostDTO, HttpStatus.CREATED, () -> {
+            created[0] = userService.createUser(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
+            return DTOMapper.INSTANCE.convertEntityToUserGetDTO(created[0]);
+          });
+      return replayableWithSession(response, created[0]);
+    }
+    User createdUser = userService.createUser(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
+    return ResponseEntity.status(HttpStatus.CREATED)
+        .body(withSession(DTOMapper.INSTANCE.convertEntityToUserGetDTO(createdUser), createdUser));
+  }
+
+  /**
+   * The stored response of a login or signup holds the user but no session:
+   * tokens are not kept for the lifetime of the Idempotency-Key (in memory,
+   * or in the database with idempotency.persistent=true), and two clients
+   * that send the same key do not share one session, where a refresh by one
+   * would revoke the other (REFRESH_TOKEN_REUSED). Every response, replayed
+   * or not, opens a session of its own. A replay answers the same request
+   * body, with the same password, so it is no weaker than a new login.
+   *
+   * @param user the user if this request ran the action, null on a replay
+   */
+  private ResponseEntity<UserGetDTO> replayableWithSession(IdempotencyService.StoredResponse response, User user)
+      throws IOException {
+    UserGetDTO userGetDTO = objectMapper.readValue(response.getBody(), UserGetDTO.class);
+    if (user == null) {
+      user = userService.getUserById(userGetDTO.getId());
+    }
+    return ResponseEntity.status(response.getStatus())
+        .header(IDEMPOTENT_REPLAYED, Boolean.toString(response.isReplayed()))
+        .body(withSession(userGetDTO, user));
+  }
+
+  @GetMapping("/users/{id}")
+  @Priority(RequestPriority.HIGH)
+  public ResponseEntity<?> getUserById(@PathVariable Long id, @RequestHeader(value="Authorization", required=false) String authToken,
+      @RequestParam(required = false) String fields) throws IOException {
       User authenticatedUser = userService.getUserByToken(authToken);
       if (authToken == null) {
-          throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid token");
+          throw new DomainException(ErrorCode.INVALID_TOKEN, "Invalid token");
       }
       if ( authenticatedUser == null) {
-        throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Missing token");
+        throw new DomainException(ErrorCode.UNKNOWN_TOKEN);
+      }
+      logger.debug("GET request for user with ID: {}", id);
+      if (fields != null) {
+          Set<UserField> selected = parseFields(fields);
+          ByteArrayOutputStream json = new ByteArrayOutputStream();
+          userJsonWriter.writeUser(userService.getUserById(id, selected), selected, json);
+          return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json.toByteArray());
       }
-      System.out.println(String.format("GET request for user with ID: %d", id));
       User user = userService.getUserById(id);
-      return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+      return ResponseEntity.ok(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
   }
 
   @PutMapping("/users/logout")
+  @Priority(RequestPriority.HIGH)
   @ResponseStatus(HttpStatus.OK)
   public ResponseEntity<Void> logoutUser(@RequestBody LogOutDTO logOutDTO) {
     try {
@@ -102,16 +353,27 @@ public class UserController {
         if (user == null) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         }
-        if (!user.getToken().equals(logOutDTO.getToken())) {
+        String token = logOutDTO.getToken();
+        if (SessionService.isAccessToken(token)) {
+            if (!sessionService.close(token, user.getId())) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+            }
+            // still online in the other sessions
+            if (sessionService.hasOpenSessions(user.getId())) {
+                return ResponseEntity.noContent().build();
+            }
+        } else if (!userService.acceptsAccountTokens() || !user.getToken().equals(token)) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
         userService.logoutUser(user);
 
         return ResponseEntity.noContent().build();
+    } catch (DomainException e) {
+        throw e;
     } catch (IllegalArgumentException e) {
         return ResponseEntity.badRequest().build();
     } catch (Exception e) {
-        e.printStackTrace();
+        logger.error("Logout of user {} failed", logOutDTO.getId(), e);
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
 }
@@ -121,10 +383,10 @@ public class UserController {
   @RequestHeader(value="Authorization", required=false) String authToken) {
     User authenticatedUser = userService.getUserByToken(authToken);
     if (authToken == null) {
-        throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid token");
+        throw new DomainException(ErrorCode.INVALID_TOKEN, "Invalid token");
     }
     if ( authenticatedUser == null) {
-      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Missing token");
+      throw new DomainException(ErrorCode.UNKNOWN_TOKEN);
     }
     User user = userService.getUserById(id);
 
@@ -133,13 +395,7 @@ public class UserController {
             .status(HttpStatus.NOT_FOUND)
             .body("User not found");
     }
-      try {
-          userService.editUser(user, userPutDTO);
-          return ResponseEntity.noContent().build();
-      } catch (IllegalArgumentException e) {
-          return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("message", e.getMessage()));
-      } catch (Exception e) {
-          return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", e.getMessage()));
-      }
+    userService.editUser(user, userPutDTO);
+    return ResponseEntity.noContent().build();
   }
 }
@@ -0,0 +1,81 @@
+package ch.uzh.ifi.hase.soprafs24.entity;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+/**
+ * Internal Idempotency Record
+ * A completed response stored under its Idempotency-Key, only used when
+ * idempotency.persistent=true (see IdempotencyService). Survives restarts of
+ * the application as long as the database does.
+ */
+@Entity
+@Table(name = "IDEMPOTENCY_RECORD")
+public class IdempotencyRecord implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  // endpoint and key, e.g. "POST /users 6f1c..."
+  @Id
+  @Column(length = 512)
+  private String id;
+
+  @Column(nullable = false)
+  private String fingerprint;
+
+  @Column(nullable = false)
+  private int status;
+
+  @Lob
+  @Column(nullable = false)
+  private byte[] body;
+
+  @Column(nullable = false)
+  private Instant expiresAt;
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  public void setFingerprint(String fingerprint) {
+    this.fingerprint = fingerprint;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public void setStatus(int status) {
+    this.status = status;
+  }
+
+  public byte[] getBody() {
+    return body;
+  }
+
+  public void setBody(byte[] body) {
+    this.body = body;
+  }
+
+  public Instant getExpiresAt() {
+    return expiresAt;
+  }
+
+  public void setExpiresAt(Instant expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+}
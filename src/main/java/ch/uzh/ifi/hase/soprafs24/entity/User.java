@@ -4,10 +4,17 @@ import java.time.LocalDate;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+import ch.uzh.ifi.hase.soprafs24.config.UserListSnapshotInvalidator;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 
 /**
@@ -21,13 +28,25 @@ import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
  * the primary key
  */
 @Entity
-@Table(name = "USER")
+@EntityListeners(UserListSnapshotInvalidator.class)
+@Table(name = "USER", indexes = @Index(name = "IDX_USER_CHANGE_SEQ", columnList = "changeSeq"))
 public class User implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
+  /**
+   * Ids are taken from USER_ID_SEQUENCE in blocks of this size (one sequence
+   * call per block instead of per user): a sequence value v hands out the
+   * ids v to v + ID_BLOCK_SIZE - 1.
+   */
+  public static final int ID_BLOCK_SIZE = 50;
+
   @Id
-  @GeneratedValue
+  @GeneratedValue(generator = "user_id")
+  @GenericGenerator(name = "user_id", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+      @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "USER_ID_SEQUENCE"),
+      @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "" + ID_BLOCK_SIZE),
+      @Parameter(name = SequenceStyleGenerator.OPT_PARAM, value = "pooled-lo") })
   private Long id;
 
   @Column(nullable = false)
@@ -51,6 +70,14 @@ public class User implements Serializable {
   @Column(nullable = false)
   private UserStatus status;
 
+  // position of the last change in the change log (see UserChangeLog)
+  @Column(nullable = true)
+  private Long changeSeq;
+
+  // SHA-256 of the profile picture in the AvatarStore, the image itself is not in the table
+  @Column(nullable = true, length = 64)
+  private String avatarHash;
+
   public Long getId() {
     return id;
   }
@@ -114,7 +141,6 @@ public class User implements Serializable {
         ", name='" + name + '\'' +
         ", username='" + username + '\'' +
         ", token='" + token + '\'' +
-        ", password='" + password + '\'' +
         ", status=" + status +
         ", date=" + date +
         ", birthday=" + birthday +
@@ -128,4 +154,20 @@ public class User implements Serializable {
   public void setBirthday(LocalDate birthday) {
     this.birthday = birthday;
   }
+
+  public Long getChangeSeq() {
+    return changeSeq;
+  }
+
+  public void setChangeSeq(Long changeSeq) {
+    this.changeSeq = changeSeq;
+  }
+
+  public String getAvatarHash() {
+    return avatarHash;
+  }
+
+  public void setAvatarHash(String avatarHash) {
+    this.avatarHash = avatarHash;
+  }
 }
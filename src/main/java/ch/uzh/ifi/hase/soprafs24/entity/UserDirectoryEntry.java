@@ -0,0 +1,67 @@
+package ch.uzh.ifi.hase.soprafs24.entity;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Internal User Directory Entry
+ * Only used when the users are sharded over several databases: records on
+ * which shard a user lives, so that lookups by username or token go to the
+ * right shard. The directory stays in the main database, its unique columns
+ * keep usernames (and tokens) unique across all shards.
+ */
+@Entity
+@Table(name = "USER_DIRECTORY")
+public class UserDirectoryEntry implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  // same id as the user on its shard
+  @Id
+  private Long id;
+
+  @Column(nullable = false, unique = true)
+  private String username;
+
+  @Column(nullable = false, unique = true)
+  private String token;
+
+  @Column(nullable = false)
+  private int shard;
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public void setUsername(String username) {
+    this.username = username;
+  }
+
+  public String getToken() {
+    return token;
+  }
+
+  public void setToken(String token) {
+    this.token = token;
+  }
+
+  public int getShard() {
+    return shard;
+  }
+
+  public void setShard(int shard) {
+    this.shard = shard;
+  }
+}
@@ -0,0 +1,62 @@
+package ch.uzh.ifi.hase.soprafs24.entity;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * Internal User Follow
+ * One follow edge: the follower follows the followee. The edges are kept
+ * apart from User, so loading users never loads them; they are served from
+ * the in-memory FollowGraph (see FollowService).
+ */
+@Entity
+@Table(name = "USER_FOLLOW",
+    uniqueConstraints = @UniqueConstraint(name = "UK_USER_FOLLOW", columnNames = { "followerId", "followeeId" }),
+    indexes = @Index(name = "IDX_USER_FOLLOW_FOLLOWEE", columnList = "followeeId"))
+public class UserFollow implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  // IDENTITY: following is a single insert; the id is also the keyset of the graph load
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @Column(nullable = false)
+  private Long followerId;
+
+  @Column(nullable = false)
+  private Long followeeId;
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public Long getFollowerId() {
+    return followerId;
+  }
+
+  public void setFollowerId(Long followerId) {
+    this.followerId = followerId;
+  }
+
+  public Long getFolloweeId() {
+    return followeeId;
+  }
+
+  public void setFolloweeId(Long followeeId) {
+    this.followeeId = followeeId;
+  }
+}
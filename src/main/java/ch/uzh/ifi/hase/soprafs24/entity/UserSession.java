@@ -0,0 +1,119 @@
+package ch.uzh.ifi.hase.soprafs24.entity;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * Internal User Session
+ * One login of a user (see SessionService); a user can have any number of
+ * sessions at once. Only the SHA-256 of the tokens is stored, the tokens
+ * themselves are known to the client alone. The access token is valid until
+ * expiresAt, the refresh token until refreshExpiresAt; the previous refresh
+ * token is kept to detect its reuse.
+ */
+@Entity
+@Table(name = "USER_SESSION", indexes = {
+    @Index(name = "IDX_USER_SESSION_USER", columnList = "userId"),
+    @Index(name = "IDX_USER_SESSION_PREVIOUS_REFRESH", columnList = "previousRefreshTokenHash") })
+public class UserSession implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  // IDENTITY: opening a session is a single insert, no sequence call
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @Column(nullable = false)
+  private Long userId;
+
+  @Column(nullable = false, unique = true, length = 64)
+  private String tokenHash;
+
+  @Column(nullable = false, unique = true, length = 64)
+  private String refreshTokenHash;
+
+  @Column(nullable = true, length = 64)
+  private String previousRefreshTokenHash;
+
+  @Column(nullable = false)
+  private Instant createdAt;
+
+  @Column(nullable = false)
+  private Instant expiresAt;
+
+  @Column(nullable = false)
+  private Instant refreshExpiresAt;
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public Long getUserId() {
+    return userId;
+  }
+
+  public void setUserId(Long userId) {
+    this.userId = userId;
+  }
+
+  public String getTokenHash() {
+    return tokenHash;
+  }
+
+  public void setTokenHash(String tokenHash) {
+    this.tokenHash = tokenHash;
+  }
+
+  public String getRefreshTokenHash() {
+    return refreshTokenHash;
+  }
+
+  public void setRefreshTokenHash(String refreshTokenHash) {
+    this.refreshTokenHash = refreshTokenHash;
+  }
+
+  public String getPreviousRefreshTokenHash() {
+    return previousRefreshTokenHash;
+  }
+
+  public void setPreviousRefreshTokenHash(String previousRefreshTokenHash) {
+    this.previousRefreshTokenHash = previousRefreshTokenHash;
+  }
+
+  public Instant getCreatedAt() {
+    return createdAt;
+  }
+
+  public void setCreatedAt(Instant createdAt) {
+    this.createdAt = createdAt;
+  }
+
+  public Instant getExpiresAt() {
+    return expiresAt;
+  }
+
+  public void setExpiresAt(Instant expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+
+  public Instant getRefreshExpiresAt() {
+    return refreshExpiresAt;
+  }
+
+  public void setRefreshExpiresAt(Instant refreshExpiresAt) {
+    this.refreshExpiresAt = refreshExpiresAt;
+  }
+}
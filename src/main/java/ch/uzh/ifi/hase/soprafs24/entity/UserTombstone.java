@@ -0,0 +1,45 @@
+package ch.uzh.ifi.hase.soprafs24.entity;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * Internal User Tombstone
+ * Left behind when a user is deleted, so that clients syncing with
+ * GET /users/changes learn about the deletion. Always in the main database,
+ * also when the users are sharded.
+ */
+@Entity
+@Table(name = "USER_TOMBSTONE", indexes = @Index(name = "IDX_USER_TOMBSTONE_CHANGE_SEQ", columnList = "changeSeq"))
+public class UserTombstone implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  // id of the deleted user
+  @Id
+  private Long id;
+
+  @Column(nullable = false)
+  private long changeSeq;
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public long getChangeSeq() {
+    return changeSeq;
+  }
+
+  public void setChangeSeq(long changeSeq) {
+    this.changeSeq = changeSeq;
+  }
+}
@@ -0,0 +1,35 @@
+package ch.uzh.ifi.hase.soprafs24.exceptions;
+
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * An expected error (unknown user, wrong password, ...) that is answered with
+ * the status of its ErrorCode. These are part of normal traffic, some of them
+ * (e.g. wrong passwords) in large numbers, so no stack trace is captured:
+ * capturing it is the expensive part of throwing. Instances are still created
+ * per throw, a shared instance would collect suppressed exceptions forever.
+ */
+public class DomainException extends ResponseStatusException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final ErrorCode code;
+
+  public DomainException(ErrorCode code) {
+    this(code, code.getDefaultMessage());
+  }
+
+  public DomainException(ErrorCode code, String message) {
+    super(code.getStatus(), message);
+    this.code = code;
+  }
+
+  public ErrorCode getCode() {
+    return code;
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+}
@@ -0,0 +1,48 @@
+package ch.uzh.ifi.hase.soprafs24.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * The expected errors of the API. The name is sent to the client as "code"
+ * in the error body (see ErrorDTO) and tags the error counters.
+ */
+public enum ErrorCode {
+  USER_NOT_FOUND(HttpStatus.NOT_FOUND, "User not found"),
+  WRONG_PASSWORD(HttpStatus.UNAUTHORIZED, "Password not correct"),
+  USERNAME_TAKEN(HttpStatus.CONFLICT, "The username and the name provided are not unique."),
+  INVALID_TOKEN(HttpStatus.UNAUTHORIZED, "Invalid or missing token"),
+  INVALID_REFRESH_TOKEN(HttpStatus.UNAUTHORIZED, "Invalid or expired refresh token"),
+  REFRESH_TOKEN_REUSED(HttpStatus.UNAUTHORIZED, "The refresh token was already used, the session is closed"),
+  // GET and PUT /users/{id} answer an unknown token with 404
+  UNKNOWN_TOKEN(HttpStatus.NOT_FOUND, "Missing token"),
+  INVALID_USER_DATA(HttpStatus.BAD_REQUEST, "Invalid user data"),
+  INVALID_REQUEST(HttpStatus.BAD_REQUEST, "Invalid request"),
+  CURSOR_GONE(HttpStatus.GONE, "Unknown cursor, fetch all users again"),
+  IDEMPOTENCY_IN_PROGRESS(HttpStatus.CONFLICT, "A request with this Idempotency-Key is still in progress"),
+  IDEMPOTENCY_KEY_REUSED(HttpStatus.UNPROCESSABLE_ENTITY,
+      "The Idempotency-Key was already used for a different request"),
+  ADMIN_KEY_INVALID(HttpStatus.FORBIDDEN, "Admin key missing or wrong"),
+  RECORDING_RUNNING(HttpStatus.CONFLICT, "A JFR recording is already running"),
+  NO_RECORDING(HttpStatus.CONFLICT, "No JFR recording is running"),
+  NOT_OWNER(HttpStatus.FORBIDDEN, "Only the user themselves can change this"),
+  AVATAR_NOT_FOUND(HttpStatus.NOT_FOUND, "The user has no avatar"),
+  INVALID_AVATAR(HttpStatus.BAD_REQUEST, "The avatar has to be a PNG or JPEG image"),
+  AVATAR_TOO_LARGE(HttpStatus.PAYLOAD_TOO_LARGE, "The avatar is too large"),
+  OVERLOADED(HttpStatus.SERVICE_UNAVAILABLE, "Too many requests in progress, retry later");
+
+  private final HttpStatus status;
+  private final String defaultMessage;
+
+  ErrorCode(HttpStatus status, String defaultMessage) {
+    this.status = status;
+    this.defaultMessage = defaultMessage;
+  }
+
+  public HttpStatus getStatus() {
+    return status;
+  }
+
+  public String getDefaultMessage() {
+    return defaultMessage;
+  }
+}
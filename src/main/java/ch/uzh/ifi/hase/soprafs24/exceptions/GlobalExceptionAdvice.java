@@ -1,7 +1,14 @@
 package ch.uzh.ifi.hase.soprafs24.exceptions;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -16,11 +23,63 @@ import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExcep
 
 import javax.servlet.http.HttpServletRequest;
 
+import ch.uzh.ifi.hase.soprafs24.rest.dto.ErrorDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
 @ControllerAdvice(annotations = RestController.class)
 public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
 
   private final Logger log = LoggerFactory.getLogger(GlobalExceptionAdvice.class);
 
+  private final Map<ErrorCode, Counter> errorCounters = new EnumMap<>(ErrorCode.class);
+  // per error code: when it may be logged next, and how often it was not logged since
+  private final Map<ErrorCode, AtomicLong> nextLogAt = new EnumMap<>(ErrorCode.class);
+  private final Map<ErrorCode, LongAdder> notLogged = new EnumMap<>(ErrorCode.class);
+  private final long logIntervalNanos;
+
+  public GlobalExceptionAdvice(MeterRegistry meterRegistry,
+      @Value("${errors.log-interval-ms:10000}") long logIntervalMs) {
+    this.logIntervalNanos = TimeUnit.MILLISECONDS.toNanos(logIntervalMs);
+    for (ErrorCode code : ErrorCode.values()) {
+      errorCounters.put(code, Counter.builder("http.errors").tag("code", code.name()).register(meterRegistry));
+      nextLogAt.put(code, new AtomicLong(System.nanoTime()));
+      notLogged.put(code, new LongAdder());
+    }
+  }
+
+  /**
+   * Expected errors: a uniform JSON body, a counter per code and at most one
+   * log line per code and interval (without stack trace, there is none).
+   */
+  @ExceptionHandler(DomainException.class)
+  public ResponseEntity<ErrorDTO> handleDomainException(DomainException ex, HttpServletRequest request) {
+    ErrorCode code = ex.getCode();
+    errorCounters.get(code).increment();
+    logRateLimited(code, ex, request);
+
+    ErrorDTO error = new ErrorDTO();
+    error.setStatus(code.getStatus().value());
+    error.setCode(code.name());
+    error.setMessage(ex.getReason());
+    return ResponseEntity.status(code.getStatus()).body(error);
+  }
+
+  private void logRateLimited(ErrorCode code, DomainException ex, HttpServletRequest request) {
+    if (!log.isInfoEnabled()) {
+      return;
+    }
+    AtomicLong next = nextLogAt.get(code);
+    long now = System.nanoTime();
+    long allowedAt = next.get();
+    if (now - allowedAt < 0 || !next.compareAndSet(allowedAt, now + logIntervalNanos)) {
+      notLogged.get(code).increment();
+      return;
+    }
+    log.info("{} on {} {}: {} ({} more since the last log line)", code, request.getMethod(),
+        request.getRequestURI(), ex.getReason(), notLogged.get(code).sumThenReset());
+  }
+
   @ExceptionHandler(value = { IllegalArgumentException.class, IllegalStateException.class })
   protected ResponseEntity<Object> handleConflict(RuntimeException ex, WebRequest request) {
     String bodyOfResponse = "This should be application specific";
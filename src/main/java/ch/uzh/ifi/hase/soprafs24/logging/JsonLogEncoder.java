@@ -0,0 +1,110 @@
+package ch.uzh.ifi.hase.soprafs24.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.encoder.EncoderBase;
+
+/**
+ * JSON Log Encoder
+ * Writes every log event as one line of JSON (timestamp, level, logger,
+ * thread, message, mdc, exception). The values of the configured fields
+ * (e.g. password and token) are replaced by *** in the message and the
+ * exception text, whether they appear as key=value, key: value or as JSON.
+ * A key also matches when it ends in a configured field, so token covers
+ * refreshToken and accessToken as well.
+ */
+public class JsonLogEncoder extends EncoderBase<ILoggingEvent> {
+
+  private static final byte[] NO_BYTES = new byte[0];
+  private static final String REDACTED = "***";
+
+  private final JsonFactory jsonFactory = new JsonFactory();
+  private final List<String> redactedFields = new ArrayList<>();
+  private Pattern redaction;
+
+  // one <redact> element per field name in logback-spring.xml
+  public void addRedact(String field) {
+    redactedFields.add(field.trim());
+  }
+
+  @Override
+  public void start() {
+    if (!redactedFields.isEmpty()) {
+      List<String> quoted = new ArrayList<>();
+      for (String field : redactedFields) {
+        quoted.add(Pattern.quote(field));
+      }
+      // group 1: the key (any word ending in a field) with its separator, group 2: the value
+      redaction = Pattern.compile("(?i)(\"?\\b\\w*?(?:" + String.join("|", quoted) + ")\"?\\s*[=:]\\s*)"
+          + "(\"[^\"]*\"|'[^']*'|[^\\s,;&}\\]]+)");
+    }
+    super.start();
+  }
+
+  @Override
+  public byte[] headerBytes() {
+    return NO_BYTES;
+  }
+
+  @Override
+  public byte[] footerBytes() {
+    return NO_BYTES;
+  }
+
+  @Override
+  public byte[] encode(ILoggingEvent event) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    try (JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+      generator.writeStartObject();
+      generator.writeStringField("timestamp", Instant.ofEpochMilli(event.getTimeStamp()).toString());
+      generator.writeStringField("level", event.getLevel().toString());
+      generator.writeStringField("logger", event.getLoggerName());
+      generator.writeStringField("thread", event.getThreadName());
+      generator.writeStringField("message", redact(event.getFormattedMessage()));
+      Map<String, String> mdc = event.getMDCPropertyMap();
+      if (mdc != null && !mdc.isEmpty()) {
+        generator.writeObjectFieldStart("mdc");
+        for (Map.Entry<String, String> entry : mdc.entrySet()) {
+          generator.writeStringField(entry.getKey(), redact(entry.getValue()));
+        }
+        generator.writeEndObject();
+      }
+      IThrowableProxy throwable = event.getThrowableProxy();
+      if (throwable != null) {
+        generator.writeStringField("exception", redact(ThrowableProxyUtil.asString(throwable)));
+      }
+      generator.writeEndObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    out.write('\n');
+    return out.toByteArray();
+  }
+
+  String redact(String text) {
+    if (redaction == null || text == null) {
+      return text;
+    }
+    return redaction.matcher(text).replaceAll(match -> {
+      String value = match.group(2);
+      char quote = value.charAt(0);
+      String replacement = quote == '"' || quote == '\'' ? quote + REDACTED + quote : REDACTED;
+      return Matcher.quoteReplacement(match.group(1) + replacement);
+    });
+  }
+}
@@ -0,0 +1,72 @@
+package ch.uzh.ifi.hase.soprafs24.logging;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Sampling Turbo Filter
+ * Lets only a fraction of the TRACE to INFO events of the configured loggers
+ * through, e.g. "ch.uzh.ifi.hase.soprafs24.controller=0.1" keeps one in ten
+ * events of the controllers. WARN and ERROR are never sampled. A rule applies
+ * to its logger and all loggers below it, the most specific rule wins.
+ * Being a turbo filter it runs before the event is even created, so dropped
+ * events cost no formatting or queueing.
+ */
+public class SamplingTurboFilter extends TurboFilter {
+
+  private final Map<String, Double> rules = new TreeMap<>();
+  // rate per logger name, resolved once from the rules
+  private final Map<String, Double> rates = new ConcurrentHashMap<>();
+
+  // comma separated logger=rate pairs
+  public void setSamples(String samples) {
+    for (String rule : samples.split(",")) {
+      if (rule.isBlank()) {
+        continue;
+      }
+      int separator = rule.lastIndexOf('=');
+      if (separator < 0) {
+        addError("Sampling rule without rate: " + rule);
+        continue;
+      }
+      rules.put(rule.substring(0, separator).trim(), Double.parseDouble(rule.substring(separator + 1).trim()));
+    }
+  }
+
+  @Override
+  public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+    // format is null for the isXxxEnabled() checks, only actual events are sampled
+    if (format == null || level.isGreaterOrEqual(Level.WARN) || rules.isEmpty()) {
+      return FilterReply.NEUTRAL;
+    }
+    double rate = rates.computeIfAbsent(logger.getName(), this::rateFor);
+    if (rate >= 1.0 || ThreadLocalRandom.current().nextDouble() < rate) {
+      return FilterReply.NEUTRAL;
+    }
+    return FilterReply.DENY;
+  }
+
+  private double rateFor(String loggerName) {
+    String name = loggerName;
+    while (true) {
+      Double rate = rules.get(name);
+      if (rate != null) {
+        return rate;
+      }
+      int dot = name.lastIndexOf('.');
+      if (dot < 0) {
+        return 1.0;
+      }
+      name = name.substring(0, dot);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package ch.uzh.ifi.hase.soprafs24.profiling;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Flight Recording Service
+ * Starts and stops one on-demand JFR recording with the JDK "default"
+ * settings (the low overhead profile) plus the application events. The
+ * recording is always bounded: it keeps at most maxSize bytes and stops by
+ * itself after the configured maximum duration, in case nobody stops it.
+ */
+@Service
+public class FlightRecordingService implements DisposableBean {
+
+  private final Logger log = LoggerFactory.getLogger(FlightRecordingService.class);
+
+  private final Duration maxDuration;
+  private final long maxSizeBytes;
+
+  private Recording recording;
+
+  public FlightRecordingService(@Value("${profiling.jfr.max-duration-seconds:600}") long maxDurationSeconds,
+      @Value("${profiling.jfr.max-size-mb:100}") long maxSizeMb) {
+    this.maxDuration = Duration.ofSeconds(maxDurationSeconds);
+    this.maxSizeBytes = maxSizeMb * 1024 * 1024;
+  }
+
+  /**
+   * @param threshold only application events that took at least this long
+   *                  are recorded
+   */
+  public synchronized void start(Duration threshold) {
+    if (recording != null) {
+      throw new DomainException(ErrorCode.RECORDING_RUNNING);
+    }
+    Recording newRecording;
+    try {
+      newRecording = new Recording(Configuration.getConfiguration("default"));
+    } catch (IOException | ParseException e) {
+      throw new IllegalStateException("JFR default configuration not available", e);
+    }
+    newRecording.setName("soprafs-on-demand");
+    newRecording.setToDisk(true);
+    newRecording.setMaxSize(maxSizeBytes);
+    newRecording.setDuration(maxDuration);
+    newRecording.enable(UserServiceEvent.class).withThreshold(threshold);
+    newRecording.enable(RepositoryCallEvent.class).withThreshold(threshold);
+    newRecording.start();
+    recording = newRecording;
+    log.info("JFR recording started (threshold {}, at most {})", threshold, maxDuration);
+  }
+
+  /**
+   * Stops the recording and dumps it to a temporary file. The caller owns
+   * the file and has to delete it.
+   */
+  public synchronized Path stop() throws IOException {
+    if (recording == null) {
+      throw new DomainException(ErrorCode.NO_RECORDING);
+    }
+    Recording stopped = recording;
+    recording = null;
+    try {
+      // it may have stopped by itself after the maximum duration
+      if (stopped.getState() == RecordingState.RUNNING) {
+        stopped.stop();
+      }
+      Path file = Files.createTempFile("soprafs-", ".jfr");
+      stopped.dump(file);
+      log.info("JFR recording stopped, {} bytes", Files.size(file));
+      return file;
+    } finally {
+      stopped.close();
+    }
+  }
+
+  @Override
+  public synchronized void destroy() {
+    if (recording != null) {
+      recording.close();
+      recording = null;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package ch.uzh.ifi.hase.soprafs24.profiling;
+
+import java.util.Optional;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+/**
+ * JFR Event Aspect
+ * Emits a UserServiceEvent around every public UserService method and a
+ * RepositoryCallEvent around every repository call. As long as no recording
+ * has the events enabled, the only cost is the isEnabled() check; the event
+ * fields are only filled in for events that are actually committed.
+ */
+@Aspect
+@Component
+public class JfrEventAspect {
+
+  // the application repository an (often inherited) repository method was called on
+  private static final ClassValue<String> REPOSITORY_NAMES = new ClassValue<>() {
+    @Override
+    protected String computeValue(Class<?> type) {
+      for (Class<?> candidate : ClassUtils.getAllInterfacesForClassAsSet(type)) {
+        if (candidate.getPackageName().startsWith("ch.uzh.ifi.hase.soprafs24")) {
+          return candidate.getSimpleName();
+        }
+      }
+      return type.getSimpleName();
+    }
+  };
+
+  @Around("execution(public * ch.uzh.ifi.hase.soprafs24.service.UserService.*(..))")
+  public Object recordUserServiceCall(ProceedingJoinPoint joinPoint) throws Throwable {
+    UserServiceEvent event = new UserServiceEvent();
+    if (!event.isEnabled()) {
+      return joinPoint.proceed();
+    }
+    event.begin();
+    Object result = null;
+    boolean failed = true;
+    try {
+      result = joinPoint.proceed();
+      failed = false;
+      return result;
+    } finally {
+      event.end();
+      if (event.shouldCommit()) {
+        event.operation = joinPoint.getSignature().getName();
+        event.userId = userId(joinPoint, result);
+        event.endpoint = endpoint();
+        event.failed = failed;
+        event.commit();
+      }
+    }
+  }
+
+  @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+  public Object recordRepositoryCall(ProceedingJoinPoint joinPoint) throws Throwable {
+    RepositoryCallEvent event = new RepositoryCallEvent();
+    if (!event.isEnabled()) {
+      return joinPoint.proceed();
+    }
+    event.begin();
+    Object result = null;
+    boolean failed = true;
+    try {
+      result = joinPoint.proceed();
+      failed = false;
+      return result;
+    } finally {
+      event.end();
+      if (event.shouldCommit()) {
+        event.repository = REPOSITORY_NAMES.get(joinPoint.getTarget().getClass());
+        event.method = joinPoint.getSignature().getName();
+        event.userId = userId(joinPoint, result);
+        event.endpoint = endpoint();
+        event.failed = failed;
+        event.commit();
+      }
+    }
+  }
+
+  // a user passed in or returned, or the id of the ...ById methods; other
+  // long arguments (e.g. change cursors) are not user ids
+  private static long userId(ProceedingJoinPoint joinPoint, Object result) {
+    Object[] args = joinPoint.getArgs();
+    if (joinPoint.getSignature().getName().contains("ById") && args.length > 0 && args[0] instanceof Long) {
+      return (Long) args[0];
+    }
+    for (Object arg : args) {
+      if (arg instanceof User && ((User) arg).getId() != null) {
+        return ((User) arg).getId();
+      }
+    }
+    if (result instanceof Optional) {
+      result = ((Optional<?>) result).orElse(null);
+    }
+    if (result instanceof User && ((User) result).getId() != null) {
+      return ((User) result).getId();
+    }
+    return 0;
+  }
+
+  private static String endpoint() {
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    if (!(attributes instanceof ServletRequestAttributes)) {
+      return "";
+    }
+    HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+    Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+    return request.getMethod() + " " + (pattern != null ? pattern : request.getRequestURI());
+  }
+}
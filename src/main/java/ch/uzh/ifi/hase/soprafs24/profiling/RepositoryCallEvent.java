@@ -0,0 +1,36 @@
+package ch.uzh.ifi.hase.soprafs24.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One call of a Spring Data repository method, recorded by JfrEventAspect.
+ * For saveAndFlush the duration includes the Hibernate flush.
+ */
+@Name("soprafs.Repository")
+@Label("Repository Call")
+@Category({ "SoPra", "Users" })
+@Description("A call of a repository method")
+@StackTrace(false)
+class RepositoryCallEvent extends jdk.jfr.Event {
+
+  @Label("Repository")
+  String repository;
+
+  @Label("Method")
+  String method;
+
+  @Label("User Id")
+  @Description("Id of the affected user, 0 if there is none")
+  long userId;
+
+  @Label("Endpoint")
+  @Description("HTTP method and path pattern of the request, empty outside of requests")
+  String endpoint;
+
+  @Label("Failed")
+  boolean failed;
+}
@@ -0,0 +1,32 @@
+package ch.uzh.ifi.hase.soprafs24.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One call of a public UserService method, recorded by JfrEventAspect.
+ */
+@Name("soprafs.UserService")
+@Label("User Service Call")
+@Category({ "SoPra", "Users" })
+@Description("A call of a UserService operation, including its repository calls")
+@StackTrace(false)
+class UserServiceEvent extends jdk.jfr.Event {
+
+  @Label("Operation")
+  String operation;
+
+  @Label("User Id")
+  @Description("Id of the affected user, 0 if there is none")
+  long userId;
+
+  @Label("Endpoint")
+  @Description("HTTP method and path pattern of the request, empty outside of requests")
+  String endpoint;
+
+  @Label("Failed")
+  boolean failed;
+}
@@ -0,0 +1,21 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import java.time.Instant;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import ch.uzh.ifi.hase.soprafs24.entity.IdempotencyRecord;
+
+@Repository("idempotencyRecordRepository")
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+
+  @Transactional
+  @Modifying
+  @Query("delete from IdempotencyRecord r where r.expiresAt < :now")
+  int deleteExpired(@Param("now") Instant now);
+}
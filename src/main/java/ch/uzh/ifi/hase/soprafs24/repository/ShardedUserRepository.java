@@ -0,0 +1,464 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.entity.UserDirectoryEntry;
+
+/**
+ * Sharded User Repository
+ * Drop-in UserRepository that partitions the users over several databases
+ * (see ShardingConfig). New users are placed by a stable hash of their
+ * username; afterwards the shard follows from the id (see UserShard), so a
+ * user never moves, not even when the username changes. Lookups by username
+ * and token go through the user directory in the main database, which also
+ * keeps both unique across shards. Queries over all users ask every shard and
+ * merge the ordered results.
+ *
+ * Writes to a shard commit right away. If the surrounding transaction of the
+ * main database rolls back, they are undone: created users are removed from
+ * their shard again, changed and deleted users are written back as they were.
+ * Until then other readers of the shard see the write, and a crash between
+ * the rollback and the undo leaves it in place.
+ *
+ * Every create, and every change of username or token, also writes the user's
+ * row of the directory in the main database, flushed at once to check
+ * uniqueness. Signups therefore do not scale with the number of shards, only
+ * the rest of the user writes (status, profile, ...) and the reads by id do;
+ * the main database takes one small indexed insert per signup.
+ */
+public class ShardedUserRepository implements UserRepository, DisposableBean {
+
+  private static final Sort BY_ID = Sort.by("id");
+  private static final Comparator<User> ID_ORDER = Comparator.comparing(User::getId);
+  private static final Comparator<User> CHANGE_ORDER = Comparator.comparing(User::getChangeSeq);
+
+  private final Logger log = LoggerFactory.getLogger(ShardedUserRepository.class);
+  private final List<UserShard> shards;
+  private final UserDirectoryRepository directory;
+
+  public ShardedUserRepository(List<UserShard> shards, UserDirectoryRepository directory) {
+    this.shards = List.copyOf(shards);
+    this.directory = directory;
+  }
+
+  public int getShardCount() {
+    return shards.size();
+  }
+
+  UserShard shardOf(Long id) {
+    return shards.get((int) Math.floorMod((id - 1) / User.ID_BLOCK_SIZE, (long) shards.size()));
+  }
+
+  UserShard shardFor(String username) {
+    return shards.get(Math.floorMod(mix(username == null ? 0 : username.hashCode()), shards.size()));
+  }
+
+  // String.hashCode is stable across JVMs, the finalizer of murmur3 spreads its bits
+  private static int mix(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
+  private UserShard shardOfDirectoryEntry(UserDirectoryEntry entry) {
+    return shards.get(entry.getShard());
+  }
+
+  // writes
+
+  @Override
+  public <S extends User> S save(S user) {
+    boolean created = user.getId() == null;
+    UserShard shard = created ? shardFor(user.getUsername()) : shardOf(user.getId());
+    User previous = created ? null : snapshot(shard, user.getId());
+    S saved = shard.write(repository -> repository.save(user));
+    try {
+      updateDirectory(saved, shard);
+    } catch (RuntimeException e) {
+      shard.restore(saved.getId(), previous);
+      throw e;
+    }
+    undoOnRollback(saved.getId(), shard, previous);
+    return saved;
+  }
+
+  @Override
+  public <S extends User> List<S> saveAll(Iterable<S> users) {
+    Map<UserShard, List<S>> byShard = new LinkedHashMap<>();
+    for (S user : users) {
+      UserShard shard = user.getId() == null ? shardFor(user.getUsername()) : shardOf(user.getId());
+      byShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(user);
+    }
+    List<S> saved = new ArrayList<>();
+    byShard.forEach((shard, batch) -> {
+      List<Long> existingIds = new ArrayList<>();
+      for (S user : batch) {
+        if (user.getId() != null) {
+          existingIds.add(user.getId());
+        }
+      }
+      Map<Long, User> previous = new HashMap<>();
+      if (!existingIds.isEmpty()) {
+        for (User user : shard.snapshot(existingIds)) {
+          previous.put(user.getId(), user);
+        }
+      }
+      List<S> savedBatch = shard.write(repository -> repository.saveAll(batch));
+      for (S user : savedBatch) {
+        undoOnRollback(user.getId(), shard, previous.get(user.getId()));
+      }
+      for (S user : savedBatch) {
+        updateDirectory(user, shard);
+      }
+      saved.addAll(savedBatch);
+    });
+    return saved;
+  }
+
+  private void updateDirectory(User user, UserShard shard) {
+    UserDirectoryEntry entry = directory.findById(user.getId()).orElse(null);
+    if (entry != null && entry.getUsername().equals(user.getUsername()) && entry.getToken().equals(user.getToken())) {
+      return;
+    }
+    if (entry == null) {
+      entry = new UserDirectoryEntry();
+      entry.setId(user.getId());
+      entry.setShard(shard.getIndex());
+    }
+    entry.setUsername(user.getUsername());
+    entry.setToken(user.getToken());
+    // flush right away so that a taken username fails here and not at commit
+    directory.saveAndFlush(entry);
+  }
+
+  @Override
+  public <S extends User> S saveAndFlush(S user) {
+    return save(user);
+  }
+
+  @Override
+  public void flush() {
+    // shard writes are committed already
+    directory.flush();
+  }
+
+  @Override
+  public void deleteById(Long id) {
+    UserShard shard = shardOf(id);
+    User previous = snapshot(shard, id);
+    shard.write(repository -> {
+      repository.deleteById(id);
+      return null;
+    });
+    if (previous != null) {
+      undoOnRollback(id, shard, previous);
+    }
+    directory.findById(id).ifPresent(directory::delete);
+  }
+
+  @Override
+  public void deleteAll() {
+    for (UserShard shard : shards) {
+      List<User> previous = shard.snapshotAll();
+      shard.write(repository -> {
+        repository.deleteAllInBatch();
+        return null;
+      });
+      for (User user : previous) {
+        undoOnRollback(user.getId(), shard, user);
+      }
+    }
+    directory.deleteAllInBatch();
+  }
+
+  private static User snapshot(UserShard shard, Long id) {
+    List<User> users = shard.snapshot(List.of(id));
+    return users.isEmpty() ? null : users.get(0);
+  }
+
+  /**
+   * Undoes the write if the surrounding transaction of the main database
+   * rolls back. Only the state before the first write of the transaction is
+   * kept, so a user that is changed twice is restored as it was before both.
+   */
+  private void undoOnRollback(Long id, UserShard shard, User previous) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      return;
+    }
+    ShardRollback rollback = null;
+    for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+      if (synchronization instanceof ShardRollback && ((ShardRollback) synchronization).isOf(this)) {
+        rollback = (ShardRollback) synchronization;
+      }
+    }
+    if (rollback == null) {
+      rollback = new ShardRollback();
+      TransactionSynchronizationManager.registerSynchronization(rollback);
+    }
+    rollback.undo.putIfAbsent(id, new Undo(shard, previous));
+  }
+
+  private static final class Undo {
+    private final UserShard shard;
+    // null if the transaction created the user
+    private final User previous;
+
+    Undo(UserShard shard, User previous) {
+      this.shard = shard;
+      this.previous = previous;
+    }
+  }
+
+  /**
+   * The shard writes of one transaction of the main database, undone when it
+   * rolls back. A failed undo is logged and the others still run.
+   */
+  private final class ShardRollback implements TransactionSynchronization {
+    private final Map<Long, Undo> undo = new LinkedHashMap<>();
+
+    boolean isOf(ShardedUserRepository repository) {
+      return repository == ShardedUserRepository.this;
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      if (status != STATUS_ROLLED_BACK) {
+        return;
+      }
+      undo.forEach((id, entry) -> {
+        try {
+          entry.shard.restore(id, entry.previous);
+        } catch (RuntimeException e) {
+          log.error("Could not undo the write of user {} on shard {}", id, entry.shard.getIndex(), e);
+        }
+      });
+    }
+  }
+
+  // lookups routed to a single shard
+
+  @Override
+  public Optional<User> findById(Long id) {
+    return shardOf(id).getRepository().findById(id);
+  }
+
+  @Override
+  public Optional<User> findByIdWithFields(Long id, Set<UserField> fields) {
+    return shardOf(id).getRepository().findByIdWithFields(id, fields);
+  }
+
+  @Override
+  public User findByUsername(String username) {
+    UserDirectoryEntry entry = directory.findByUsername(username);
+    return entry == null ? null : shardOfDirectoryEntry(entry).getRepository().findById(entry.getId()).orElse(null);
+  }
+
+  @Override
+  public User findByToken(String token) {
+    UserDirectoryEntry entry = directory.findByToken(token);
+    return entry == null ? null : shardOfDirectoryEntry(entry).getRepository().findById(entry.getId()).orElse(null);
+  }
+
+  @Override
+  public List<String> findExistingUsernames(Collection<String> usernames) {
+    return directory.findExistingUsernames(usernames);
+  }
+
+  // fan-out over all shards
+
+  @Override
+  public User findByName(String name) {
+    for (UserShard shard : shards) {
+      User user = shard.getRepository().findByName(name);
+      if (user != null) {
+        return user;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public List<User> findAll() {
+    return merge(shard -> shard.getRepository().findAll(BY_ID), ID_ORDER, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public List<User> findAllWithFields(Set<UserField> fields) {
+    return merge(shard -> shard.getRepository().findAllWithFields(fields), ID_ORDER, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public List<User> findAllById(Iterable<Long> ids) {
+    Map<UserShard, List<Long>> byShard = new LinkedHashMap<>();
+    for (Long id : ids) {
+      byShard.computeIfAbsent(shardOf(id), s -> new ArrayList<>()).add(id);
+    }
+    List<User> users = new ArrayList<>();
+    byShard.forEach((shard, shardIds) -> users.addAll(shard.getRepository().findAllById(shardIds)));
+    return users;
+  }
+
+  @Override
+  public List<Object[]> findStatusesByIdIn(Collection<Long> ids) {
+    Map<UserShard, List<Long>> byShard = new LinkedHashMap<>();
+    for (Long id : ids) {
+      byShard.computeIfAbsent(shardOf(id), s -> new ArrayList<>()).add(id);
+    }
+    List<Object[]> statuses = new ArrayList<>();
+    byShard.forEach((shard, shardIds) -> statuses.addAll(shard.getRepository().findStatusesByIdIn(shardIds)));
+    return statuses;
+  }
+
+  @Override
+  public List<Long> findIdsByStatus(UserStatus status) {
+    List<Long> ids = new ArrayList<>();
+    for (UserShard shard : shards) {
+      ids.addAll(shard.getRepository().findIdsByStatus(status));
+    }
+    return ids;
+  }
+
+  @Override
+  public List<Object[]> findSortKeys() {
+    List<Object[]> keys = new ArrayList<>();
+    for (UserShard shard : shards) {
+      keys.addAll(shard.getRepository().findSortKeys());
+    }
+    return keys;
+  }
+
+  @Override
+  public List<User> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable) {
+    // each shard returns at most one page, the merged page is the smallest ids of those
+    Pageable firstPage = PageRequest.of(0, pageable.getPageSize());
+    return merge(shard -> shard.getRepository().findByIdGreaterThanOrderByIdAsc(id, firstPage), ID_ORDER,
+        pageable.getPageSize());
+  }
+
+  @Override
+  public List<User> findChangedBetween(long since, long upTo, Pageable pageable) {
+    Pageable firstPage = PageRequest.of(0, pageable.getPageSize());
+    return merge(shard -> shard.getRepository().findChangedBetween(since, upTo, firstPage), CHANGE_ORDER,
+        pageable.getPageSize());
+  }
+
+  @Override
+  public Long findMaxChangeSeq() {
+    Long max = null;
+    for (UserShard shard : shards) {
+      Long shardMax = shard.getRepository().findMaxChangeSeq();
+      if (shardMax != null && (max == null || shardMax > max)) {
+        max = shardMax;
+      }
+    }
+    return max;
+  }
+
+  @Override
+  public long count() {
+    long count = 0;
+    for (UserShard shard : shards) {
+      count += shard.getRepository().count();
+    }
+    return count;
+  }
+
+  @Override
+  public List<Object[]> countByStatus() {
+    return sumCounts(shard -> shard.getRepository().countByStatus());
+  }
+
+  @Override
+  public List<Object[]> countByDate() {
+    return sumCounts(shard -> shard.getRepository().countByDate());
+  }
+
+  @Override
+  public List<Object[]> countByBirthdayMonth() {
+    return sumCounts(shard -> shard.getRepository().countByBirthdayMonth());
+  }
+
+  /**
+   * k-way merge of the ordered results of all shards.
+   */
+  private List<User> merge(Function<UserShard, List<User>> query, Comparator<User> order, int limit) {
+    PriorityQueue<ShardCursor> heads = new PriorityQueue<>(shards.size(),
+        Comparator.comparing(ShardCursor::current, order));
+    for (UserShard shard : shards) {
+      List<User> users = query.apply(shard);
+      if (!users.isEmpty()) {
+        heads.add(new ShardCursor(users));
+      }
+    }
+    List<User> merged = new ArrayList<>();
+    while (!heads.isEmpty() && merged.size() < limit) {
+      ShardCursor head = heads.poll();
+      merged.add(head.current());
+      if (head.advance()) {
+        heads.add(head);
+      }
+    }
+    return merged;
+  }
+
+  private static final class ShardCursor {
+    private final List<User> users;
+    private int position;
+
+    ShardCursor(List<User> users) {
+      this.users = users;
+    }
+
+    User current() {
+      return users.get(position);
+    }
+
+    boolean advance() {
+      return ++position < users.size();
+    }
+  }
+
+  private List<Object[]> sumCounts(Function<UserShard, List<Object[]>> query) {
+    Map<Object, Long> sums = new LinkedHashMap<>();
+    for (UserShard shard : shards) {
+      for (Object[] row : query.apply(shard)) {
+        sums.merge(row[0], (Long) row[1], Long::sum);
+      }
+    }
+    List<Object[]> rows = new ArrayList<>(sums.size());
+    sums.forEach((key, count) -> rows.add(new Object[] { key, count }));
+    return rows;
+  }
+
+  @Override
+  public void destroy() {
+    for (UserShard shard : shards) {
+      shard.close();
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import ch.uzh.ifi.hase.soprafs24.entity.UserDirectoryEntry;
+
+@Repository("userDirectoryRepository")
+public interface UserDirectoryRepository extends JpaRepository<UserDirectoryEntry, Long> {
+  UserDirectoryEntry findByUsername(String username);
+  UserDirectoryEntry findByToken(String token);
+
+  @Query("select e.username from UserDirectoryEntry e where e.username in :usernames")
+  List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+}
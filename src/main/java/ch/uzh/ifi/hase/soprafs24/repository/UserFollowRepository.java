@@ -0,0 +1,31 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import ch.uzh.ifi.hase.soprafs24.entity.UserFollow;
+
+@Repository("userFollowRepository")
+public interface UserFollowRepository extends JpaRepository<UserFollow, Long> {
+
+  boolean existsByFollowerIdAndFolloweeId(Long followerId, Long followeeId);
+
+  @Modifying
+  @Query("delete from UserFollow f where f.followerId = :followerId and f.followeeId = :followeeId")
+  int deleteEdge(@Param("followerId") Long followerId, @Param("followeeId") Long followeeId);
+
+  // all edges from and to a deleted user
+  @Modifying
+  @Query("delete from UserFollow f where f.followerId = :userId or f.followeeId = :userId")
+  int deleteByUser(@Param("userId") Long userId);
+
+  // keyset pages of [id, followerId, followeeId] rows, used to load the follow graph
+  @Query("select f.id, f.followerId, f.followeeId from UserFollow f where f.id > :after order by f.id")
+  List<Object[]> findEdgesAfter(@Param("after") long after, Pageable pageable);
+}
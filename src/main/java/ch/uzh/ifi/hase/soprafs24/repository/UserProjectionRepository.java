@@ -0,0 +1,20 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+/**
+ * Reads only some columns of the users. The returned users are plain objects
+ * (not managed) with only the selected fields and the id set.
+ */
+public interface UserProjectionRepository {
+
+  // ordered by id
+  List<User> findAllWithFields(Set<UserField> fields);
+
+  Optional<User> findByIdWithFields(Long id, Set<UserField> fields);
+}
@@ -0,0 +1,105 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+/**
+ * Builds the select list from the requested fields, so that the other columns
+ * are neither read nor hydrated into entities. Rows come back as tuples: a
+ * select of a single column (e.g. ?fields=id) returns plain values, not
+ * Object[] rows.
+ */
+class UserProjectionRepositoryImpl implements UserProjectionRepository {
+
+  private final EntityManager entityManager;
+
+  UserProjectionRepositoryImpl(EntityManager entityManager) {
+    this.entityManager = entityManager;
+  }
+
+  @Override
+  public List<User> findAllWithFields(Set<UserField> fields) {
+    List<UserField> columns = columns(fields);
+    List<Tuple> rows = entityManager
+        .createQuery(select(columns) + " from User u order by u.id", Tuple.class)
+        .getResultList();
+    List<User> users = new ArrayList<>(rows.size());
+    for (Tuple row : rows) {
+      users.add(toUser(columns, row));
+    }
+    return users;
+  }
+
+  @Override
+  public Optional<User> findByIdWithFields(Long id, Set<UserField> fields) {
+    List<UserField> columns = columns(fields);
+    List<Tuple> rows = entityManager
+        .createQuery(select(columns) + " from User u where u.id = :id", Tuple.class)
+        .setParameter("id", id)
+        .getResultList();
+    return rows.isEmpty() ? Optional.empty() : Optional.of(toUser(columns, rows.get(0)));
+  }
+
+  // the id is always selected: sharded storage merges by it
+  private static List<UserField> columns(Set<UserField> fields) {
+    List<UserField> columns = new ArrayList<>(fields.size() + 1);
+    columns.add(UserField.ID);
+    for (UserField field : fields) {
+      if (field != UserField.ID) {
+        columns.add(field);
+      }
+    }
+    return columns;
+  }
+
+  private static String select(List<UserField> columns) {
+    StringBuilder select = new StringBuilder("select ");
+    for (int i = 0; i < columns.size(); i++) {
+      select.append(i == 0 ? "u." : ", u.").append(columns.get(i).getFieldName());
+    }
+    return select.toString();
+  }
+
+  private static User toUser(List<UserField> columns, Tuple row) {
+    User user = new User();
+    for (int i = 0; i < columns.size(); i++) {
+      Object value = row.get(i);
+      switch (columns.get(i)) {
+        case ID:
+          user.setId((Long) value);
+          break;
+        case NAME:
+          user.setName((String) value);
+          break;
+        case USERNAME:
+          user.setUsername((String) value);
+          break;
+        case STATUS:
+          user.setStatus((UserStatus) value);
+          break;
+        case DATE:
+          user.setDate((LocalDate) value);
+          break;
+        case BIRTHDAY:
+          user.setBirthday((LocalDate) value);
+          break;
+        case TOKEN:
+          user.setToken((String) value);
+          break;
+        default:
+          throw new IllegalStateException("Unknown field " + columns.get(i));
+      }
+    }
+    return user;
+  }
+}
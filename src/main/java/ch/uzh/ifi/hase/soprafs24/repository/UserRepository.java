@@ -1,13 +1,73 @@
 package ch.uzh.ifi.hase.soprafs24.repository;
 
-import org.springframework.data.jpa.repository.JpaRepository;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
 
+/**
+ * Only the CRUD methods the application uses are exposed (Spring Data
+ * implements them as for a JpaRepository), so that ShardedUserRepository can
+ * implement every one of them across shards.
+ */
 @Repository("userRepository")
-public interface UserRepository extends JpaRepository<User, Long> {
+public interface UserRepository extends org.springframework.data.repository.Repository<User, Long>,
+    UserProjectionRepository {
+  <S extends User> S save(S user);
+  <S extends User> List<S> saveAll(Iterable<S> users);
+  <S extends User> S saveAndFlush(S user);
+  void flush();
+
+  Optional<User> findById(Long id);
+  List<User> findAll();
+  List<User> findAllById(Iterable<Long> ids);
+  long count();
+
+  void deleteById(Long id);
+  void deleteAll();
+
   User findByName(String name);
   User findByUsername(String username);
   User findByToken(String token);
+
+  // keyset pagination: the next page starts after the last id of the previous one
+  List<User> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+  @Query("select u.username from User u where u.username in :usernames")
+  List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+  // presence lookup for many users as [id, status] rows
+  @Query("select u.id, u.status from User u where u.id in :ids")
+  List<Object[]> findStatusesByIdIn(@Param("ids") Collection<Long> ids);
+
+  @Query("select u.id from User u where u.status = :status")
+  List<Long> findIdsByStatus(@Param("status") UserStatus status);
+
+  // aggregates as [key, count] rows, used to reconcile the user statistics
+  @Query("select u.status, count(u) from User u group by u.status")
+  List<Object[]> countByStatus();
+
+  @Query("select u.date, count(u) from User u group by u.date")
+  List<Object[]> countByDate();
+
+  @Query("select month(u.birthday), count(u) from User u where u.birthday is not null group by month(u.birthday)")
+  List<Object[]> countByBirthdayMonth();
+
+  // [id, date, birthday] of all users, used to rebuild the sort indexes
+  @Query("select u.id, u.date, u.birthday from User u")
+  List<Object[]> findSortKeys();
+
+  // delta sync: the users changed after a cursor, in the order of the changes
+  @Query("select u from User u where u.changeSeq > :since and u.changeSeq <= :upTo order by u.changeSeq")
+  List<User> findChangedBetween(@Param("since") long since, @Param("upTo") long upTo, Pageable pageable);
+
+  @Query("select max(u.changeSeq) from User u")
+  Long findMaxChangeSeq();
 }
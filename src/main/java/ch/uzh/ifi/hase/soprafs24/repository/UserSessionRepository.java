@@ -0,0 +1,45 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import ch.uzh.ifi.hase.soprafs24.entity.UserSession;
+
+@Repository("userSessionRepository")
+public interface UserSessionRepository extends JpaRepository<UserSession, Long> {
+
+  // the session of a valid access token; its user may live in a shard, so it is not joined here
+  UserSession findByTokenHashAndExpiresAtAfter(String tokenHash, Instant now);
+
+  UserSession findByRefreshTokenHash(String refreshTokenHash);
+
+  UserSession findByPreviousRefreshTokenHash(String previousRefreshTokenHash);
+
+  boolean existsByUserIdAndRefreshExpiresAtAfter(Long userId, Instant now);
+
+  @Query("select s.id, s.refreshExpiresAt from UserSession s")
+  List<Object[]> findAllExpiries();
+
+  @Modifying
+  @Query("delete from UserSession s where s.tokenHash = :tokenHash and s.userId = :userId")
+  int deleteByTokenHashAndUserId(@Param("tokenHash") String tokenHash, @Param("userId") Long userId);
+
+  @Modifying
+  @Query("delete from UserSession s where s.userId = :userId")
+  int deleteByUserId(@Param("userId") Long userId);
+
+  @Query("select distinct s.userId from UserSession s where s.id in :ids and s.refreshExpiresAt <= :now")
+  List<Long> findUserIdsOfExpired(@Param("ids") Collection<Long> ids, @Param("now") Instant now);
+
+  // the timing wheel only proposes candidates, sessions refreshed since then stay
+  @Modifying
+  @Query("delete from UserSession s where s.id in :ids and s.refreshExpiresAt <= :now")
+  int deleteExpired(@Param("ids") Collection<Long> ids, @Param("now") Instant now);
+}
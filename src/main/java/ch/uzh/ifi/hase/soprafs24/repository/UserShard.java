@@ -0,0 +1,184 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.ReplicationMode;
+import org.hibernate.Session;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.orm.jpa.EntityManagerFactoryBuilder;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryComposition.RepositoryFragments;
+import org.springframework.orm.hibernate5.SpringBeanContainer;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+/**
+ * One database of the sharded user storage, with its own connection pool,
+ * EntityManagerFactory and transactions. Ids come in blocks of
+ * User.ID_BLOCK_SIZE, and the id sequence of shard i of n hands out the
+ * blocks i, i+n, i+2n, ... so ids are unique across all shards and the shard
+ * of a user can be computed from its id.
+ */
+public class UserShard implements AutoCloseable {
+
+  /**
+   * The repository of one shard, with the few writes that only
+   * ShardedUserRepository needs. Nested, so the repository scan of the
+   * application does not pick it up.
+   */
+  interface ShardRepository extends UserRepository {
+    void delete(User user);
+    void deleteAllInBatch();
+    List<User> findAll(Sort sort);
+  }
+
+  private final int index;
+  private final HikariDataSource dataSource;
+  private final EntityManagerFactory entityManagerFactory;
+  private final ShardRepository repository;
+  private final TransactionTemplate transactionTemplate;
+
+  private UserShard(int index, HikariDataSource dataSource, EntityManagerFactory entityManagerFactory) {
+    this.index = index;
+    this.dataSource = dataSource;
+    this.entityManagerFactory = entityManagerFactory;
+    EntityManager entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+    this.repository = new JpaRepositoryFactory(entityManager).getRepository(ShardRepository.class,
+        RepositoryFragments.just(new UserProjectionRepositoryImpl(entityManager)));
+    this.transactionTemplate = new TransactionTemplate(new JpaTransactionManager(entityManagerFactory));
+  }
+
+  public static UserShard open(int index, int shardCount, String url, String username, String password,
+      EntityManagerFactoryBuilder builder, ConfigurableListableBeanFactory beanFactory) {
+    HikariDataSource dataSource = DataSourceBuilder.create().type(HikariDataSource.class)
+        .url(url).username(username).password(password).build();
+    dataSource.setPoolName("user-shard-" + index);
+
+    LocalContainerEntityManagerFactoryBean factoryBean = builder.dataSource(dataSource)
+        .packages(User.class)
+        .persistenceUnit("user-shard-" + index)
+        // Spring creates the entity listeners, as for the main EntityManagerFactory
+        .properties(Map.of("hibernate.hbm2ddl.auto", "update",
+            AvailableSettings.BEAN_CONTAINER, new SpringBeanContainer(beanFactory)))
+        .build();
+    // everything else (directory, tombstones, ...) lives in the main database only
+    factoryBean.setPersistenceUnitPostProcessors(
+        unit -> unit.getManagedClassNames().retainAll(List.of(User.class.getName())));
+    factoryBean.afterPropertiesSet();
+
+    alignSequence(dataSource, index, shardCount);
+    return new UserShard(index, dataSource, factoryBean.getObject());
+  }
+
+  private static void alignSequence(HikariDataSource dataSource, int index, int shardCount) {
+    try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+      long max;
+      try (ResultSet result = statement.executeQuery("select coalesce(max(id), 0) from user")) {
+        result.next();
+        max = result.getLong(1);
+      }
+      // the first block after the highest id that belongs to this shard
+      long block = (max + User.ID_BLOCK_SIZE - 1) / User.ID_BLOCK_SIZE;
+      while (Math.floorMod(block, shardCount) != index) {
+        block++;
+      }
+      statement.execute("alter sequence user_id_sequence restart with " + (block * User.ID_BLOCK_SIZE + 1)
+          + " increment by " + (long) shardCount * User.ID_BLOCK_SIZE);
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not prepare user shard " + index, e);
+    }
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * Repository for reads; every call runs outside of a transaction of the
+   * shard.
+   */
+  ShardRepository getRepository() {
+    return repository;
+  }
+
+  /**
+   * Runs the writes in a transaction of this shard, which commits on return.
+   */
+  <T> T write(Function<ShardRepository, T> writes) {
+    return transactionTemplate.execute(status -> writes.apply(repository));
+  }
+
+  /**
+   * The users as stored now, read by an EntityManager of their own. The
+   * shared one of getRepository() keeps a persistence context for as long as
+   * the surrounding transaction of the main database, so later writes in the
+   * same thread would change the users it returned.
+   */
+  List<User> snapshot(Collection<Long> ids) {
+    return withOwnEntityManager(own -> own.createQuery("select u from User u where u.id in :ids", User.class)
+        .setParameter("ids", ids).getResultList());
+  }
+
+  List<User> snapshotAll() {
+    return withOwnEntityManager(own -> own.createQuery("select u from User u", User.class).getResultList());
+  }
+
+  /**
+   * Puts the user back as given by a snapshot: inserts it again with its id
+   * if it was deleted meanwhile, overwrites it otherwise (a merge would give
+   * a deleted user a new id). Without a snapshot the user did not exist
+   * before and is deleted.
+   */
+  void restore(Long id, User previous) {
+    withOwnEntityManager(own -> {
+      own.getTransaction().begin();
+      if (previous != null) {
+        own.unwrap(Session.class).replicate(previous, ReplicationMode.OVERWRITE);
+      } else {
+        User user = own.find(User.class, id);
+        if (user != null) {
+          own.remove(user);
+        }
+      }
+      own.getTransaction().commit();
+      return null;
+    });
+  }
+
+  private <T> T withOwnEntityManager(Function<EntityManager, T> work) {
+    EntityManager own = entityManagerFactory.createEntityManager();
+    try {
+      return work.apply(own);
+    } finally {
+      if (own.getTransaction().isActive()) {
+        own.getTransaction().rollback();
+      }
+      own.close();
+    }
+  }
+
+  @Override
+  public void close() {
+    entityManagerFactory.close();
+    dataSource.close();
+  }
+}
@@ -0,0 +1,21 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import ch.uzh.ifi.hase.soprafs24.entity.UserTombstone;
+
+@Repository("userTombstoneRepository")
+public interface UserTombstoneRepository extends JpaRepository<UserTombstone, Long> {
+
+  @Query("select t from UserTombstone t where t.changeSeq > :since and t.changeSeq <= :upTo order by t.changeSeq")
+  List<UserTombstone> findDeletedBetween(@Param("since") long since, @Param("upTo") long upTo, Pageable pageable);
+
+  @Query("select max(t.changeSeq) from UserTombstone t")
+  Long findMaxChangeSeq();
+}
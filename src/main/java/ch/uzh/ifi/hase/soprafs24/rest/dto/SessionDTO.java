@@ -0,0 +1,33 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import java.time.Instant;
+
+public class SessionDTO {
+  private String token;
+  private String refreshToken;
+  private Instant expiresAt;
+
+  public String getToken() {
+    return token;
+  }
+
+  public void setToken(String token) {
+    this.token = token;
+  }
+
+  public String getRefreshToken() {
+    return refreshToken;
+  }
+
+  public void setRefreshToken(String refreshToken) {
+    this.refreshToken = refreshToken;
+  }
+
+  public Instant getExpiresAt() {
+    return expiresAt;
+  }
+
+  public void setExpiresAt(Instant expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+}
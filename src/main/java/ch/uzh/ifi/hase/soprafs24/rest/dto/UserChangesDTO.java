@@ -0,0 +1,48 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class UserChangesDTO {
+
+  // pass as "since" to get the changes after these
+  private long cursor;
+  // true if the limit cut the changes off, ask again right away
+  private boolean more;
+  private List<UserGetDTO> upserts;
+  private List<Long> deleted;
+
+  public long getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(long cursor) {
+    this.cursor = cursor;
+  }
+
+  public boolean isMore() {
+    return more;
+  }
+
+  public void setMore(boolean more) {
+    this.more = more;
+  }
+
+  public List<UserGetDTO> getUpserts() {
+    return upserts;
+  }
+
+  public void setUpserts(List<UserGetDTO> upserts) {
+    this.upserts = upserts;
+  }
+
+  public List<Long> getDeleted() {
+    return deleted;
+  }
+
+  public void setDeleted(List<Long> deleted) {
+    this.deleted = deleted;
+  }
+}
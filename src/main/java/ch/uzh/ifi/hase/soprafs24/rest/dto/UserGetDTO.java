@@ -1,6 +1,9 @@
 package ch.uzh.ifi.hase.soprafs24.rest.dto;
+import java.time.Instant;
 import java.time.LocalDate;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 
 public class UserGetDTO {
@@ -11,6 +14,11 @@ public class UserGetDTO {
   private LocalDate date;
   private LocalDate birthday;
   private String token;
+  // only in the responses of login and signup (see SessionService)
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private String refreshToken;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private Instant tokenExpiresAt;
 
   public Long getId() {
     return id;
@@ -67,4 +75,20 @@ public class UserGetDTO {
   public void setToken(String token) {
     this.token = token;
   }
+
+  public String getRefreshToken() {
+    return refreshToken;
+  }
+
+  public void setRefreshToken(String refreshToken) {
+    this.refreshToken = refreshToken;
+  }
+
+  public Instant getTokenExpiresAt() {
+    return tokenExpiresAt;
+  }
+
+  public void setTokenExpiresAt(Instant tokenExpiresAt) {
+    this.tokenExpiresAt = tokenExpiresAt;
+  }
 }
@@ -0,0 +1,32 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+public class UserImportResultDTO {
+
+  private long imported;
+  private long skipped;
+  private long lines;
+
+  public long getImported() {
+    return imported;
+  }
+
+  public void setImported(long imported) {
+    this.imported = imported;
+  }
+
+  public long getSkipped() {
+    return skipped;
+  }
+
+  public void setSkipped(long skipped) {
+    this.skipped = skipped;
+  }
+
+  public long getLines() {
+    return lines;
+  }
+
+  public void setLines(long lines) {
+    this.lines = lines;
+  }
+}
@@ -0,0 +1,66 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.Map;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+
+public class UserStatsDTO {
+
+  private long total;
+  private Map<UserStatus, Long> byStatus;
+  private Map<LocalDate, Long> signupsPerDay;
+  private Map<Month, Long> birthdaysPerMonth;
+  private long withoutBirthday;
+  private Instant reconciledAt;
+
+  public long getTotal() {
+    return total;
+  }
+
+  public void setTotal(long total) {
+    this.total = total;
+  }
+
+  public Map<UserStatus, Long> getByStatus() {
+    return byStatus;
+  }
+
+  public void setByStatus(Map<UserStatus, Long> byStatus) {
+    this.byStatus = byStatus;
+  }
+
+  public Map<LocalDate, Long> getSignupsPerDay() {
+    return signupsPerDay;
+  }
+
+  public void setSignupsPerDay(Map<LocalDate, Long> signupsPerDay) {
+    this.signupsPerDay = signupsPerDay;
+  }
+
+  public Map<Month, Long> getBirthdaysPerMonth() {
+    return birthdaysPerMonth;
+  }
+
+  public void setBirthdaysPerMonth(Map<Month, Long> birthdaysPerMonth) {
+    this.birthdaysPerMonth = birthdaysPerMonth;
+  }
+
+  public long getWithoutBirthday() {
+    return withoutBirthday;
+  }
+
+  public void setWithoutBirthday(long withoutBirthday) {
+    this.withoutBirthday = withoutBirthday;
+  }
+
+  public Instant getReconciledAt() {
+    return reconciledAt;
+  }
+
+  public void setReconciledAt(Instant reconciledAt) {
+    this.reconciledAt = reconciledAt;
+  }
+}
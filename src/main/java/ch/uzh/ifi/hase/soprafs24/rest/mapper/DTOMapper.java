@@ -1,9 +1,12 @@
 package ch.uzh.ifi.hase.soprafs24.rest.mapper;
 
+import java.util.List;
+
 import ch.uzh.ifi.hase.soprafs24.entity.User;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserTransferDTO;
 import org.mapstruct.*;
 import org.mapstruct.factory.Mappers;
 
@@ -29,6 +32,8 @@ public interface DTOMapper {
   @Mapping(source = "status", target = "status")
   @Mapping(source = "birthday", target = "birthday")
   @Mapping(source = "token", target = "token")
+  @Mapping(target = "changeSeq", ignore = true)
+  @Mapping(target = "avatarHash", ignore = true)
   User convertUserPostDTOtoEntity(UserPostDTO userPostDTO);
 
   @Mapping(source = "id", target = "id")
@@ -37,10 +42,40 @@ public interface DTOMapper {
   @Mapping(source = "status", target = "status")
   @Mapping(source = "date", target = "date")
   @Mapping(source = "birthday", target = "birthday")
-  @Mapping(source = "token", target = "token")
+  // the account token is never shown, login and signup set the token of their session
+  @Mapping(target = "token", ignore = true)
+  @Mapping(target = "refreshToken", ignore = true)
+  @Mapping(target = "tokenExpiresAt", ignore = true)
   UserGetDTO convertEntityToUserGetDTO(User user);
 
+  // the generated implementation sizes the result list to the input list
+  List<UserGetDTO> convertEntitiesToUserGetDTOs(List<User> users);
+
   @Mapping(source = "username", target = "username")
   @Mapping(source = "birthday", target = "birthday")
+  @Mapping(target = "changeSeq", ignore = true)
+  @Mapping(target = "avatarHash", ignore = true)
   User convertUserPutDTOtoEntity(UserPutDTO userPutDTO);
+
+  @Mapping(source = "id", target = "id")
+  @Mapping(source = "name", target = "name")
+  @Mapping(source = "username", target = "username")
+  @Mapping(source = "password", target = "password")
+  @Mapping(source = "token", target = "token")
+  @Mapping(source = "status", target = "status")
+  @Mapping(source = "date", target = "date")
+  @Mapping(source = "birthday", target = "birthday")
+  UserTransferDTO convertEntityToUserTransferDTO(User user);
+
+  @Mapping(target = "id", ignore = true)
+  @Mapping(target = "changeSeq", ignore = true)
+  @Mapping(target = "avatarHash", ignore = true)
+  @Mapping(source = "name", target = "name")
+  @Mapping(source = "username", target = "username")
+  @Mapping(source = "password", target = "password")
+  @Mapping(source = "token", target = "token")
+  @Mapping(source = "status", target = "status")
+  @Mapping(source = "date", target = "date")
+  @Mapping(source = "birthday", target = "birthday")
+  User convertUserTransferDTOtoEntity(UserTransferDTO userTransferDTO);
 }
@@ -0,0 +1,173 @@
+package ch.uzh.ifi.hase.soprafs24.rest.mapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Set;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+/**
+ * UserJsonWriter
+ * Writes users straight from the entity to JSON in exactly the shape of
+ * UserGetDTO, without creating DTO objects and without the reflective bean
+ * serializer of Jackson. The generator comes from the JsonFactory of the
+ * application's ObjectMapper, which recycles its buffers per thread.
+ * Used on list endpoints where the number of users can be large, and for
+ * sparse fieldsets (only the selected fields are written).
+ */
+@Component
+public class UserJsonWriter {
+
+  private static final SerializedString ID = new SerializedString("id");
+  private static final SerializedString NAME = new SerializedString("name");
+  private static final SerializedString USERNAME = new SerializedString("username");
+  private static final SerializedString STATUS = new SerializedString("status");
+  private static final SerializedString DATE = new SerializedString("date");
+  private static final SerializedString BIRTHDAY = new SerializedString("birthday");
+  private static final SerializedString TOKEN = new SerializedString("token");
+  private static final SerializedString USERS = new SerializedString("users");
+  private static final SerializedString NEXT = new SerializedString("next");
+
+  private final JsonFactory jsonFactory;
+  // yyyy-MM-dd, one per thread like the buffers of the generator itself
+  private final ThreadLocal<char[]> dateBuffer = ThreadLocal.withInitial(() -> new char[10]);
+
+  public UserJsonWriter(ObjectMapper objectMapper) {
+    this.jsonFactory = objectMapper.getFactory();
+  }
+
+  /**
+   * Writes the users as a JSON array. The stream is flushed but not closed.
+   */
+  public void writeUsers(Collection<User> users, OutputStream out) throws IOException {
+    writeUsers(users, UserField.ALL, out);
+  }
+
+  /**
+   * Writes the users as a JSON array with only the given fields. The stream is
+   * flushed but not closed.
+   */
+  public void writeUsers(Collection<User> users, Set<UserField> fields, OutputStream out) throws IOException {
+    try (JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.writeStartArray();
+      for (User user : users) {
+        writeUser(generator, user, fields);
+      }
+      generator.writeEndArray();
+    }
+  }
+
+  /**
+   * Writes one page of users as {"users": [...], "next": 42} with only the
+   * given fields; next is the cursor of the following page and left out on
+   * the last page. The stream is flushed but not closed.
+   */
+  public void writeUserPage(Collection<User> users, Set<UserField> fields, Long next, OutputStream out)
+      throws IOException {
+    try (JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.writeStartObject();
+      generator.writeFieldName(USERS);
+      generator.writeStartArray();
+      for (User user : users) {
+        writeUser(generator, user, fields);
+      }
+      generator.writeEndArray();
+      if (next != null) {
+        generator.writeFieldName(NEXT);
+        generator.writeNumber(next);
+      }
+      generator.writeEndObject();
+    }
+  }
+
+  /**
+   * Writes a single user as a JSON object with only the given fields.
+   */
+  public void writeUser(User user, Set<UserField> fields, OutputStream out) throws IOException {
+    try (JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      writeUser(generator, user, fields);
+    }
+  }
+
+  public void writeUser(JsonGenerator generator, User user) throws IOException {
+    writeUser(generator, user, UserField.ALL);
+  }
+
+  public void writeUser(JsonGenerator generator, User user, Set<UserField> fields) throws IOException {
+    generator.writeStartObject();
+    if (fields.contains(UserField.ID)) {
+      generator.writeFieldName(ID);
+      if (user.getId() == null) {
+        generator.writeNull();
+      } else {
+        generator.writeNumber(user.getId());
+      }
+    }
+    if (fields.contains(UserField.NAME)) {
+      writeString(generator, NAME, user.getName());
+    }
+    if (fields.contains(UserField.USERNAME)) {
+      writeString(generator, USERNAME, user.getUsername());
+    }
+    if (fields.contains(UserField.STATUS)) {
+      writeString(generator, STATUS, user.getStatus() == null ? null : user.getStatus().name());
+    }
+    if (fields.contains(UserField.DATE)) {
+      writeDate(generator, DATE, user.getDate());
+    }
+    if (fields.contains(UserField.BIRTHDAY)) {
+      writeDate(generator, BIRTHDAY, user.getBirthday());
+    }
+    if (fields.contains(UserField.TOKEN)) {
+      // the account token is never shown, as in UserGetDTO
+      generator.writeFieldName(TOKEN);
+      generator.writeNull();
+    }
+    generator.writeEndObject();
+  }
+
+  private static void writeString(JsonGenerator generator, SerializedString field, String value) throws IOException {
+    generator.writeFieldName(field);
+    generator.writeString(value);
+  }
+
+  // ISO-8601 (yyyy-MM-dd), like jackson-datatype-jsr310 with WRITE_DATES_AS_TIMESTAMPS disabled
+  private void writeDate(JsonGenerator generator, SerializedString field, LocalDate value) throws IOException {
+    generator.writeFieldName(field);
+    if (value == null) {
+      generator.writeNull();
+    } else if (value.getYear() < 0 || value.getYear() > 9999) {
+      generator.writeString(value.toString());
+    } else {
+      // formatted into the buffer of the thread instead of allocating per date
+      char[] buffer = dateBuffer.get();
+      writeDigits(buffer, 0, value.getYear(), 4);
+      buffer[4] = '-';
+      writeDigits(buffer, 5, value.getMonthValue(), 2);
+      buffer[7] = '-';
+      writeDigits(buffer, 8, value.getDayOfMonth(), 2);
+      generator.writeString(buffer, 0, buffer.length);
+    }
+  }
+
+  private static void writeDigits(char[] buffer, int offset, int value, int width) {
+    for (int i = offset + width - 1; i >= offset; i--) {
+      buffer[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+}
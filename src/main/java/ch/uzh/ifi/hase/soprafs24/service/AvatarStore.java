@@ -0,0 +1,286 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Avatar Store
+ * Content-addressed file store for profile pictures: a picture is stored
+ * once under the SHA-256 of its bytes (root/ab/abcdef...), the User only
+ * keeps the hash. Files never change once written, so the hash is a strong
+ * ETag. The thumbnails of all configured sizes are written next to the
+ * original at upload, from a single decode of the image; that decode skips
+ * pixels (subsampling) so that it is at most about twice the largest
+ * thumbnail, whatever the size of the original. Thumbnails that are missing
+ * (sizes added later) are generated on request, once per hash and size even
+ * under concurrent requests. Every file is written to a
+ * temporary file first and then moved into place, so readers never see a
+ * partial file and concurrent writers of the same content do not conflict.
+ */
+@Service
+public class AvatarStore {
+
+  private static final byte[] PNG_MAGIC = { (byte) 0x89, 'P', 'N', 'G' };
+  private static final byte[] JPEG_MAGIC = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF };
+
+  private final Path root;
+  private final int maxBytes;
+  private final int maxPixels;
+  private final Set<Integer> thumbnailSizes;
+  private final int largestThumbnail;
+  // generation of a missing thumbnail, keyed by its file
+  private final SingleFlight<Path, Path> thumbnailFlight;
+
+  public AvatarStore(@Value("${avatars.dir:${java.io.tmpdir}/soprafs-avatars}") String root,
+      @Value("${avatars.max-bytes:2097152}") int maxBytes,
+      @Value("${avatars.max-pixels:4096}") int maxPixels,
+      @Value("${avatars.thumbnail-sizes:64,128,256}") Set<Integer> thumbnailSizes,
+      MeterRegistry meterRegistry) throws IOException {
+    this.root = Files.createDirectories(Paths.get(root));
+    this.maxBytes = maxBytes;
+    this.maxPixels = maxPixels;
+    this.thumbnailSizes = thumbnailSizes;
+    this.largestThumbnail = thumbnailSizes.isEmpty() ? 0 : Collections.max(thumbnailSizes);
+    // a path is immutable, followers can share it
+    this.thumbnailFlight = new SingleFlight<>("avatars.thumbnail", Duration.ofSeconds(10), file -> file,
+        meterRegistry);
+  }
+
+  public int getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Stores a PNG or JPEG image with its thumbnails and returns its hash.
+   * Storing the same image again only returns the hash.
+   */
+  public String store(byte[] image) {
+    if (image.length > maxBytes) {
+      throw new DomainException(ErrorCode.AVATAR_TOO_LARGE);
+    }
+    if (mediaType(image) == null || !hasAllowedSize(image)) {
+      throw new DomainException(ErrorCode.INVALID_AVATAR);
+    }
+    String hash = sha256(image);
+    Path file = original(hash);
+    if (!Files.exists(file)) {
+      // decoded before anything is written, an image that fails to decode is not stored
+      BufferedImage decoded;
+      try {
+        decoded = decode(new ByteArrayInputStream(image), largestThumbnail);
+      } catch (IOException | RuntimeException e) {
+        throw new DomainException(ErrorCode.INVALID_AVATAR);
+      }
+      for (int size : thumbnailSizes) {
+        write(thumbnailFile(hash, size), toPng(scale(decoded, size)));
+      }
+      write(file, image);
+    }
+    return hash;
+  }
+
+  public Path original(String hash) {
+    return root.resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  /**
+   * The image scaled to fit into size x size pixels as PNG; written at upload,
+   * or on the first request for images stored before the size was configured.
+   */
+  public Path thumbnail(String hash, int size) throws IOException {
+    if (!thumbnailSizes.contains(size)) {
+      throw new DomainException(ErrorCode.INVALID_REQUEST, "size must be one of " + thumbnailSizes);
+    }
+    Path file = thumbnailFile(hash, size);
+    if (!Files.exists(file)) {
+      try {
+        thumbnailFlight.execute(file, () -> {
+          if (!Files.exists(file)) {
+            try (InputStream original = Files.newInputStream(original(hash))) {
+              write(file, toPng(scale(decode(original, size), size)));
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+          return file;
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+    return file;
+  }
+
+  private Path thumbnailFile(String hash, int size) {
+    return root.resolve(hash.substring(0, 2)).resolve(hash + "-" + size + ".png");
+  }
+
+  /**
+   * The media type of a stored file from its first bytes, null if it is
+   * neither PNG nor JPEG.
+   */
+  public MediaType mediaType(Path file) throws IOException {
+    ByteBuffer head = ByteBuffer.allocate(PNG_MAGIC.length);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      channel.read(head, 0);
+    }
+    return mediaType(head.array());
+  }
+
+  private static MediaType mediaType(byte[] head) {
+    if (startsWith(head, PNG_MAGIC)) {
+      return MediaType.IMAGE_PNG;
+    }
+    if (startsWith(head, JPEG_MAGIC)) {
+      return MediaType.IMAGE_JPEG;
+    }
+    return null;
+  }
+
+  private static boolean startsWith(byte[] bytes, byte[] prefix) {
+    if (bytes.length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (bytes[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // reads only the header, so huge dimensions are rejected before anything is decoded
+  private boolean hasAllowedSize(byte[] image) {
+    try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        return false;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, true);
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        return width > 0 && height > 0 && width <= maxPixels && height <= maxPixels;
+      } finally {
+        reader.dispose();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Decodes only every n-th pixel of every n-th row, with n chosen so that
+   * the decoded image is still at least twice the given size: a 4096 pixel
+   * wide original for thumbnails up to 256 pixels decodes to 512 pixels.
+   */
+  private static BufferedImage decode(InputStream in, int size) throws IOException {
+    try (ImageInputStream input = ImageIO.createImageInputStream(in)) {
+      Iterator<ImageReader> readers = input == null ? Collections.emptyIterator() : ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        throw new IOException("Not a readable image");
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, true);
+        int step = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / (2 * Math.max(1, size)));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(step, step, 0, 0);
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  private static BufferedImage scale(BufferedImage image, int size) {
+    double factor = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+    int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+    int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+    BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = scaled.createGraphics();
+    try {
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+    return scaled;
+  }
+
+  private static byte[] toPng(BufferedImage image) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      ImageIO.write(image, "png", out);
+    } catch (IOException e) {
+      // a ByteArrayOutputStream does not fail
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  private static void write(Path file, byte[] content) {
+    try {
+      Files.createDirectories(file.getParent());
+      Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+      try {
+        Files.write(temporary, content);
+        try {
+          Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(temporary, file);
+        }
+      } catch (FileAlreadyExistsException e) {
+        // written by a concurrent request, the content is the same
+      } finally {
+        Files.deleteIfExists(temporary);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String sha256(byte[] content) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,246 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongPredicate;
+
+/**
+ * Follow Graph
+ * The follow edges in memory as adjacency lists: per user a sorted long[] of
+ * the users they follow and one of their followers, no boxed collections.
+ * Readers take the current array without locking; writers are serialized and
+ * replace the array of a user with a copy, which stays cheap for the few
+ * hundred edges a user usually has. Sorted arrays page by binary search and
+ * intersect in one merge pass (friends are the users that follow each other).
+ */
+public class FollowGraph {
+
+  private static final long[] NONE = new long[0];
+
+  private final ConcurrentHashMap<Long, long[]> following = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, long[]> followers = new ConcurrentHashMap<>();
+  private volatile long edges;
+
+  /**
+   * @return false if the edge already existed
+   */
+  public synchronized boolean add(long followerId, long followeeId) {
+    long[] out = following.getOrDefault(followerId, NONE);
+    long[] updated = insert(out, followeeId);
+    if (updated == out) {
+      return false;
+    }
+    following.put(followerId, updated);
+    followers.put(followeeId, insert(followers.getOrDefault(followeeId, NONE), followerId));
+    edges++;
+    return true;
+  }
+
+  /**
+   * @return false if there was no such edge
+   */
+  public synchronized boolean remove(long followerId, long followeeId) {
+    long[] out = following.getOrDefault(followerId, NONE);
+    long[] updated = delete(out, followeeId);
+    if (updated == out) {
+      return false;
+    }
+    replace(following, followerId, updated);
+    replace(followers, followeeId, delete(followers.getOrDefault(followeeId, NONE), followerId));
+    edges--;
+    return true;
+  }
+
+  /**
+   * Removes all edges from and to the user.
+   */
+  public synchronized void removeUser(long userId) {
+    long[] out = following.remove(userId);
+    if (out != null) {
+      for (long followeeId : out) {
+        replace(followers, followeeId, delete(followers.getOrDefault(followeeId, NONE), userId));
+      }
+      edges -= out.length;
+    }
+    long[] in = followers.remove(userId);
+    if (in != null) {
+      for (long followerId : in) {
+        replace(following, followerId, delete(following.getOrDefault(followerId, NONE), userId));
+      }
+      edges -= in.length;
+    }
+  }
+
+  /**
+   * Adds the first count edges followerIds[i] -> followeeIds[i] at once:
+   * grouped per user and sorted, instead of one array copy per edge.
+   */
+  public synchronized void addAll(long[] followerIds, long[] followeeIds, int count) {
+    Map<Long, long[]> out = group(followerIds, followeeIds, count);
+    Map<Long, long[]> in = group(followeeIds, followerIds, count);
+    long added = 0;
+    for (Map.Entry<Long, long[]> entry : out.entrySet()) {
+      long[] existing = following.getOrDefault(entry.getKey(), NONE);
+      long[] merged = union(existing, entry.getValue());
+      following.put(entry.getKey(), merged);
+      added += merged.length - existing.length;
+    }
+    for (Map.Entry<Long, long[]> entry : in.entrySet()) {
+      followers.put(entry.getKey(), union(followers.getOrDefault(entry.getKey(), NONE), entry.getValue()));
+    }
+    edges += added;
+  }
+
+  public long size() {
+    return edges;
+  }
+
+  public int followingCount(long userId) {
+    return following.getOrDefault(userId, NONE).length;
+  }
+
+  public int followersCount(long userId) {
+    return followers.getOrDefault(userId, NONE).length;
+  }
+
+  public boolean follows(long followerId, long followeeId) {
+    return Arrays.binarySearch(following.getOrDefault(followerId, NONE), followeeId) >= 0;
+  }
+
+  /**
+   * The ids the user follows that are greater than after, at most limit.
+   */
+  public long[] following(long userId, long after, int limit) {
+    return page(following.getOrDefault(userId, NONE), after, limit);
+  }
+
+  /**
+   * The ids following the user that are greater than after, at most limit.
+   */
+  public long[] followers(long userId, long after, int limit) {
+    return page(followers.getOrDefault(userId, NONE), after, limit);
+  }
+
+  /**
+   * The ids that follow the user and are followed back, greater than after
+   * and accepted by the filter, at most limit.
+   */
+  public long[] friends(long userId, long after, int limit, LongPredicate filter) {
+    long[] out = following.getOrDefault(userId, NONE);
+    long[] in = followers.getOrDefault(userId, NONE);
+    long[] page = new long[Math.min(limit, Math.min(out.length, in.length))];
+    int size = 0;
+    int i = firstAfter(out, after);
+    int j = firstAfter(in, after);
+    while (size < page.length && i < out.length && j < in.length) {
+      if (out[i] < in[j]) {
+        i++;
+      } else if (out[i] > in[j]) {
+        j++;
+      } else {
+        if (filter.test(out[i])) {
+          page[size++] = out[i];
+        }
+        i++;
+        j++;
+      }
+    }
+    return size == page.length ? page : Arrays.copyOf(page, size);
+  }
+
+  private static long[] page(long[] ids, long after, int limit) {
+    int from = firstAfter(ids, after);
+    return Arrays.copyOfRange(ids, from, from + Math.min(limit, ids.length - from));
+  }
+
+  private static int firstAfter(long[] ids, long after) {
+    int index = Arrays.binarySearch(ids, after);
+    return index >= 0 ? index + 1 : -index - 1;
+  }
+
+  // the same array if the id is already in there
+  private static long[] insert(long[] ids, long id) {
+    int index = Arrays.binarySearch(ids, id);
+    if (index >= 0) {
+      return ids;
+    }
+    int at = -index - 1;
+    long[] copy = new long[ids.length + 1];
+    System.arraycopy(ids, 0, copy, 0, at);
+    copy[at] = id;
+    System.arraycopy(ids, at, copy, at + 1, ids.length - at);
+    return copy;
+  }
+
+  // the same array if the id is not in there
+  private static long[] delete(long[] ids, long id) {
+    int at = Arrays.binarySearch(ids, id);
+    if (at < 0) {
+      return ids;
+    }
+    long[] copy = new long[ids.length - 1];
+    System.arraycopy(ids, 0, copy, 0, at);
+    System.arraycopy(ids, at + 1, copy, at, ids.length - at - 1);
+    return copy;
+  }
+
+  private static void replace(Map<Long, long[]> lists, long userId, long[] ids) {
+    if (ids.length == 0) {
+      lists.remove(userId);
+    } else {
+      lists.put(userId, ids);
+    }
+  }
+
+  // values per key as sorted arrays without duplicates
+  private static Map<Long, long[]> group(long[] keys, long[] values, int count) {
+    Map<Long, int[]> sizes = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      sizes.computeIfAbsent(keys[i], key -> new int[1])[0]++;
+    }
+    Map<Long, long[]> groups = new HashMap<>(sizes.size() * 4 / 3 + 1);
+    sizes.forEach((key, size) -> groups.put(key, new long[size[0]]));
+    for (int i = 0; i < count; i++) {
+      groups.get(keys[i])[--sizes.get(keys[i])[0]] = values[i];
+    }
+    groups.replaceAll((key, ids) -> {
+      Arrays.sort(ids);
+      return distinct(ids);
+    });
+    return groups;
+  }
+
+  private static long[] distinct(long[] sorted) {
+    int size = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (size == 0 || sorted[size - 1] != sorted[i]) {
+        sorted[size++] = sorted[i];
+      }
+    }
+    return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+  }
+
+  private static long[] union(long[] a, long[] b) {
+    if (a.length == 0) {
+      return b;
+    }
+    long[] merged = new long[a.length + b.length];
+    int size = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.length || j < b.length) {
+      long next;
+      if (j == b.length || (i < a.length && a[i] <= b[j])) {
+        next = a[i++];
+      } else {
+        next = b[j++];
+      }
+      if (size == 0 || merged[size - 1] != next) {
+        merged[size++] = next;
+      }
+    }
+    return size == merged.length ? merged : Arrays.copyOf(merged, size);
+  }
+}
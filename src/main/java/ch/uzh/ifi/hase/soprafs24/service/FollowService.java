@@ -0,0 +1,206 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.entity.UserFollow;
+import ch.uzh.ifi.hase.soprafs24.repository.UserFollowRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Follow Service
+ * Users follow each other; users that follow each other are friends. The
+ * edges are stored in USER_FOLLOW and served from the FollowGraph, which is
+ * loaded on first use and updated after every committed change. The ids of
+ * the online users are kept next to it, so "online friends" is a walk over
+ * two adjacency lists without any query.
+ */
+@Service
+@Transactional
+public class FollowService {
+
+  // edges per query while loading the graph
+  private static final int LOAD_PAGE_SIZE = 10_000;
+
+  private final Logger log = LoggerFactory.getLogger(FollowService.class);
+
+  private final UserFollowRepository userFollowRepository;
+  private final UserRepository userRepository;
+  private final TransactionTemplate loadTransaction;
+  private final TransactionTemplate followTransaction;
+  private final FollowGraph graph = new FollowGraph();
+  private final Set<Long> online = ConcurrentHashMap.newKeySet();
+  private volatile boolean loaded;
+
+  public FollowService(@Qualifier("userFollowRepository") UserFollowRepository userFollowRepository,
+      @Qualifier("userRepository") UserRepository userRepository, PlatformTransactionManager transactionManager,
+      MeterRegistry meterRegistry) {
+    this.userFollowRepository = userFollowRepository;
+    this.userRepository = userRepository;
+    // read-write on purpose, so that the graph is loaded from the primary and not from a lagging replica
+    this.loadTransaction = new TransactionTemplate(transactionManager);
+    this.loadTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.followTransaction = new TransactionTemplate(transactionManager);
+    this.followTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    meterRegistry.gauge("follows.edges", graph, FollowGraph::size);
+  }
+
+  /**
+   * The edge is inserted in a transaction of its own: two concurrent follows
+   * of the same user both pass the check, the second insert then fails on
+   * UK_USER_FOLLOW and only rolls back its own transaction.
+   *
+   * @return false if the follower already follows the followee
+   */
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public boolean follow(long followerId, long followeeId) {
+    try {
+      return followTransaction.execute(status -> insertEdge(followerId, followeeId));
+    } catch (DataIntegrityViolationException e) {
+      return false;
+    }
+  }
+
+  private boolean insertEdge(long followerId, long followeeId) {
+    if (userFollowRepository.existsByFollowerIdAndFolloweeId(followerId, followeeId)) {
+      return false;
+    }
+    UserFollow edge = new UserFollow();
+    edge.setFollowerId(followerId);
+    edge.setFolloweeId(followeeId);
+    // flushed here, so that a duplicate fails inside the transaction template
+    userFollowRepository.saveAndFlush(edge);
+    afterCommit(() -> graph.add(followerId, followeeId));
+    return true;
+  }
+
+  /**
+   * @return false if the follower did not follow the followee
+   */
+  public boolean unfollow(long followerId, long followeeId) {
+    if (userFollowRepository.deleteEdge(followerId, followeeId) == 0) {
+      return false;
+    }
+    afterCommit(() -> graph.remove(followerId, followeeId));
+    return true;
+  }
+
+  /**
+   * Removes all edges from and to a user, call when deleting the user.
+   */
+  public void removeUser(long userId) {
+    userFollowRepository.deleteByUser(userId);
+    afterCommit(() -> graph.removeUser(userId));
+  }
+
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public long[] getFollowing(long userId, long after, int limit) {
+    return loadedGraph().following(userId, after, limit);
+  }
+
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public long[] getFollowers(long userId, long after, int limit) {
+    return loadedGraph().followers(userId, after, limit);
+  }
+
+  /**
+   * The friends (mutual follows) of the user with an id greater than after,
+   * at most limit, with onlineOnly only those that are online.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public long[] getFriends(long userId, long after, int limit, boolean onlineOnly) {
+    return loadedGraph().friends(userId, after, limit, onlineOnly ? online::contains : id -> true);
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    User user = event.getUser();
+    if (user.getId() == null) {
+      return;
+    }
+    if (!loaded) {
+      // the load holds the graph while it reads, this change is applied after it
+      synchronized (graph) {
+        updatePresence(event, user);
+      }
+    } else {
+      updatePresence(event, user);
+    }
+  }
+
+  private void updatePresence(UserChangedEvent event, User user) {
+    if (event.getType() != UserChangedEvent.Type.DELETED && user.getStatus() == UserStatus.ONLINE) {
+      online.add(user.getId());
+    } else {
+      online.remove(user.getId());
+    }
+  }
+
+  private void afterCommit(Runnable change) {
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        change.run();
+      }
+    });
+  }
+
+  /**
+   * Loads all edges and the online users once. The graph is held during the
+   * load, so changes that commit meanwhile are applied after it and cannot be
+   * overwritten by the rows read before they committed.
+   */
+  private FollowGraph loadedGraph() {
+    if (loaded) {
+      return graph;
+    }
+    synchronized (graph) {
+      if (loaded) {
+        return graph;
+      }
+      loadTransaction.executeWithoutResult(status -> load());
+      loaded = true;
+    }
+    return graph;
+  }
+
+  private void load() {
+    long started = System.nanoTime();
+    long[] followerIds = new long[LOAD_PAGE_SIZE];
+    long[] followeeIds = new long[LOAD_PAGE_SIZE];
+    long after = 0;
+    List<Object[]> rows;
+    do {
+      rows = userFollowRepository.findEdgesAfter(after, PageRequest.of(0, LOAD_PAGE_SIZE));
+      for (int i = 0; i < rows.size(); i++) {
+        Object[] row = rows.get(i);
+        after = (Long) row[0];
+        followerIds[i] = (Long) row[1];
+        followeeIds[i] = (Long) row[2];
+      }
+      graph.addAll(followerIds, followeeIds, rows.size());
+    } while (rows.size() == LOAD_PAGE_SIZE);
+    online.addAll(userRepository.findIdsByStatus(UserStatus.ONLINE));
+    log.info("Loaded follow graph: {} edges, {} users online in {} ms", graph.size(), online.size(),
+        (System.nanoTime() - started) / 1_000_000);
+  }
+}
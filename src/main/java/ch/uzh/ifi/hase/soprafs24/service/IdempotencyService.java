@@ -0,0 +1,243 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.uzh.ifi.hase.soprafs24.entity.IdempotencyRecord;
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
+import ch.uzh.ifi.hase.soprafs24.repository.IdempotencyRecordRepository;
+
+/**
+ * Idempotency Service
+ * Runs a request at most once per Idempotency-Key. The completed response is
+ * kept for idempotency.ttl-ms in a bounded in-memory store (the oldest
+ * entries are dropped first) and, with idempotency.persistent=true, also in
+ * the database. A retry with the same key gets the stored response back;
+ * a retry that arrives while the first request is still running waits for it.
+ * Failed requests are not stored, they may be retried with the same key.
+ *
+ * The key must be reused only for the same request: a different body under a
+ * known key is rejected with 422.
+ */
+@Service
+public class IdempotencyService {
+
+  private final IdempotencyRecordRepository idempotencyRecordRepository;
+  private final ObjectMapper objectMapper;
+  private final int maxEntries;
+  private final Duration ttl;
+  private final Duration wait;
+  private final boolean persistent;
+
+  private final ConcurrentHashMap<String, CompletableFuture<StoredResponse>> inFlight = new ConcurrentHashMap<>();
+  // guarded by itself, insertion order is expiry order since all entries have the same ttl
+  private final LinkedHashMap<String, StoredResponse> completed = new LinkedHashMap<>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, StoredResponse> eldest) {
+      return size() > maxEntries;
+    }
+  };
+
+  @Autowired
+  public IdempotencyService(
+      @Qualifier("idempotencyRecordRepository") IdempotencyRecordRepository idempotencyRecordRepository,
+      ObjectMapper objectMapper, @Value("${idempotency.max-entries:10000}") int maxEntries,
+      @Value("${idempotency.ttl-ms:86400000}") long ttlMs, @Value("${idempotency.wait-ms:10000}") long waitMs,
+      @Value("${idempotency.persistent:false}") boolean persistent) {
+    this.idempotencyRecordRepository = idempotencyRecordRepository;
+    this.objectMapper = objectMapper;
+    this.maxEntries = maxEntries;
+    this.ttl = Duration.ofMillis(ttlMs);
+    this.wait = Duration.ofMillis(waitMs);
+    this.persistent = persistent;
+  }
+
+  /**
+   * @param endpoint e.g. "POST /users", keys are only unique per endpoint
+   * @param key the Idempotency-Key header
+   * @param request the request body, to detect a reused key
+   * @param status the status of a successful response
+   * @param action runs the request and returns the response body
+   */
+  public StoredResponse execute(String endpoint, String key, Object request, HttpStatus status,
+      Supplier<Object> action) {
+    String id = endpoint + " " + key;
+    String fingerprint = fingerprint(request);
+
+    StoredResponse stored = lookup(id);
+    if (stored != null) {
+      return stored.replayFor(fingerprint);
+    }
+    CompletableFuture<StoredResponse> call = new CompletableFuture<>();
+    CompletableFuture<StoredResponse> running = inFlight.putIfAbsent(id, call);
+    if (running != null) {
+      return await(running).replayFor(fingerprint);
+    }
+    try {
+      // the previous call may have completed between the lookup and putIfAbsent
+      stored = lookup(id);
+      if (stored == null) {
+        stored = new StoredResponse(fingerprint, status.value(), toJson(action.get()), Instant.now().plus(ttl));
+        store(id, stored);
+        call.complete(stored);
+        return stored;
+      }
+      call.complete(stored);
+      return stored.replayFor(fingerprint);
+    } catch (RuntimeException | Error e) {
+      call.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(id, call);
+    }
+  }
+
+  private StoredResponse await(CompletableFuture<StoredResponse> running) {
+    try {
+      return running.get(wait.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new DomainException(ErrorCode.IDEMPOTENCY_IN_PROGRESS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private StoredResponse lookup(String id) {
+    Instant now = Instant.now();
+    synchronized (completed) {
+      StoredResponse stored = completed.get(id);
+      if (stored != null) {
+        if (stored.expiresAt.isAfter(now)) {
+          return stored;
+        }
+        completed.remove(id);
+      }
+    }
+    if (persistent) {
+      IdempotencyRecord record = idempotencyRecordRepository.findById(id).orElse(null);
+      if (record != null && record.getExpiresAt().isAfter(now)) {
+        StoredResponse stored = new StoredResponse(record.getFingerprint(), record.getStatus(), record.getBody(),
+            record.getExpiresAt());
+        synchronized (completed) {
+          completed.put(id, stored);
+        }
+        return stored;
+      }
+    }
+    return null;
+  }
+
+  private void store(String id, StoredResponse stored) {
+    synchronized (completed) {
+      completed.put(id, stored);
+    }
+    if (persistent) {
+      IdempotencyRecord record = new IdempotencyRecord();
+      record.setId(id);
+      record.setFingerprint(stored.fingerprint);
+      record.setStatus(stored.status);
+      record.setBody(stored.body);
+      record.setExpiresAt(stored.expiresAt);
+      idempotencyRecordRepository.save(record);
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${idempotency.cleanup-interval-ms:60000}")
+  public void removeExpired() {
+    Instant now = Instant.now();
+    synchronized (completed) {
+      completed.values().removeIf(stored -> !stored.expiresAt.isAfter(now));
+    }
+    if (persistent) {
+      idempotencyRecordRepository.deleteExpired(now);
+    }
+  }
+
+  private byte[] toJson(Object value) {
+    try {
+      return objectMapper.writeValueAsBytes(value);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Could not serialize the response", e);
+    }
+  }
+
+  // only a hash is kept, the request may contain a password
+  private String fingerprint(Object request) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(toJson(request)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * A completed response: status and JSON body.
+   */
+  public static final class StoredResponse {
+    private final String fingerprint;
+    private final int status;
+    private final byte[] body;
+    private final Instant expiresAt;
+    private final boolean replayed;
+
+    private StoredResponse(String fingerprint, int status, byte[] body, Instant expiresAt) {
+      this(fingerprint, status, body, expiresAt, false);
+    }
+
+    private StoredResponse(String fingerprint, int status, byte[] body, Instant expiresAt, boolean replayed) {
+      this.fingerprint = fingerprint;
+      this.status = status;
+      this.body = body;
+      this.expiresAt = expiresAt;
+      this.replayed = replayed;
+    }
+
+    private StoredResponse replayFor(String requestFingerprint) {
+      if (!fingerprint.equals(requestFingerprint)) {
+        throw new DomainException(ErrorCode.IDEMPOTENCY_KEY_REUSED);
+      }
+      return new StoredResponse(fingerprint, status, body, expiresAt, true);
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    public byte[] getBody() {
+      return body;
+    }
+
+    // true if the response was stored by an earlier request
+    public boolean isReplayed() {
+      return replayed;
+    }
+  }
+}
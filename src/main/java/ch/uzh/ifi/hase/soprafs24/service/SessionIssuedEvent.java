@@ -0,0 +1,27 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+/**
+ * Published by the SessionService when login, signup or a refresh hands out
+ * a new access token. Listen with
+ * {@code @TransactionalEventListener(fallbackExecution = true)} to only see
+ * sessions that were committed.
+ */
+public class SessionIssuedEvent {
+
+  private final Long userId;
+  private final String token;
+
+  SessionIssuedEvent(Long userId, String token) {
+    this.userId = userId;
+    this.token = token;
+  }
+
+  public Long getUserId() {
+    return userId;
+  }
+
+  // the access token itself, never store or log it
+  public String getToken() {
+    return token;
+  }
+}
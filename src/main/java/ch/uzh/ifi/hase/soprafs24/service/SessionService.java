@@ -0,0 +1,229 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.entity.UserSession;
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserSessionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Session Service
+ * Logins as sessions with an access token (sessions.access-ttl-ms) and a
+ * refresh token (sessions.refresh-ttl-ms). Every refresh rotates both tokens;
+ * presenting a refresh token that was already rotated away means it was
+ * copied, the session is then closed for both holders. A user can have any
+ * number of sessions.
+ * Sessions are removed when their refresh token expires. The deadlines are
+ * kept in a TimingWheel, so the sweep only deletes the sessions that are due
+ * instead of scanning the table; the wheel is filled from the table once,
+ * on the first sweep after a start. The wheel lives in this instance, like
+ * the UserChangeLog the application must not run more than once against
+ * the same database. Users whose last session the sweep removed are set
+ * OFFLINE by the UserService (see SessionsExpiredEvent).
+ */
+@Service
+@Transactional
+public class SessionService {
+
+  public static final String ACCESS_TOKEN_PREFIX = "at_";
+  public static final String REFRESH_TOKEN_PREFIX = "rt_";
+
+  /**
+   * The tokens of a session as handed to the client, only available when
+   * they are issued.
+   */
+  public static final class IssuedTokens {
+
+    private final String token;
+    private final String refreshToken;
+    private final Instant expiresAt;
+
+    IssuedTokens(String token, String refreshToken, Instant expiresAt) {
+      this.token = token;
+      this.refreshToken = refreshToken;
+      this.expiresAt = expiresAt;
+    }
+
+    public String getToken() {
+      return token;
+    }
+
+    public String getRefreshToken() {
+      return refreshToken;
+    }
+
+    public Instant getExpiresAt() {
+      return expiresAt;
+    }
+  }
+
+  private final Logger log = LoggerFactory.getLogger(SessionService.class);
+
+  private final UserSessionRepository userSessionRepository;
+  private final UserRepository userRepository;
+  private final ApplicationEventPublisher eventPublisher;
+  private final TokenGenerator tokenGenerator;
+  private final Duration accessTtl;
+  private final Duration refreshTtl;
+  private final TimingWheel<Long> expiries;
+  private volatile boolean expiriesLoaded;
+
+  private final Counter opened;
+  private final Counter refreshed;
+  private final Counter reused;
+  private final Counter expired;
+
+  public SessionService(@Qualifier("userSessionRepository") UserSessionRepository userSessionRepository,
+      @Qualifier("userRepository") UserRepository userRepository, ApplicationEventPublisher eventPublisher,
+      TokenGenerator tokenGenerator, @Value("${sessions.access-ttl-ms:3600000}") long accessTtlMs,
+      @Value("${sessions.refresh-ttl-ms:1209600000}") long refreshTtlMs,
+      @Value("${sessions.sweep-interval-ms:1000}") long sweepIntervalMs, MeterRegistry meterRegistry) {
+    this.userSessionRepository = userSessionRepository;
+    this.userRepository = userRepository;
+    this.eventPublisher = eventPublisher;
+    this.tokenGenerator = tokenGenerator;
+    this.accessTtl = Duration.ofMillis(accessTtlMs);
+    this.refreshTtl = Duration.ofMillis(refreshTtlMs);
+    this.expiries = new TimingWheel<>(sweepIntervalMs, System.currentTimeMillis());
+    this.opened = counter(meterRegistry, "opened");
+    this.refreshed = counter(meterRegistry, "refreshed");
+    this.reused = counter(meterRegistry, "refresh_reused");
+    this.expired = counter(meterRegistry, "expired");
+    Gauge.builder("sessions.scheduled", expiries, TimingWheel::size).register(meterRegistry);
+  }
+
+  private static Counter counter(MeterRegistry meterRegistry, String event) {
+    return Counter.builder("sessions").tag("event", event).register(meterRegistry);
+  }
+
+  public static boolean isAccessToken(String token) {
+    return token != null && token.startsWith(ACCESS_TOKEN_PREFIX);
+  }
+
+  public IssuedTokens open(User user) {
+    UserSession session = new UserSession();
+    session.setUserId(user.getId());
+    session.setCreatedAt(Instant.now());
+    IssuedTokens tokens = issue(session);
+    userSessionRepository.save(session);
+    expiries.schedule(session.getId(), session.getRefreshExpiresAt().toEpochMilli());
+    opened.increment();
+    eventPublisher.publishEvent(new SessionIssuedEvent(session.getUserId(), tokens.getToken()));
+    return tokens;
+  }
+
+  /**
+   * @return the user of a valid access token, null for an unknown or
+   *         expired one
+   */
+  @Transactional(readOnly = true)
+  public User authenticate(String token) {
+    UserSession session = userSessionRepository.findByTokenHashAndExpiresAtAfter(tokenGenerator.hash(token),
+        Instant.now());
+    // through the "userRepository", which knows the shards
+    return session == null ? null : userRepository.findById(session.getUserId()).orElse(null);
+  }
+
+  /**
+   * Replaces both tokens of the session of the refresh token. A refresh token
+   * that was already replaced closes the session, the delete is kept although
+   * the request fails.
+   */
+  @Transactional(noRollbackFor = DomainException.class)
+  public IssuedTokens refresh(String refreshToken) {
+    if (refreshToken == null) {
+      throw new DomainException(ErrorCode.INVALID_REFRESH_TOKEN);
+    }
+    String hash = tokenGenerator.hash(refreshToken);
+    UserSession session = userSessionRepository.findByRefreshTokenHash(hash);
+    if (session == null) {
+      UserSession compromised = userSessionRepository.findByPreviousRefreshTokenHash(hash);
+      if (compromised != null) {
+        userSessionRepository.delete(compromised);
+        reused.increment();
+        log.warn("Refresh token of session {} of user {} was reused, session closed", compromised.getId(),
+            compromised.getUserId());
+        throw new DomainException(ErrorCode.REFRESH_TOKEN_REUSED);
+      }
+      throw new DomainException(ErrorCode.INVALID_REFRESH_TOKEN);
+    }
+    if (!session.getRefreshExpiresAt().isAfter(Instant.now())) {
+      throw new DomainException(ErrorCode.INVALID_REFRESH_TOKEN);
+    }
+    session.setPreviousRefreshTokenHash(hash);
+    IssuedTokens tokens = issue(session);
+    userSessionRepository.save(session);
+    // the old deadline stays in the wheel, the sweep skips sessions that are not due
+    expiries.schedule(session.getId(), session.getRefreshExpiresAt().toEpochMilli());
+    refreshed.increment();
+    eventPublisher.publishEvent(new SessionIssuedEvent(session.getUserId(), tokens.getToken()));
+    return tokens;
+  }
+
+  private IssuedTokens issue(UserSession session) {
+    String token = tokenGenerator.newToken(ACCESS_TOKEN_PREFIX);
+    String refreshToken = tokenGenerator.newToken(REFRESH_TOKEN_PREFIX);
+    Instant now = Instant.now();
+    session.setTokenHash(tokenGenerator.hash(token));
+    session.setRefreshTokenHash(tokenGenerator.hash(refreshToken));
+    session.setExpiresAt(now.plus(accessTtl));
+    session.setRefreshExpiresAt(now.plus(refreshTtl));
+    return new IssuedTokens(token, refreshToken, session.getExpiresAt());
+  }
+
+  /**
+   * Logout of one session.
+   *
+   * @return false if the token is no session of the user
+   */
+  public boolean close(String token, Long userId) {
+    return userSessionRepository.deleteByTokenHashAndUserId(tokenGenerator.hash(token), userId) > 0;
+  }
+
+  public void closeAll(Long userId) {
+    userSessionRepository.deleteByUserId(userId);
+  }
+
+  @Transactional(readOnly = true)
+  public boolean hasOpenSessions(Long userId) {
+    return userSessionRepository.existsByUserIdAndRefreshExpiresAtAfter(userId, Instant.now());
+  }
+
+  @Scheduled(fixedDelayString = "${sessions.sweep-interval-ms:1000}")
+  public void sweep() {
+    if (!expiriesLoaded) {
+      for (Object[] row : userSessionRepository.findAllExpiries()) {
+        expiries.schedule((Long) row[0], ((Instant) row[1]).toEpochMilli());
+      }
+      expiriesLoaded = true;
+    }
+    List<Long> due = expiries.advance(System.currentTimeMillis());
+    if (!due.isEmpty()) {
+      Instant now = Instant.now();
+      List<Long> userIds = userSessionRepository.findUserIdsOfExpired(due, now);
+      int deleted = userSessionRepository.deleteExpired(due, now);
+      expired.increment(deleted);
+      log.debug("Removed {} expired sessions", deleted);
+      if (!userIds.isEmpty()) {
+        eventPublisher.publishEvent(new SessionsExpiredEvent(userIds));
+      }
+    }
+  }
+}
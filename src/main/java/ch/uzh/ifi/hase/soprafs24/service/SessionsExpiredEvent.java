@@ -0,0 +1,20 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.List;
+
+/**
+ * Published by the sweep of the SessionService with the users of the
+ * sessions it removed; these users may have no session left.
+ */
+public class SessionsExpiredEvent {
+
+  private final List<Long> userIds;
+
+  SessionsExpiredEvent(List<Long> userIds) {
+    this.userIds = userIds;
+  }
+
+  public List<Long> getUserIds() {
+    return userIds;
+  }
+}
@@ -0,0 +1,99 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Single Flight
+ * Coalesces concurrent calls for the same key: the first caller runs the
+ * loader, every caller that arrives while it is still running waits for that
+ * result instead of running the loader again. Waiting is bounded by the
+ * timeout; a caller that times out runs the loader itself.
+ * Mutable results (e.g. JPA entities) are not shared between threads: the
+ * leader passes its result through the share function before it returns and
+ * keeps the original, followers each get a copy of that snapshot. The leader
+ * may go on changing its result, the snapshot is taken while it is still
+ * unchanged and on the leader's thread.
+ */
+public class SingleFlight<K, V> {
+
+  private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+  private final UnaryOperator<V> share;
+  private volatile Duration timeout;
+
+  private final LongAdder executed = new LongAdder();
+  private final LongAdder collapsed = new LongAdder();
+  private final LongAdder timedOut = new LongAdder();
+
+  public SingleFlight(String name, Duration timeout, UnaryOperator<V> share, MeterRegistry meterRegistry) {
+    this.timeout = timeout;
+    this.share = share;
+    FunctionCounter.builder("single_flight.calls", executed, LongAdder::sum)
+        .tag("name", name).tag("result", "executed").register(meterRegistry);
+    FunctionCounter.builder("single_flight.calls", collapsed, LongAdder::sum)
+        .tag("name", name).tag("result", "collapsed").register(meterRegistry);
+    FunctionCounter.builder("single_flight.calls", timedOut, LongAdder::sum)
+        .tag("name", name).tag("result", "timed_out").register(meterRegistry);
+  }
+
+  public void setTimeout(Duration timeout) {
+    this.timeout = timeout;
+  }
+
+  public V execute(K key, Supplier<V> loader) {
+    CompletableFuture<V> call = new CompletableFuture<>();
+    CompletableFuture<V> running = inFlight.putIfAbsent(key, call);
+    if (running == null) {
+      executed.increment();
+      try {
+        V result = loader.get();
+        call.complete(share.apply(result));
+        return result;
+      } catch (RuntimeException | Error e) {
+        call.completeExceptionally(e);
+        throw e;
+      } finally {
+        inFlight.remove(key, call);
+      }
+    }
+
+    collapsed.increment();
+    try {
+      // the snapshot is shared by all followers, so each gets its own copy
+      return share.apply(running.get(timeout.toMillis(), TimeUnit.MILLISECONDS));
+    } catch (TimeoutException e) {
+      timedOut.increment();
+      return loader.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public long getExecuted() {
+    return executed.sum();
+  }
+
+  public long getCollapsed() {
+    return collapsed.sum();
+  }
+
+  public long getTimedOut() {
+    return timedOut.sum();
+  }
+}
@@ -0,0 +1,136 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timing Wheel
+ * Hierarchical timing wheel (as in the Linux kernel timers or Kafka's
+ * purgatory): four levels of 64 slots, a slot of level 0 is one tick, a
+ * slot of level n covers 64^n ticks. Scheduling puts an item into the slot
+ * of its deadline on the lowest level that reaches that far; whenever a
+ * level has gone round once, the next slot of the level above is spread
+ * over the levels below. Scheduling and expiring cost O(1) per item, no
+ * matter how many items are waiting and without sorting or scanning them.
+ * Deadlines beyond 64^4 ticks wait in an overflow list until they fit.
+ * Items are not cancelled; whoever gets an expired item checks whether it is
+ * still due. Thread-safe.
+ */
+public class TimingWheel<T> {
+
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int LEVELS = 4;
+
+  private static final class Entry<T> {
+    final T item;
+    final long tick;
+
+    Entry(T item, long tick) {
+      this.item = item;
+      this.tick = tick;
+    }
+  }
+
+  private final long tickMillis;
+  // all guarded by this
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private final List<Entry<T>>[][] slots = new List[LEVELS][SLOTS];
+  private final List<Entry<T>> overflow = new ArrayList<>();
+  private final List<T> due = new ArrayList<>();
+  private long currentTick;
+  private int size;
+
+  public TimingWheel(long tickMillis, long nowMillis) {
+    this.tickMillis = tickMillis;
+    this.currentTick = nowMillis / tickMillis;
+  }
+
+  /**
+   * The item is returned by the first advance to deadlineMillis or later,
+   * items that are already due by the next advance.
+   */
+  public synchronized void schedule(T item, long deadlineMillis) {
+    // rounded up, an item never expires early
+    long tick = (deadlineMillis + tickMillis - 1) / tickMillis;
+    size++;
+    if (tick <= currentTick) {
+      due.add(item);
+    } else {
+      place(new Entry<>(item, tick));
+    }
+  }
+
+  /**
+   * @return the items whose deadline is at or before nowMillis
+   */
+  public synchronized List<T> advance(long nowMillis) {
+    List<T> expired = new ArrayList<>();
+    long target = nowMillis / tickMillis;
+    while (currentTick < target) {
+      currentTick++;
+      if ((currentTick & (SLOTS - 1)) == 0) {
+        cascade(1);
+      }
+      List<Entry<T>> slot = slots[0][(int) (currentTick & (SLOTS - 1))];
+      if (slot != null && !slot.isEmpty()) {
+        for (Entry<T> entry : slot) {
+          expired.add(entry.item);
+        }
+        slot.clear();
+      }
+    }
+    expired.addAll(due);
+    due.clear();
+    size -= expired.size();
+    return expired;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  private void place(Entry<T> entry) {
+    long delta = entry.tick - currentTick;
+    for (int level = 0; level < LEVELS; level++) {
+      if (delta < 1L << (SLOT_BITS * (level + 1))) {
+        int index = (int) ((entry.tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        List<Entry<T>> slot = slots[level][index];
+        if (slot == null) {
+          slot = new ArrayList<>();
+          slots[level][index] = slot;
+        }
+        slot.add(entry);
+        return;
+      }
+    }
+    overflow.add(entry);
+  }
+
+  // spreads the slot of the given level that starts now over the levels below
+  private void cascade(int level) {
+    if (level == LEVELS) {
+      List<Entry<T>> waiting = new ArrayList<>(overflow);
+      overflow.clear();
+      waiting.forEach(this::place);
+      return;
+    }
+    long index = (currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+    if (index == 0) {
+      cascade(level + 1);
+    }
+    List<Entry<T>> slot = slots[level][(int) index];
+    if (slot == null || slot.isEmpty()) {
+      return;
+    }
+    List<Entry<T>> entries = new ArrayList<>(slot);
+    slot.clear();
+    for (Entry<T> entry : entries) {
+      if (entry.tick <= currentTick) {
+        due.add(entry.item);
+      } else {
+        place(entry);
+      }
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.UUID;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Token Generator
+ * Random tokens from one SecureRandom per thread. UUID.randomUUID() and a
+ * shared SecureRandom serialize all threads on one lock (NativePRNG even
+ * shares its state between instances); a SHA1PRNG per thread is seeded once
+ * from the system entropy and never blocks other threads afterwards. It is
+ * also about as fast per call as NativePRNG, where DRBG takes twice as long.
+ */
+@Component
+public class TokenGenerator {
+
+  private static final Base64.Encoder BASE64 = Base64.getUrlEncoder().withoutPadding();
+
+  private final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(TokenGenerator::newSecureRandom);
+  private final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(TokenGenerator::newSha256);
+
+  /**
+   * 256 random bits, URL-safe, after the given prefix.
+   */
+  public String newToken(String prefix) {
+    byte[] bytes = new byte[32];
+    random.get().nextBytes(bytes);
+    return prefix + BASE64.encodeToString(bytes);
+  }
+
+  /**
+   * A random (version 4) UUID as string, the format of User.token.
+   */
+  public String newUuid() {
+    byte[] bytes = new byte[16];
+    random.get().nextBytes(bytes);
+    long mostSigBits = 0;
+    long leastSigBits = 0;
+    for (int i = 0; i < 8; i++) {
+      mostSigBits = (mostSigBits << 8) | (bytes[i] & 0xFF);
+      leastSigBits = (leastSigBits << 8) | (bytes[8 + i] & 0xFF);
+    }
+    mostSigBits = (mostSigBits & ~0xF000L) | 0x4000L;
+    leastSigBits = (leastSigBits & ~(0xC000L << 48)) | (0x8000L << 48);
+    return new UUID(mostSigBits, leastSigBits).toString();
+  }
+
+  /**
+   * SHA-256 of the token as hex, what is stored instead of the token.
+   */
+  public String hash(String token) {
+    MessageDigest digest = sha256.get();
+    digest.reset();
+    return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static SecureRandom newSecureRandom() {
+    try {
+      return SecureRandom.getInstance("SHA1PRNG");
+    } catch (NoSuchAlgorithmException e) {
+      return new SecureRandom();
+    }
+  }
+
+  private static MessageDigest newSha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.entity.UserTombstone;
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserTombstoneRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserChangesDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+
+/**
+ * User Change Log
+ * Every change of a user is stamped with the next number of one increasing
+ * change sequence (User.changeSeq, UserTombstone.changeSeq for deletions).
+ * Clients keep the highest number they have seen and ask for the changes
+ * after it, which only touches the changed rows thanks to the index on the
+ * sequence column.
+ *
+ * Numbers are handed out before the transaction commits, so a lower number
+ * can become visible after a higher one. The changes are therefore only
+ * served up to the horizon: the number just below the lowest one whose
+ * transaction is still running. The sequence lives in this instance, the
+ * application must not run more than once against the same database.
+ */
+@Component
+public class UserChangeLog {
+
+  private final UserRepository userRepository;
+  private final UserTombstoneRepository userTombstoneRepository;
+
+  // both guarded by this
+  private final NavigableSet<Long> uncommitted = new TreeSet<>();
+  private long last = -1;
+
+  public UserChangeLog(@Qualifier("userRepository") UserRepository userRepository,
+      @Qualifier("userTombstoneRepository") UserTombstoneRepository userTombstoneRepository) {
+    this.userRepository = userRepository;
+    this.userTombstoneRepository = userTombstoneRepository;
+  }
+
+  /**
+   * Stamps the user with the next change number. Call before saving the user,
+   * in the transaction that saves it.
+   */
+  public void stamp(User user) {
+    user.setChangeSeq(next());
+  }
+
+  /**
+   * Leaves a tombstone for a user deleted in the current transaction.
+   */
+  public void recordDeletion(Long id) {
+    UserTombstone tombstone = new UserTombstone();
+    tombstone.setId(id);
+    tombstone.setChangeSeq(next());
+    userTombstoneRepository.save(tombstone);
+  }
+
+  private long next() {
+    long seq;
+    synchronized (this) {
+      loadLast();
+      seq = ++last;
+      uncommitted.add(seq);
+    }
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          release(seq);
+        }
+      });
+    } else {
+      release(seq);
+    }
+    return seq;
+  }
+
+  private synchronized void release(long seq) {
+    uncommitted.remove(seq);
+  }
+
+  private void loadLast() {
+    if (last < 0) {
+      long users = orZero(userRepository.findMaxChangeSeq());
+      long tombstones = orZero(userTombstoneRepository.findMaxChangeSeq());
+      last = Math.max(users, tombstones);
+    }
+  }
+
+  private static long orZero(Long value) {
+    return value == null ? 0 : value;
+  }
+
+  /**
+   * @return the highest change number below which all changes are committed
+   */
+  public synchronized long horizon() {
+    loadLast();
+    return uncommitted.isEmpty() ? last : uncommitted.first() - 1;
+  }
+
+  /**
+   * Runs in a read-write transaction on purpose, so that it reads from the
+   * primary: a lagging replica could miss changes below the horizon.
+   *
+   * @param since the cursor of the previous call, 0 for everything
+   * @param limit maximal number of upserts plus deletions
+   */
+  @Transactional
+  public UserChangesDTO getChanges(long since, int limit) {
+    Changes changes = getChangedUsers(since, limit);
+    UserChangesDTO dto = new UserChangesDTO();
+    dto.setCursor(changes.getCursor());
+    dto.setMore(changes.isMore());
+    dto.setUpserts(DTOMapper.INSTANCE.convertEntitiesToUserGetDTOs(changes.getUpserts()));
+    dto.setDeleted(changes.getDeleted());
+    return dto;
+  }
+
+  /**
+   * The same changes as getChanges, with the users as entities (all fields),
+   * for copies of the users within the application such as the UserTable.
+   */
+  @Transactional
+  public Changes getChangedUsers(long since, int limit) {
+    long upTo = horizon();
+    if (since > upTo) {
+      // e.g. the cursor is from before the in-memory database was reset
+      throw new DomainException(ErrorCode.CURSOR_GONE);
+    }
+    PageRequest page = PageRequest.of(0, limit);
+    List<User> users = since == upTo ? List.of() : userRepository.findChangedBetween(since, upTo, page);
+    List<UserTombstone> tombstones = since == upTo ? List.of()
+        : userTombstoneRepository.findDeletedBetween(since, upTo, page);
+
+    // merge both by change number and keep the first ones
+    List<User> upserts = new ArrayList<>();
+    List<Long> deleted = new ArrayList<>();
+    int u = 0;
+    int t = 0;
+    long cursor = since;
+    while (upserts.size() + deleted.size() < limit && (u < users.size() || t < tombstones.size())) {
+      if (t == tombstones.size()
+          || (u < users.size() && users.get(u).getChangeSeq() < tombstones.get(t).getChangeSeq())) {
+        cursor = users.get(u).getChangeSeq();
+        upserts.add(users.get(u++));
+      } else {
+        cursor = tombstones.get(t).getChangeSeq();
+        deleted.add(tombstones.get(t++).getId());
+      }
+    }
+    boolean more = u < users.size() || t < tombstones.size() || users.size() == limit
+        || tombstones.size() == limit;
+
+    return new Changes(upserts, deleted, more ? cursor : upTo, more);
+  }
+
+  /**
+   * A page of changes: the changed users and the ids of the deleted ones,
+   * each in the order of their change numbers.
+   */
+  public static final class Changes {
+
+    private final List<User> upserts;
+    private final List<Long> deleted;
+    private final long cursor;
+    private final boolean more;
+
+    private Changes(List<User> upserts, List<Long> deleted, long cursor, boolean more) {
+      this.upserts = upserts;
+      this.deleted = deleted;
+      this.cursor = cursor;
+      this.more = more;
+    }
+
+    public List<User> getUpserts() {
+      return upserts;
+    }
+
+    public List<Long> getDeleted() {
+      return deleted;
+    }
+
+    // the since of the next call
+    public long getCursor() {
+      return cursor;
+    }
+
+    // whether the limit cut the changes short
+    public boolean isMore() {
+      return more;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.LocalDate;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+/**
+ * Published by the services whenever a user is created, changed or deleted.
+ * Listeners get the user after the change together with the values of the
+ * fields before the change (null for created and deleted users). Listen with
+ * {@code @TransactionalEventListener(fallbackExecution = true)} to only see
+ * committed changes.
+ */
+public class UserChangedEvent {
+
+  public enum Type {
+    CREATED, UPDATED, DELETED
+  }
+
+  private final Type type;
+  private final User user;
+  private final String previousUsername;
+  private final UserStatus previousStatus;
+  private final LocalDate previousBirthday;
+
+  private UserChangedEvent(Type type, User user, String previousUsername, UserStatus previousStatus,
+      LocalDate previousBirthday) {
+    this.type = type;
+    this.user = user;
+    this.previousUsername = previousUsername;
+    this.previousStatus = previousStatus;
+    this.previousBirthday = previousBirthday;
+  }
+
+  public static UserChangedEvent created(User user) {
+    return new UserChangedEvent(Type.CREATED, user, null, null, null);
+  }
+
+  public static UserChangedEvent updated(User user, String previousUsername, UserStatus previousStatus,
+      LocalDate previousBirthday) {
+    return new UserChangedEvent(Type.UPDATED, user, previousUsername, previousStatus, previousBirthday);
+  }
+
+  public static UserChangedEvent deleted(User user) {
+    return new UserChangedEvent(Type.DELETED, user, null, null, null);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public User getUser() {
+    return user;
+  }
+
+  public String getPreviousUsername() {
+    return previousUsername;
+  }
+
+  public UserStatus getPreviousStatus() {
+    return previousStatus;
+  }
+
+  public LocalDate getPreviousBirthday() {
+    return previousBirthday;
+  }
+}
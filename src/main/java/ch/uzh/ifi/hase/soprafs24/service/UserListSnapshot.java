@@ -0,0 +1,254 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.UserJsonWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * User List Snapshot
+ * The response of GET /users as finished bytes, plain and gzipped, so that
+ * serving the list is a copy of a byte array. Every committed change of a
+ * user (see config.UserListSnapshotInvalidator) makes the snapshot outdated. The
+ * next reader starts a rebuild on a background thread and waits up to
+ * users.snapshot.max-wait-ms for it. When that is not enough (a large list,
+ * an overloaded database) or the rebuild fails, it gets the outdated
+ * snapshot instead. Readers arriving meanwhile join the running rebuild, so
+ * there is at most one rebuild at a time and none while nobody reads. Only
+ * the very first snapshot is always waited for. Metrics: users.snapshot.rebuild (time and failures),
+ * users.snapshot.served per fresh/stale and users.snapshot.staleness, the
+ * seconds since the snapshot became outdated.
+ */
+@Component
+public class UserListSnapshot implements DisposableBean {
+
+  /**
+   * One immutable version of the list; the arrays must not be modified.
+   */
+  public static final class Snapshot {
+
+    private final long version;
+    private final byte[] json;
+    private final byte[] gzip;
+    private final String etag;
+    private final String gzipEtag;
+
+    Snapshot(long version, byte[] json, byte[] gzip, String etag, String gzipEtag) {
+      this.version = version;
+      this.json = json;
+      this.gzip = gzip;
+      this.etag = etag;
+      this.gzipEtag = gzipEtag;
+    }
+
+    public byte[] getJson() {
+      return json;
+    }
+
+    public byte[] getGzip() {
+      return gzip;
+    }
+
+    // strong ETag from the content, the same list gives the same ETag after a restart
+    public String getEtag() {
+      return etag;
+    }
+
+    // the gzipped body is another representation and needs its own strong ETag
+    public String getGzipEtag() {
+      return gzipEtag;
+    }
+  }
+
+  private static final Object TRANSACTION_KEY = new Object();
+
+  private final Logger log = LoggerFactory.getLogger(UserListSnapshot.class);
+
+  private final UserService userService;
+  private final UserJsonWriter userJsonWriter;
+  private final TransactionTemplate readTransaction;
+  private final long maxWaitMillis;
+  private final ExecutorService rebuilder = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "user-list-snapshot");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // incremented on every change, a snapshot of an older version is outdated
+  private final AtomicLong version = new AtomicLong();
+  private final AtomicLong outdatedSince = new AtomicLong();
+  private volatile Snapshot snapshot;
+  // guarded by this, the rebuild that has been requested but not started yet
+  private CompletableFuture<Snapshot> pending;
+
+  private final Timer rebuildTimer;
+  private final Counter rebuildFailures;
+  private final Counter servedFresh;
+  private final Counter servedStale;
+
+  public UserListSnapshot(UserService userService, UserJsonWriter userJsonWriter,
+      PlatformTransactionManager transactionManager,
+      @Value("${users.snapshot.max-wait-ms:200}") long maxWaitMillis, MeterRegistry meterRegistry) {
+    this.userService = userService;
+    this.userJsonWriter = userJsonWriter;
+    // read-write on purpose: the rebuild has no request that pins it to the primary, and a list read
+    // from a lagging replica would be served as fresh until the next change
+    this.readTransaction = new TransactionTemplate(transactionManager);
+    this.maxWaitMillis = maxWaitMillis;
+    this.rebuildTimer = Timer.builder("users.snapshot.rebuild").register(meterRegistry);
+    this.rebuildFailures = Counter.builder("users.snapshot.rebuild.failures").register(meterRegistry);
+    this.servedFresh = Counter.builder("users.snapshot.served").tag("state", "fresh").register(meterRegistry);
+    this.servedStale = Counter.builder("users.snapshot.served").tag("state", "stale").register(meterRegistry);
+    Gauge.builder("users.snapshot.staleness", outdatedSince, since -> {
+      long nanos = since.get();
+      return nanos == 0 ? 0 : (System.nanoTime() - nanos) / 1e9;
+    }).baseUnit("seconds").register(meterRegistry);
+  }
+
+  public Snapshot get() {
+    Snapshot current = snapshot;
+    if (current != null && current.version == version.get()) {
+      servedFresh.increment();
+      return current;
+    }
+    CompletableFuture<Snapshot> rebuild = requestRebuild();
+    if (current == null) {
+      try {
+        return rebuild.get();
+      } catch (ExecutionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+            : new IllegalStateException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      }
+    }
+    try {
+      Snapshot rebuilt = rebuild.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+      servedFresh.increment();
+      return rebuilt;
+    } catch (TimeoutException | ExecutionException e) {
+      servedStale.increment();
+      return current;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      servedStale.increment();
+      return current;
+    }
+  }
+
+  /**
+   * Marks the snapshot outdated once the current transaction has committed,
+   * right away without a transaction.
+   */
+  public void invalidate() {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      invalidateNow();
+      return;
+    }
+    // once per transaction, however many users it changes
+    if (TransactionSynchronizationManager.hasResource(TRANSACTION_KEY)) {
+      return;
+    }
+    TransactionSynchronizationManager.bindResource(TRANSACTION_KEY, Boolean.TRUE);
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(TRANSACTION_KEY);
+        if (status == STATUS_COMMITTED) {
+          invalidateNow();
+        }
+      }
+    });
+  }
+
+  private void invalidateNow() {
+    version.incrementAndGet();
+    outdatedSince.compareAndSet(0, System.nanoTime());
+  }
+
+  private synchronized CompletableFuture<Snapshot> requestRebuild() {
+    if (pending == null) {
+      pending = new CompletableFuture<>();
+      rebuilder.execute(this::rebuild);
+    }
+    return pending;
+  }
+
+  private void rebuild() {
+    CompletableFuture<Snapshot> future;
+    synchronized (this) {
+      future = pending;
+      pending = null;
+    }
+    // read after taking the future: the rebuild covers every change made before it was requested
+    long buildVersion = version.get();
+    long start = System.nanoTime();
+    try {
+      Snapshot rebuilt = build(buildVersion, readTransaction.execute(status -> userService.getUsers()));
+      snapshot = rebuilt;
+      if (version.get() == buildVersion) {
+        outdatedSince.set(0);
+      }
+      rebuildTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      future.complete(rebuilt);
+    } catch (Throwable e) {
+      // also Errors (e.g. out of memory for a huge list), the first reader waits for this future without a timeout
+      rebuildFailures.increment();
+      log.warn("Rebuilding the user list snapshot failed: {}", e.toString());
+      future.completeExceptionally(e);
+    }
+  }
+
+  private Snapshot build(long buildVersion, List<User> users) {
+    try {
+      ByteArrayOutputStream json = new ByteArrayOutputStream();
+      userJsonWriter.writeUsers(users, json);
+      byte[] jsonBytes = json.toByteArray();
+      ByteArrayOutputStream gzip = new ByteArrayOutputStream(jsonBytes.length / 4 + 64);
+      try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+        out.write(jsonBytes);
+      }
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(jsonBytes);
+      String hash = HexFormat.of().formatHex(digest, 0, 16);
+      return new Snapshot(buildVersion, jsonBytes, gzip.toByteArray(), "\"" + hash + "\"", "\"" + hash + "-gzip\"");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    rebuilder.shutdownNow();
+  }
+}
@@ -1,22 +1,39 @@
 package ch.uzh.ifi.hase.soprafs24.service;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.http.HttpStatus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.server.ResponseStatusException;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
+import ch.uzh.ifi.hase.soprafs24.constant.UserSort;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
 import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
+import io.micrometer.core.instrument.MeterRegistry;
 
 /**
  * User Service
@@ -29,25 +46,153 @@ import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
 @Transactional
 public class UserService {
 
+  // ids per IN list, stays below the limits of the usual databases
+  private static final int STATUS_BATCH_SIZE = 1000;
+
   private final Logger log = LoggerFactory.getLogger(UserService.class);
   private final UserRepository userRepository;
+  private final ApplicationEventPublisher eventPublisher;
+  private final UserChangeLog userChangeLog;
+  private final SessionService sessionService;
+  private final TokenGenerator tokenGenerator;
+  private final UserSortIndex userSortIndex;
+  private final FollowService followService;
+  private final UserTableService userTableService;
+  private final TransactionTemplate queryTransaction;
+  private volatile boolean accountTokens;
+
+  // concurrent lookups of the same id/username/token share one query
+  private final SingleFlight<Long, Optional<User>> userByIdFlight;
+  private final SingleFlight<String, User> userByUsernameFlight;
+  private final SingleFlight<String, User> userByTokenFlight;
 
   @Autowired
-  public UserService(@Qualifier("userRepository") UserRepository userRepository) {
+  public UserService(@Qualifier("userRepository") UserRepository userRepository,
+      ApplicationEventPublisher eventPublisher, UserChangeLog userChangeLog, SessionService sessionService,
+      TokenGenerator tokenGenerator, UserSortIndex userSortIndex, FollowService followService,
+      UserTableService userTableService, PlatformTransactionManager transactionManager,
+      MeterRegistry meterRegistry) {
     this.userRepository = userRepository;
+    this.eventPublisher = eventPublisher;
+    this.userChangeLog = userChangeLog;
+    this.sessionService = sessionService;
+    this.tokenGenerator = tokenGenerator;
+    this.userSortIndex = userSortIndex;
+    this.followService = followService;
+    this.userTableService = userTableService;
+    this.queryTransaction = new TransactionTemplate(transactionManager);
+    this.queryTransaction.setReadOnly(true);
+    Duration timeout = Duration.ofSeconds(2);
+    this.userByIdFlight = new SingleFlight<>("users.byId", timeout,
+        user -> user.map(UserService::detachedCopy), meterRegistry);
+    this.userByUsernameFlight = new SingleFlight<>("users.byUsername", timeout,
+        UserService::detachedCopy, meterRegistry);
+    this.userByTokenFlight = new SingleFlight<>("users.byToken", timeout,
+        UserService::detachedCopy, meterRegistry);
+  }
+
+  @Autowired
+  public void setSingleFlightTimeout(@Value("${users.single-flight.timeout-ms:2000}") long timeoutMs) {
+    Duration timeout = Duration.ofMillis(timeoutMs);
+    userByIdFlight.setTimeout(timeout);
+    userByUsernameFlight.setTimeout(timeout);
+    userByTokenFlight.setTimeout(timeout);
+  }
+
+  /**
+   * Whether User.token, the token handed out at signup before there were
+   * sessions, still authenticates. It never expires, so it is off unless old
+   * clients still need it.
+   */
+  @Autowired
+  public void setAccountTokens(@Value("${sessions.account-tokens:false}") boolean accountTokens) {
+    this.accountTokens = accountTokens;
+  }
+
+  public boolean acceptsAccountTokens() {
+    return accountTokens;
+  }
+
+  /**
+   * Callers that joined another caller's lookup get their own copy of the
+   * entity, it stays managed only in the session of the caller that loaded it.
+   */
+  private static User detachedCopy(User user) {
+    if (user == null) {
+      return null;
+    }
+    User copy = new User();
+    copy.setId(user.getId());
+    copy.setName(user.getName());
+    copy.setUsername(user.getUsername());
+    copy.setPassword(user.getPassword());
+    copy.setToken(user.getToken());
+    copy.setStatus(user.getStatus());
+    copy.setDate(user.getDate());
+    copy.setBirthday(user.getBirthday());
+    copy.setAvatarHash(user.getAvatarHash());
+    copy.setChangeSeq(user.getChangeSeq());
+    return copy;
   }
 
+  @Transactional(readOnly = true)
   public List<User> getUsers() {
     return this.userRepository.findAll();
   }
 
+  /**
+   * Sparse fieldset: only the given fields (and the id) are read and set.
+   */
+  @Transactional(readOnly = true)
+  public List<User> getUsers(Set<UserField> fields) {
+    return this.userRepository.findAllWithFields(fields);
+  }
+
+  /**
+   * The first users in the given order, at most limit: their ids come from
+   * the UserSortIndex, the users from one lookup by id.
+   */
+  @Transactional(readOnly = true)
+  public List<User> getUsers(UserSort sort, int limit) {
+    return getUsersInOrder(userSortIndex.first(sort, limit, LocalDate.now()));
+  }
+
+  /**
+   * The users of the ids in the order of the ids, with one lookup by id.
+   * Unknown ids are left out.
+   */
+  @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+  public List<User> getUsersInOrder(List<Long> ids) {
+    if (ids.isEmpty()) {
+      return List.of();
+    }
+    if (userTableService.isReady()) {
+      return userTableService.findAllById(ids);
+    }
+    Map<Long, User> byId = new HashMap<>(ids.size() * 4 / 3 + 1);
+    for (User user : query(() -> userRepository.findAllById(ids))) {
+      byId.put(user.getId(), user);
+    }
+    List<User> users = new ArrayList<>(ids.size());
+    for (Long id : ids) {
+      // deleted after the ids were read
+      User user = byId.get(id);
+      if (user != null) {
+        users.add(user);
+      }
+    }
+    return users;
+  }
+
   public User createUser(User newUser) {
-    newUser.setToken(UUID.randomUUID().toString());
+    newUser.setToken(tokenGenerator.newUuid());
     newUser.setStatus(UserStatus.ONLINE);
     newUser.setDate(LocalDate.now());
     checkIfUserExists(newUser);
+    userChangeLog.stamp(newUser);
     newUser = userRepository.save(newUser);
     userRepository.flush();
+    eventPublisher.publishEvent(UserChangedEvent.created(newUser));
     log.debug("Created Information for User: {}", newUser);
     return newUser;
   }
@@ -59,65 +204,146 @@ public class UserService {
    * and throw an error otherwise.
    *
    * @param userToBeCreated
-   * @throws org.springframework.web.server.ResponseStatusException
+   * @throws ch.uzh.ifi.hase.soprafs24.exceptions.DomainException
    * @see User
    */
   private void checkIfUserExists(User userToBeCreated) {
     User userByUsername = userRepository.findByUsername(userToBeCreated.getUsername());
 
-    String baseErrorMessage = "The %s provided %s not unique.";
     if (userByUsername != null) {
-      throw new ResponseStatusException(HttpStatus.CONFLICT,
-          String.format(baseErrorMessage, "username and the name", "are"));
+      throw new DomainException(ErrorCode.USERNAME_TAKEN);
+    }
+  }
+
+  /**
+   * Presence of many users at once, with one IN query per 1000 ids. Unknown
+   * ids are left out of the result.
+   */
+  @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+  public Map<Long, UserStatus> getStatuses(Collection<Long> ids) {
+    if (userTableService.isReady()) {
+      return userTableService.findStatuses(ids);
     }
+    List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+    return query(() -> {
+      Map<Long, UserStatus> statuses = new HashMap<>(distinctIds.size() * 4 / 3 + 1);
+      for (int from = 0; from < distinctIds.size(); from += STATUS_BATCH_SIZE) {
+        List<Long> chunk = distinctIds.subList(from, Math.min(from + STATUS_BATCH_SIZE, distinctIds.size()));
+        for (Object[] row : userRepository.findStatusesByIdIn(chunk)) {
+          statuses.put((Long) row[0], (UserStatus) row[1]);
+        }
+      }
+      return statuses;
+    });
   }
 
+  @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
   public User getUserById(Long id) {
-    return userRepository.findById(id)
-        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+    if (userTableService.isReady()) {
+      return requireFound(userTableService.findById(id));
+    }
+    return userByIdFlight.execute(id, () -> query(() -> userRepository.findById(id)))
+        .orElseThrow(() -> new DomainException(ErrorCode.USER_NOT_FOUND));
+  }
+
+  @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+  public User getUserById(Long id, Set<UserField> fields) {
+    if (userTableService.isReady()) {
+      // all fields, there is nothing to save by reading less from memory
+      return requireFound(userTableService.findById(id));
+    }
+    return query(() -> userRepository.findByIdWithFields(id, fields))
+        .orElseThrow(() -> new DomainException(ErrorCode.USER_NOT_FOUND));
+  }
+
+  /**
+   * The database query of a lookup that only joins a transaction, so that
+   * an answer from the UserTable opens none: runs in the caller's
+   * transaction or else in a read-only one, which may go to a replica.
+   */
+  private <T> T query(Supplier<T> query) {
+    return queryTransaction.execute(status -> query.get());
+  }
+
+  private static User requireFound(User user) {
+    if (user == null) {
+      throw new DomainException(ErrorCode.USER_NOT_FOUND);
+    }
+    return user;
   }
 
   public User loginUser(User userToBeLoggedIn) {
-    User userByUsername = userRepository.findByUsername(userToBeLoggedIn.getUsername());
+    User userByUsername = getUserByUsername(userToBeLoggedIn.getUsername());
 
     if (userByUsername == null) {
-      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
+      throw new DomainException(ErrorCode.USER_NOT_FOUND);
     }
 
     if (!userByUsername.getPassword().equals(userToBeLoggedIn.getPassword())) {
-      throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Password not correct");
+      throw new DomainException(ErrorCode.WRONG_PASSWORD);
     }
 
+    UserStatus previousStatus = userByUsername.getStatus();
     userByUsername.setStatus(UserStatus.ONLINE);
+    userChangeLog.stamp(userByUsername);
     userRepository.saveAndFlush(userByUsername);
+    eventPublisher.publishEvent(UserChangedEvent.updated(userByUsername, userByUsername.getUsername(),
+        previousStatus, userByUsername.getBirthday()));
 
     return userByUsername;
   }
 
+  /**
+   * The user of a session access token (see SessionService) or of an account
+   * token (User.token), null if the token is unknown or expired.
+   */
+  @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
   public User getUserByToken(String token) {
-    return userRepository.findByToken(token);
+    if (token == null) {
+      return null;
+    }
+    if (SessionService.isAccessToken(token)) {
+      return userByTokenFlight.execute(token, () -> sessionService.authenticate(token));
+    }
+    if (!accountTokens) {
+      return null;
+    }
+    if (userTableService.isReady()) {
+      return userTableService.findByToken(token);
+    }
+    return userByTokenFlight.execute(token, () -> query(() -> userRepository.findByToken(token)));
   }
 
+  @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
   public User getUserByUsername(String username) {
-    return userRepository.findByUsername(username);
+    if (username == null) {
+      return null;
+    }
+    if (userTableService.isReady()) {
+      return userTableService.findByUsername(username);
+    }
+    return userByUsernameFlight.execute(username, () -> query(() -> userRepository.findByUsername(username)));
   }
 
   public User editUser(User userToBeEdited, UserPutDTO userPutDTO) {
     if (userPutDTO == null) {
-        throw new IllegalArgumentException("User data cannot be null");
+        throw new DomainException(ErrorCode.INVALID_USER_DATA, "User data cannot be null");
     }
 
     if (userPutDTO.getUsername() != null && !userPutDTO.getUsername().equals(userToBeEdited.getUsername())) {
         User existingUser = userRepository.findByUsername(userPutDTO.getUsername());
         if (existingUser != null && !existingUser.getId().equals(userToBeEdited.getId())) {
-            throw new IllegalArgumentException("Username exists already");
+            throw new DomainException(ErrorCode.INVALID_USER_DATA, "Username exists already");
         }
     }
 
     if (userPutDTO.getUsername() == null || userPutDTO.getUsername().trim().isEmpty()) {
-        throw new IllegalArgumentException("Username cannot be empty");
+        throw new DomainException(ErrorCode.INVALID_USER_DATA, "Username cannot be empty");
     }
 
+    String previousUsername = userToBeEdited.getUsername();
+    LocalDate previousBirthday = userToBeEdited.getBirthday();
+
     if (userPutDTO.getUsername() != null) {
         userToBeEdited.setUsername(userPutDTO.getUsername());
     }
@@ -125,11 +351,51 @@ public class UserService {
     if (userPutDTO.getBirthday() != null) {
         userToBeEdited.setBirthday(userPutDTO.getBirthday());
     }
-    return userRepository.save(userToBeEdited);
+    userChangeLog.stamp(userToBeEdited);
+    User editedUser = userRepository.save(userToBeEdited);
+    eventPublisher.publishEvent(UserChangedEvent.updated(editedUser, previousUsername,
+        editedUser.getStatus(), previousBirthday));
+    return editedUser;
+  }
+
+  /**
+   * Users whose last session expired are logged out, in a transaction of
+   * their own after the sweep.
+   */
+  @TransactionalEventListener(fallbackExecution = true)
+  @Transactional(propagation = Propagation.REQUIRES_NEW)
+  public void onSessionsExpired(SessionsExpiredEvent event) {
+    for (Long userId : event.getUserIds()) {
+      User user = userRepository.findById(userId).orElse(null);
+      if (user != null && user.getStatus() == UserStatus.ONLINE && !sessionService.hasOpenSessions(userId)) {
+        logoutUser(user);
+      }
+    }
   }
 
   public void logoutUser(User user) {
+    UserStatus previousStatus = user.getStatus();
     user.setStatus(UserStatus.OFFLINE);
+    userChangeLog.stamp(user);
     userRepository.saveAndFlush(user);
+    eventPublisher.publishEvent(UserChangedEvent.updated(user, user.getUsername(), previousStatus,
+        user.getBirthday()));
   } 
+
+  public User setAvatar(User user, String avatarHash) {
+    user.setAvatarHash(avatarHash);
+    userChangeLog.stamp(user);
+    User updatedUser = userRepository.save(user);
+    eventPublisher.publishEvent(UserChangedEvent.updated(updatedUser, updatedUser.getUsername(),
+        updatedUser.getStatus(), updatedUser.getBirthday()));
+    return updatedUser;
+  }
+
+  public void deleteUser(User user) {
+    sessionService.closeAll(user.getId());
+    followService.removeUser(user.getId());
+    userRepository.deleteById(user.getId());
+    userChangeLog.recordDeletion(user.getId());
+    eventPublisher.publishEvent(UserChangedEvent.deleted(user));
+  }
 }
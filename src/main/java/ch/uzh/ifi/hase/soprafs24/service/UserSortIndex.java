@@ -0,0 +1,216 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.LocalDate;
+import java.time.MonthDay;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserSort;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * User Sort Index
+ * The user ids in the orders of GET /users?sort=, kept in concurrent skip
+ * lists: by signup date (newest first) and by birthday (day of the year). They
+ * are updated on every committed UserChangedEvent, so the first k users of an
+ * order cost O(log n + k) instead of sorting all users per request. The
+ * reconciliation against the database fills them at startup and repairs
+ * changes that bypassed the services.
+ */
+@Component
+public class UserSortIndex {
+
+  private static final Comparator<Entry> NEWEST_ORDER = Comparator.comparing((Entry entry) -> entry.date)
+      .thenComparingLong(entry -> entry.id).reversed();
+  private static final Comparator<Entry> BIRTHDAY_ORDER = Comparator.comparing((Entry entry) -> entry.birthday)
+      .thenComparingLong(entry -> entry.id);
+
+  private final Logger log = LoggerFactory.getLogger(UserSortIndex.class);
+
+  private final UserRepository userRepository;
+
+  // the current entry per user id, deleted users stay as tombstones until the next reconciliation
+  private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListSet<Entry> newest = new ConcurrentSkipListSet<>(NEWEST_ORDER);
+  private final ConcurrentSkipListSet<Entry> birthdays = new ConcurrentSkipListSet<>(BIRTHDAY_ORDER);
+  private volatile boolean loaded;
+
+  private final Counter repaired;
+
+  public UserSortIndex(@Qualifier("userRepository") UserRepository userRepository, MeterRegistry meterRegistry) {
+    this.userRepository = userRepository;
+    this.repaired = meterRegistry.counter("users.sort_index.repaired");
+    meterRegistry.gauge("users.sort_index.size", newest, ConcurrentSkipListSet::size);
+  }
+
+  /**
+   * The sort keys of a user at one point in time; immutable, so the skip
+   * lists never see a key change.
+   */
+  private static final class Entry {
+
+    private final long id;
+    private final LocalDate date;
+    private final MonthDay birthday;
+    private final boolean deleted;
+    private final long changedAt;
+
+    private Entry(long id, LocalDate date, MonthDay birthday, boolean deleted) {
+      this.id = id;
+      this.date = date;
+      this.birthday = birthday;
+      this.deleted = deleted;
+      this.changedAt = System.nanoTime();
+    }
+
+    // only entries with a key are in a set, the comparators do not take null keys
+    private void link(Set<Entry> newest, Set<Entry> birthdays) {
+      if (!deleted && date != null) {
+        newest.add(this);
+      }
+      if (!deleted && birthday != null) {
+        birthdays.add(this);
+      }
+    }
+
+    private void unlink(Set<Entry> newest, Set<Entry> birthdays) {
+      if (!deleted && date != null) {
+        newest.remove(this);
+      }
+      if (!deleted && birthday != null) {
+        birthdays.remove(this);
+      }
+    }
+
+    private boolean sameKeys(LocalDate otherDate, MonthDay otherBirthday, boolean otherDeleted) {
+      return deleted == otherDeleted && Objects.equals(date, otherDate) && Objects.equals(birthday, otherBirthday);
+    }
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    User user = event.getUser();
+    if (user.getId() == null) {
+      return;
+    }
+    boolean deleted = event.getType() == UserChangedEvent.Type.DELETED;
+    put(user.getId(), user.getDate(), user.getBirthday(), deleted, System.nanoTime());
+  }
+
+  /**
+   * Replaces the entry of the user unless it changed after notBefore (a
+   * nanoTime), so a reconciliation does not undo the events that committed
+   * while it queried the database.
+   *
+   * @return whether the entry had to be changed
+   */
+  private boolean put(long id, LocalDate date, LocalDate birthday, boolean deleted, long notBefore) {
+    MonthDay birthdayKey = birthday == null ? null : MonthDay.from(birthday);
+    boolean[] changed = new boolean[1];
+    entries.compute(id, (key, previous) -> {
+      if (previous != null && (previous.changedAt - notBefore > 0 || previous.sameKeys(date, birthdayKey, deleted))) {
+        return previous;
+      }
+      changed[0] = true;
+      if (previous != null) {
+        previous.unlink(newest, birthdays);
+      }
+      Entry entry = new Entry(id, date, birthdayKey, deleted);
+      entry.link(newest, birthdays);
+      return entry;
+    });
+    return changed[0];
+  }
+
+  /**
+   * The ids of the first users in the given order, at most limit. The
+   * birthday order starts at the day of today and leaves out users without a
+   * birthday.
+   */
+  public List<Long> first(UserSort sort, int limit, LocalDate today) {
+    if (!loaded) {
+      synchronized (this) {
+        if (!loaded) {
+          reconcile();
+        }
+      }
+    }
+    List<Long> ids = new ArrayList<>(Math.min(limit, 64));
+    if (sort == UserSort.NEWEST) {
+      collect(newest.iterator(), limit, ids);
+      return ids;
+    }
+    // everything from today to the end of the year, then from the start of the year
+    Entry from = new Entry(Long.MIN_VALUE, null, MonthDay.from(today), false);
+    collect(birthdays.tailSet(from).iterator(), limit, ids);
+    collect(birthdays.headSet(from).iterator(), limit, ids);
+    return ids;
+  }
+
+  private static void collect(Iterator<Entry> entries, int limit, List<Long> ids) {
+    while (ids.size() < limit && entries.hasNext()) {
+      ids.add(entries.next().id);
+    }
+  }
+
+  /**
+   * Compares the indexes with the keys of all users in the database and
+   * repairs the differences. Entries changed by an event while the query ran
+   * are left as they are, the next reconciliation checks them.
+   */
+  @Scheduled(initialDelayString = "${users.sort.reconcile-initial-delay-ms:0}",
+      fixedDelayString = "${users.sort.reconcile-interval-ms:300000}")
+  public synchronized void reconcile() {
+    long startedAt = System.nanoTime();
+    List<Object[]> rows = userRepository.findSortKeys();
+    Set<Long> ids = new HashSet<>(rows.size() * 4 / 3 + 1);
+    int differences = 0;
+    for (Object[] row : rows) {
+      Long id = (Long) row[0];
+      ids.add(id);
+      if (put(id, (LocalDate) row[1], (LocalDate) row[2], false, startedAt)) {
+        differences++;
+      }
+    }
+    int[] removed = new int[1];
+    for (Long id : entries.keySet()) {
+      if (ids.contains(id)) {
+        continue;
+      }
+      entries.computeIfPresent(id, (key, previous) -> {
+        if (previous.changedAt - startedAt > 0) {
+          return previous;
+        }
+        if (!previous.deleted) {
+          previous.unlink(newest, birthdays);
+          removed[0]++;
+        }
+        return null;
+      });
+    }
+    differences += removed[0];
+    if (loaded && differences > 0) {
+      repaired.increment(differences);
+      log.info("Repaired {} entries of the user sort indexes", differences);
+    }
+    loaded = true;
+    log.debug("Reconciled user sort indexes: {} users", rows.size());
+  }
+}
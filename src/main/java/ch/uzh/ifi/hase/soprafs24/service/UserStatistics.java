@@ -0,0 +1,181 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserStatsDTO;
+
+/**
+ * User Statistics
+ * Counters of the users by status, signup day and birthday month. They are
+ * updated on every committed UserChangedEvent with striped counters
+ * (LongAdder), so reading them costs the same no matter how many users exist.
+ * Changes that bypass the services (e.g. direct repository access) are caught
+ * up by the periodic reconciliation against the database.
+ */
+@Component
+public class UserStatistics {
+
+  private final Logger log = LoggerFactory.getLogger(UserStatistics.class);
+
+  private final UserRepository userRepository;
+
+  private final LongAdder total = new LongAdder();
+  private final Map<UserStatus, LongAdder> byStatus = new EnumMap<>(UserStatus.class);
+  private final ConcurrentHashMap<LocalDate, LongAdder> signupsPerDay = new ConcurrentHashMap<>();
+  private final Map<Month, LongAdder> birthdaysPerMonth = new EnumMap<>(Month.class);
+  private final LongAdder withoutBirthday = new LongAdder();
+  private volatile Instant reconciledAt;
+
+  public UserStatistics(@Qualifier("userRepository") UserRepository userRepository) {
+    this.userRepository = userRepository;
+    // both maps are filled once here and only read afterwards
+    for (UserStatus status : UserStatus.values()) {
+      byStatus.put(status, new LongAdder());
+    }
+    for (Month month : Month.values()) {
+      birthdaysPerMonth.put(month, new LongAdder());
+    }
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    User user = event.getUser();
+    if (event.getType() == UserChangedEvent.Type.CREATED) {
+      total.increment();
+      increment(user.getStatus());
+      if (user.getDate() != null) {
+        signupsPerDay.computeIfAbsent(user.getDate(), day -> new LongAdder()).increment();
+      }
+      countBirthday(user.getBirthday(), 1);
+      return;
+    }
+    if (event.getType() == UserChangedEvent.Type.DELETED) {
+      total.decrement();
+      decrement(user.getStatus());
+      if (user.getDate() != null) {
+        signupsPerDay.computeIfAbsent(user.getDate(), day -> new LongAdder()).decrement();
+      }
+      countBirthday(user.getBirthday(), -1);
+      return;
+    }
+    if (event.getPreviousStatus() != user.getStatus()) {
+      decrement(event.getPreviousStatus());
+      increment(user.getStatus());
+    }
+    if (!Objects.equals(event.getPreviousBirthday(), user.getBirthday())) {
+      countBirthday(event.getPreviousBirthday(), -1);
+      countBirthday(user.getBirthday(), 1);
+    }
+  }
+
+  private void increment(UserStatus status) {
+    if (status != null) {
+      byStatus.get(status).increment();
+    }
+  }
+
+  private void decrement(UserStatus status) {
+    if (status != null) {
+      byStatus.get(status).decrement();
+    }
+  }
+
+  private void countBirthday(LocalDate birthday, int delta) {
+    if (birthday == null) {
+      withoutBirthday.add(delta);
+    } else {
+      birthdaysPerMonth.get(birthday.getMonth()).add(delta);
+    }
+  }
+
+  /**
+   * Replaces all counters with the values from the database. Changes that
+   * commit while the queries run may be counted twice or not at all; the next
+   * reconciliation corrects that.
+   */
+  @Scheduled(initialDelayString = "${users.stats.reconcile-initial-delay-ms:0}",
+      fixedDelayString = "${users.stats.reconcile-interval-ms:300000}")
+  public void reconcile() {
+    List<Object[]> statusRows = userRepository.countByStatus();
+    List<Object[]> dateRows = userRepository.countByDate();
+    List<Object[]> monthRows = userRepository.countByBirthdayMonth();
+
+    long newTotal = 0;
+    Map<UserStatus, Long> statusCounts = new EnumMap<>(UserStatus.class);
+    for (Object[] row : statusRows) {
+      long count = (Long) row[1];
+      newTotal += count;
+      if (row[0] != null) {
+        statusCounts.put((UserStatus) row[0], count);
+      }
+    }
+    long withBirthday = 0;
+    Map<Month, Long> monthCounts = new EnumMap<>(Month.class);
+    for (Object[] row : monthRows) {
+      long count = (Long) row[1];
+      withBirthday += count;
+      monthCounts.put(Month.of(((Number) row[0]).intValue()), count);
+    }
+
+    set(total, newTotal);
+    for (UserStatus status : UserStatus.values()) {
+      set(byStatus.get(status), statusCounts.getOrDefault(status, 0L));
+    }
+    for (Month month : Month.values()) {
+      set(birthdaysPerMonth.get(month), monthCounts.getOrDefault(month, 0L));
+    }
+    set(withoutBirthday, newTotal - withBirthday);
+
+    Map<LocalDate, Long> dateCounts = new TreeMap<>();
+    for (Object[] row : dateRows) {
+      if (row[0] != null) {
+        dateCounts.put((LocalDate) row[0], (Long) row[1]);
+      }
+    }
+    signupsPerDay.keySet().retainAll(dateCounts.keySet());
+    dateCounts.forEach((day, count) -> set(signupsPerDay.computeIfAbsent(day, d -> new LongAdder()), count));
+
+    reconciledAt = Instant.now();
+    log.debug("Reconciled user statistics: {} users", newTotal);
+  }
+
+  private static void set(LongAdder adder, long value) {
+    adder.add(value - adder.sum());
+  }
+
+  public UserStatsDTO getStats() {
+    UserStatsDTO stats = new UserStatsDTO();
+    stats.setTotal(total.sum());
+    Map<UserStatus, Long> statusCounts = new EnumMap<>(UserStatus.class);
+    byStatus.forEach((status, count) -> statusCounts.put(status, count.sum()));
+    stats.setByStatus(statusCounts);
+    Map<LocalDate, Long> dayCounts = new TreeMap<>();
+    signupsPerDay.forEach((day, count) -> dayCounts.put(day, count.sum()));
+    stats.setSignupsPerDay(dayCounts);
+    Map<Month, Long> monthCounts = new EnumMap<>(Month.class);
+    birthdaysPerMonth.forEach((month, count) -> monthCounts.put(month, count.sum()));
+    stats.setBirthdaysPerMonth(monthCounts);
+    stats.setWithoutBirthday(withoutBirthday.sum());
+    stats.setReconciledAt(reconciledAt);
+    return stats;
+  }
+}
@@ -0,0 +1,468 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+/**
+ * User Table
+ * The users in memory as struct of arrays: one primitive array per column,
+ * dates as epoch days, the status as a byte and all strings as UTF-8 in one
+ * shared byte arena, with open-addressing indexes on id, username and token.
+ * The five string references of a row sit next to each other (and so do
+ * their bytes in the arena), since a lookup always reads all of them.
+ * A user costs a few array slots instead of a User with its Strings,
+ * LocalDates and boxed ids (plus Hibernate's copy of its loaded state), and a
+ * lookup touches a handful of arrays instead of a graph of objects. Reads are
+ * optimistic and repeated under the read lock when a write got in between;
+ * writes are serialized. Deleted users stay as tombstones (ids are never
+ * reused), so a late update cannot bring them back.
+ */
+public class UserTable {
+
+  private static final UserStatus[] STATUSES = UserStatus.values();
+  private static final byte DELETED = -1;
+  private static final int NO_DAY = Integer.MIN_VALUE;
+  private static final long NO_CHANGE_SEQ = Long.MIN_VALUE;
+  // a string is (offset << 32 | length) in the arena, the strings of row r at STRINGS * r + column
+  private static final long NO_STRING = -1;
+  private static final int STRINGS = 5;
+  private static final int NAME = 0;
+  private static final int USERNAME = 1;
+  private static final int PASSWORD = 2;
+  private static final int TOKEN = 3;
+  private static final int AVATAR_HASH = 4;
+  private static final int INITIAL_ROWS = 1024;
+  private static final int MAX_ARENA = Integer.MAX_VALUE - 8;
+  // the arena is compacted once more than half of it (and at least that much) are replaced strings
+  private static final int MIN_COMPACTION = 1 << 20;
+
+  private final StampedLock lock = new StampedLock();
+
+  private int rows;
+  private int live;
+  private long[] ids = new long[INITIAL_ROWS];
+  private long[] changeSeqs = new long[INITIAL_ROWS];
+  private int[] dates = new int[INITIAL_ROWS];
+  private int[] birthdays = new int[INITIAL_ROWS];
+  private byte[] statuses = new byte[INITIAL_ROWS];
+  private long[] strings = new long[STRINGS * INITIAL_ROWS];
+
+  private byte[] arena = new byte[1 << 16];
+  private int arenaSize;
+  private int garbage;
+
+  // linear probing, a slot holds row + 1 (0 is empty), at most half of the slots are used
+  private int[] byId = new int[INITIAL_ROWS * 2];
+  private int[] byUsername = new int[INITIAL_ROWS * 2];
+  private int[] byToken = new int[INITIAL_ROWS * 2];
+
+  /**
+   * The user with this id as new (detached) User, null if unknown or deleted.
+   */
+  public User get(long id) {
+    return read(() -> copy(rowOf(id)));
+  }
+
+  public User getByUsername(String username) {
+    byte[] key = username.getBytes(StandardCharsets.UTF_8);
+    return read(() -> copy(rowOf(byUsername, USERNAME, key)));
+  }
+
+  public User getByToken(String token) {
+    byte[] key = token.getBytes(StandardCharsets.UTF_8);
+    return read(() -> copy(rowOf(byToken, TOKEN, key)));
+  }
+
+  /**
+   * The statuses of the known users among the ids.
+   */
+  public Map<Long, UserStatus> statuses(Collection<Long> userIds) {
+    return read(() -> {
+      Map<Long, UserStatus> result = new HashMap<>(userIds.size() * 4 / 3 + 1);
+      for (Long id : userIds) {
+        int row = rowOf(id);
+        if (row >= 0 && statuses[row] != DELETED) {
+          result.put(id, STATUSES[statuses[row]]);
+        }
+      }
+      return result;
+    });
+  }
+
+  /**
+   * Users that are not deleted.
+   */
+  public int size() {
+    return live;
+  }
+
+  /**
+   * Bytes held by the columns, indexes and arena.
+   */
+  public long bytes() {
+    long perRow = (2L + STRINGS) * 8 + 2 * 4 + 1;
+    return perRow * ids.length + 4L * (byId.length + byUsername.length + byToken.length) + arena.length;
+  }
+
+  /**
+   * Adds the user or replaces its row, unless it is deleted or the row has a
+   * newer changeSeq (an update that was applied before this one).
+   *
+   * @return whether the row changed
+   */
+  public boolean put(User user) {
+    long stamp = lock.writeLock();
+    try {
+      return write(user, false);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Like put, but also keeps a row of the same changeSeq: for changes that
+   * were most likely applied already, e.g. replayed from the UserChangeLog.
+   *
+   * @return whether the row changed
+   */
+  public boolean putIfNewer(User user) {
+    long stamp = lock.writeLock();
+    try {
+      return write(user, true);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  public void putAll(Collection<User> users) {
+    long stamp = lock.writeLock();
+    try {
+      for (User user : users) {
+        write(user, false);
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Copies the strings into an arena with little room to spare, e.g. after
+   * a bulk load that doubled it several times.
+   */
+  public void trim() {
+    long stamp = lock.writeLock();
+    try {
+      compact(arenaSize - garbage + (arenaSize - garbage) / 8);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Turns the row of the user into a tombstone, also for users that are not
+   * in the table yet.
+   *
+   * @return false if the user was deleted already
+   */
+  public boolean delete(long id) {
+    long stamp = lock.writeLock();
+    try {
+      int row = rowOf(id);
+      if (row < 0) {
+        row = addRow(id);
+      } else if (statuses[row] == DELETED) {
+        return false;
+      } else {
+        unindex(byUsername, USERNAME, row);
+        unindex(byToken, TOKEN, row);
+        live--;
+      }
+      changeSeqs[row] = NO_CHANGE_SEQ;
+      statuses[row] = DELETED;
+      for (int column = 0; column < STRINGS; column++) {
+        strings[STRINGS * row + column] = release(strings[STRINGS * row + column]);
+      }
+      compactIfWasted();
+      return true;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  private boolean write(User user, boolean newerOnly) {
+    long changeSeq = user.getChangeSeq() == null ? NO_CHANGE_SEQ : user.getChangeSeq();
+    int row = rowOf(user.getId());
+    if (row < 0) {
+      row = addRow(user.getId());
+      live++;
+    } else if (statuses[row] == DELETED || changeSeqs[row] > changeSeq
+        || (newerOnly && changeSeqs[row] == changeSeq)) {
+      return false;
+    } else {
+      unindex(byUsername, USERNAME, row);
+      unindex(byToken, TOKEN, row);
+    }
+    changeSeqs[row] = changeSeq;
+    dates[row] = user.getDate() == null ? NO_DAY : (int) user.getDate().toEpochDay();
+    birthdays[row] = user.getBirthday() == null ? NO_DAY : (int) user.getBirthday().toEpochDay();
+    statuses[row] = (byte) user.getStatus().ordinal();
+    store(row, NAME, user.getName());
+    store(row, USERNAME, user.getUsername());
+    store(row, PASSWORD, user.getPassword());
+    store(row, TOKEN, user.getToken());
+    store(row, AVATAR_HASH, user.getAvatarHash());
+    index(byUsername, USERNAME, row);
+    index(byToken, TOKEN, row);
+    compactIfWasted();
+    return true;
+  }
+
+  /**
+   * Runs the reader without locking and returns its result if no write
+   * happened meanwhile. Otherwise (or if the reader failed on arrays that a
+   * write was changing) it runs again under the read lock.
+   */
+  private <T> T read(Supplier<T> reader) {
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        T result = reader.get();
+        if (lock.validate(stamp)) {
+          return result;
+        }
+      } catch (RuntimeException e) {
+        // inconsistent state of a concurrent write, read again below
+      }
+    }
+    stamp = lock.readLock();
+    try {
+      return reader.get();
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  private User copy(int row) {
+    if (row < 0 || statuses[row] == DELETED) {
+      return null;
+    }
+    User user = new User();
+    user.setId(ids[row]);
+    user.setChangeSeq(changeSeqs[row] == NO_CHANGE_SEQ ? null : changeSeqs[row]);
+    user.setDate(day(dates[row]));
+    user.setBirthday(day(birthdays[row]));
+    user.setStatus(STATUSES[statuses[row]]);
+    user.setName(string(row, NAME));
+    user.setUsername(string(row, USERNAME));
+    user.setPassword(string(row, PASSWORD));
+    user.setToken(string(row, TOKEN));
+    user.setAvatarHash(string(row, AVATAR_HASH));
+    return user;
+  }
+
+  private static LocalDate day(int epochDay) {
+    return epochDay == NO_DAY ? null : LocalDate.ofEpochDay(epochDay);
+  }
+
+  private String string(int row, int column) {
+    long ref = strings[STRINGS * row + column];
+    if (ref == NO_STRING) {
+      return null;
+    }
+    byte[] bytes = arena;
+    int offset = (int) (ref >>> 32);
+    int length = (int) ref;
+    if (offset < 0 || length < 0 || offset > bytes.length - length) {
+      throw new IllegalStateException("String outside of the arena");
+    }
+    return new String(bytes, offset, length, StandardCharsets.UTF_8);
+  }
+
+  private int rowOf(long id) {
+    int[] slots = byId;
+    int mask = slots.length - 1;
+    for (int slot = mix(Long.hashCode(id)) & mask; ; slot = (slot + 1) & mask) {
+      int row = slots[slot] - 1;
+      if (row < 0 || ids[row] == id) {
+        return row;
+      }
+    }
+  }
+
+  private int rowOf(int[] slots, int column, byte[] key) {
+    int mask = slots.length - 1;
+    for (int slot = hash(key, 0, key.length) & mask; ; slot = (slot + 1) & mask) {
+      int row = slots[slot] - 1;
+      if (row < 0 || equals(strings[STRINGS * row + column], key)) {
+        return row;
+      }
+    }
+  }
+
+  private boolean equals(long ref, byte[] key) {
+    int length = (int) ref;
+    if (ref == NO_STRING || length != key.length) {
+      return false;
+    }
+    int offset = (int) (ref >>> 32);
+    return Arrays.equals(arena, offset, offset + length, key, 0, length);
+  }
+
+  private int hash(long ref) {
+    return hash(arena, (int) (ref >>> 32), (int) ref);
+  }
+
+  private static int hash(byte[] bytes, int offset, int length) {
+    int hash = 0;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + bytes[i];
+    }
+    return mix(hash);
+  }
+
+  private static int mix(int hash) {
+    int mixed = hash * 0x9E3779B9;
+    return mixed ^ (mixed >>> 16);
+  }
+
+  private int addRow(long id) {
+    if (rows == ids.length) {
+      grow();
+    }
+    int row = rows++;
+    ids[row] = id;
+    Arrays.fill(strings, STRINGS * row, STRINGS * row + STRINGS, NO_STRING);
+    insert(byId, mix(Long.hashCode(id)), row);
+    return row;
+  }
+
+  private void grow() {
+    int capacity = ids.length * 2;
+    ids = Arrays.copyOf(ids, capacity);
+    changeSeqs = Arrays.copyOf(changeSeqs, capacity);
+    dates = Arrays.copyOf(dates, capacity);
+    birthdays = Arrays.copyOf(birthdays, capacity);
+    statuses = Arrays.copyOf(statuses, capacity);
+    strings = Arrays.copyOf(strings, STRINGS * capacity);
+    // filled before they are published, readers see either the old or the complete new index
+    int[] newById = new int[capacity * 2];
+    int[] newByUsername = new int[capacity * 2];
+    int[] newByToken = new int[capacity * 2];
+    for (int row = 0; row < rows; row++) {
+      insert(newById, mix(Long.hashCode(ids[row])), row);
+      long username = strings[STRINGS * row + USERNAME];
+      if (username != NO_STRING) {
+        insert(newByUsername, hash(username), row);
+      }
+      long token = strings[STRINGS * row + TOKEN];
+      if (token != NO_STRING) {
+        insert(newByToken, hash(token), row);
+      }
+    }
+    byId = newById;
+    byUsername = newByUsername;
+    byToken = newByToken;
+  }
+
+  private static void insert(int[] slots, int hash, int row) {
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    while (slots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    slots[slot] = row + 1;
+  }
+
+  private void index(int[] slots, int column, int row) {
+    long ref = strings[STRINGS * row + column];
+    if (ref != NO_STRING) {
+      insert(slots, hash(ref), row);
+    }
+  }
+
+  // removes the row and shifts the following entries of its cluster back, so no lookup stops early
+  private void unindex(int[] slots, int column, int row) {
+    long ref = strings[STRINGS * row + column];
+    if (ref == NO_STRING) {
+      return;
+    }
+    int mask = slots.length - 1;
+    int hole = hash(ref) & mask;
+    while (slots[hole] != row + 1) {
+      hole = (hole + 1) & mask;
+    }
+    for (int next = (hole + 1) & mask; slots[next] != 0; next = (next + 1) & mask) {
+      int home = hash(strings[STRINGS * (slots[next] - 1) + column]) & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        slots[hole] = slots[next];
+        hole = next;
+      }
+    }
+    slots[hole] = 0;
+  }
+
+  // the previous string stays if it did not change, status updates do not grow the arena
+  private void store(int row, int column, String value) {
+    int at = STRINGS * row + column;
+    long previous = strings[at];
+    if (value == null) {
+      strings[at] = release(previous);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (equals(previous, bytes)) {
+      return;
+    }
+    release(previous);
+    if (arenaSize + (long) bytes.length > arena.length) {
+      long length = Math.max(arenaSize + (long) bytes.length, arena.length * 2L);
+      if (length > MAX_ARENA) {
+        throw new IllegalStateException("User table arena full");
+      }
+      arena = Arrays.copyOf(arena, (int) length);
+    }
+    System.arraycopy(bytes, 0, arena, arenaSize, bytes.length);
+    strings[at] = ((long) arenaSize << 32) | bytes.length;
+    arenaSize += bytes.length;
+  }
+
+  private long release(long ref) {
+    if (ref != NO_STRING) {
+      garbage += (int) ref;
+    }
+    return NO_STRING;
+  }
+
+  private void compactIfWasted() {
+    if (garbage >= MIN_COMPACTION && garbage >= arenaSize / 2) {
+      compact((arenaSize - garbage) + (arenaSize - garbage) / 2);
+    }
+  }
+
+  // copies the current strings row by row into a new arena, the indexes hold rows and stay valid
+  private void compact(int length) {
+    byte[] compacted = new byte[Math.max(1 << 16, length)];
+    int size = 0;
+    for (int at = 0; at < STRINGS * rows; at++) {
+      long ref = strings[at];
+      if (ref != NO_STRING) {
+        int stringLength = (int) ref;
+        System.arraycopy(arena, (int) (ref >>> 32), compacted, size, stringLength);
+        strings[at] = ((long) size << 32) | stringLength;
+        size += stringLength;
+      }
+    }
+    arena = compacted;
+    arenaSize = size;
+    garbage = 0;
+  }
+}
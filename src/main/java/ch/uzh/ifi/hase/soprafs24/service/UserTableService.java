@@ -0,0 +1,223 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * User Table Service
+ * With users.table.enabled the lookups of UserService (by id, username and
+ * token, statuses, pages of ids) are served from a UserTable instead of the
+ * database. The table is loaded by a background thread once the application
+ * is ready; until then the lookups go to the database. It is kept up to date
+ * by the UserChangedEvents of the service's mutations, and reconciled with
+ * the UserChangeLog every few seconds, which repairs changes whose event was
+ * missed. Changes that bypass the services (plain SQL, the H2 console) have
+ * no change number and are not seen, so leave the table off where those
+ * happen. The read methods of UserService only join a
+ * transaction, so a lookup from the table opens none.
+ */
+@Service
+public class UserTableService implements ApplicationListener<ApplicationReadyEvent> {
+
+  // users per query (and per transaction, so no persistence context holds all of them) while loading
+  private static final int LOAD_PAGE_SIZE = 10_000;
+
+  private final Logger log = LoggerFactory.getLogger(UserTableService.class);
+
+  private final UserRepository userRepository;
+  private final UserChangeLog userChangeLog;
+  private final TransactionTemplate loadTransaction;
+  private final UserTable table = new UserTable();
+  private final boolean enabled;
+  private final Counter repaired;
+  private volatile boolean loaded;
+  // guarded by this, the change number up to which the UserChangeLog has been applied
+  private long cursor;
+
+  public UserTableService(@Qualifier("userRepository") UserRepository userRepository, UserChangeLog userChangeLog,
+      PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+      @Value("${users.table.enabled:false}") boolean enabled) {
+    this.userRepository = userRepository;
+    this.userChangeLog = userChangeLog;
+    this.enabled = enabled;
+    // read-write on purpose, so that the table is loaded from the primary and not from a lagging replica
+    this.loadTransaction = new TransactionTemplate(transactionManager);
+    this.loadTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.repaired = meterRegistry.counter("users.table.repaired");
+    if (enabled) {
+      meterRegistry.gauge("users.table.size", table, UserTable::size);
+      meterRegistry.gauge("users.table.bytes", table, UserTable::bytes);
+    }
+  }
+
+  /**
+   * @return whether the lookups are served from the table: it is enabled
+   *         and has been loaded
+   */
+  public boolean isReady() {
+    return loaded;
+  }
+
+  /**
+   * @return null if there is no such user
+   */
+  public User findById(long id) {
+    return table.get(id);
+  }
+
+  public User findByUsername(String username) {
+    return table.getByUsername(username);
+  }
+
+  public User findByToken(String token) {
+    return table.getByToken(token);
+  }
+
+  /**
+   * The users of the ids in the order of the ids, unknown ids are left out.
+   */
+  public List<User> findAllById(List<Long> ids) {
+    List<User> found = new ArrayList<>(ids.size());
+    for (Long id : ids) {
+      User user = table.get(id);
+      if (user != null) {
+        found.add(user);
+      }
+    }
+    return found;
+  }
+
+  public Map<Long, UserStatus> findStatuses(Collection<Long> ids) {
+    return table.statuses(ids);
+  }
+
+  /**
+   * Starts the load in the background, so that neither the startup nor the
+   * first lookups wait for it.
+   */
+  @Override
+  public void onApplicationEvent(ApplicationReadyEvent event) {
+    if (!enabled) {
+      return;
+    }
+    Thread loader = new Thread(this::load, "user-table-load");
+    loader.setDaemon(true);
+    loader.start();
+  }
+
+  /**
+   * Changes are applied during the load as well: the rows the load reads
+   * later carry the change number of the row and cannot overwrite a newer
+   * change, so nothing waits for the load.
+   */
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    if (!enabled || event.getUser().getId() == null) {
+      return;
+    }
+    if (event.getType() == UserChangedEvent.Type.DELETED) {
+      table.delete(event.getUser().getId());
+    } else {
+      table.put(event.getUser());
+    }
+  }
+
+  /**
+   * Loads all users, page by page in the order of their ids. The changes
+   * after the horizon at the start are reconciled afterwards, which covers
+   * those that committed during the load with a lower number than one it
+   * had already read.
+   */
+  synchronized void load() {
+    long started = System.nanoTime();
+    try {
+      cursor = userChangeLog.horizon();
+      long after = 0;
+      List<User> page;
+      do {
+        long from = after;
+        page = loadTransaction.execute(status ->
+            userRepository.findByIdGreaterThanOrderByIdAsc(from, PageRequest.of(0, LOAD_PAGE_SIZE)));
+        table.putAll(page);
+        if (!page.isEmpty()) {
+          after = page.get(page.size() - 1).getId();
+        }
+      } while (page.size() == LOAD_PAGE_SIZE);
+      table.trim();
+      catchUp();
+    } catch (RuntimeException e) {
+      log.error("Loading the user table failed, the user lookups stay on the database", e);
+      return;
+    }
+    loaded = true;
+    log.info("Loaded user table: {} users, {} MB in {} ms", table.size(), table.bytes() >> 20,
+        (System.nanoTime() - started) / 1_000_000);
+  }
+
+  /**
+   * Applies the changes of the UserChangeLog since the previous run, e.g.
+   * those whose event was lost.
+   */
+  @Scheduled(initialDelayString = "${users.table.reconcile-interval-ms:5000}",
+      fixedDelayString = "${users.table.reconcile-interval-ms:5000}")
+  public synchronized void reconcile() {
+    if (!loaded) {
+      return;
+    }
+    int differences = catchUp();
+    if (differences > 0) {
+      repaired.increment(differences);
+      log.info("Repaired {} users of the user table", differences);
+    }
+  }
+
+  // @return the number of rows that changed
+  private int catchUp() {
+    int differences = 0;
+    UserChangeLog.Changes changes;
+    do {
+      try {
+        changes = userChangeLog.getChangedUsers(cursor, LOAD_PAGE_SIZE);
+      } catch (DomainException e) {
+        // the cursor is ahead of the database (it was reset), read all changes again
+        cursor = 0;
+        changes = userChangeLog.getChangedUsers(cursor, LOAD_PAGE_SIZE);
+      }
+      for (User user : changes.getUpserts()) {
+        if (table.putIfNewer(user)) {
+          differences++;
+        }
+      }
+      for (Long id : changes.getDeleted()) {
+        if (table.delete(id)) {
+          differences++;
+        }
+      }
+      cursor = changes.getCursor();
+    } while (changes.isMore());
+    return differences;
+  }
+}
@@ -0,0 +1,175 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SequenceWriter;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserImportResultDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserTransferDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+
+/**
+ * User Transfer Service
+ * Bulk export and import of the USER table as NDJSON (one user per line).
+ * Both directions work in batches so that memory stays constant no matter how
+ * many users there are: the export walks the table with a keyset cursor on the
+ * id, the import commits every batch in its own transaction. Users whose
+ * username already exists are skipped, so an interrupted import can simply be
+ * started again with the same file.
+ */
+@Service
+public class UserTransferService {
+
+  private final Logger log = LoggerFactory.getLogger(UserTransferService.class);
+
+  private final UserRepository userRepository;
+  private final EntityManager entityManager;
+  private final TransactionTemplate transactionTemplate;
+  private final ObjectMapper objectMapper;
+  private final ApplicationEventPublisher eventPublisher;
+  private final UserChangeLog userChangeLog;
+  private final TokenGenerator tokenGenerator;
+  private final int batchSize;
+
+  @Autowired
+  public UserTransferService(@Qualifier("userRepository") UserRepository userRepository, EntityManager entityManager,
+      PlatformTransactionManager transactionManager, ObjectMapper objectMapper,
+      ApplicationEventPublisher eventPublisher, UserChangeLog userChangeLog, TokenGenerator tokenGenerator,
+      @Value("${users.transfer.batch-size:500}") int batchSize) {
+    this.userRepository = userRepository;
+    this.entityManager = entityManager;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.objectMapper = objectMapper;
+    this.eventPublisher = eventPublisher;
+    this.userChangeLog = userChangeLog;
+    this.tokenGenerator = tokenGenerator;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Writes all users ordered by id to the given stream.
+   *
+   * @return the number of exported users
+   */
+  public long exportUsers(OutputStream out) throws IOException {
+    long count = 0;
+    Long lastId = 0L;
+    try (SequenceWriter writer = objectMapper.writerFor(UserTransferDTO.class)
+        .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+        .withRootValueSeparator("\n").writeValues(out)) {
+      List<User> page = userRepository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, batchSize));
+      while (!page.isEmpty()) {
+        for (User user : page) {
+          writer.write(DTOMapper.INSTANCE.convertEntityToUserTransferDTO(user));
+        }
+        count += page.size();
+        lastId = page.get(page.size() - 1).getId();
+        // the entities of this page are not needed anymore
+        entityManager.clear();
+        page = userRepository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, batchSize));
+      }
+    }
+    if (count > 0) {
+      out.write('\n');
+    }
+    out.flush();
+    log.info("Exported {} users", count);
+    return count;
+  }
+
+  /**
+   * Reads users from the given stream and inserts them in batches. The ids of
+   * the input are not kept, the database assigns new ones.
+   */
+  public UserImportResultDTO importUsers(InputStream in) throws IOException {
+    UserImportResultDTO result = new UserImportResultDTO();
+    ObjectReader reader = objectMapper.readerFor(UserTransferDTO.class);
+    List<User> batch = new ArrayList<>(batchSize);
+    try (MappingIterator<UserTransferDTO> iterator = reader.readValues(in)) {
+      while (iterator.hasNextValue()) {
+        batch.add(DTOMapper.INSTANCE.convertUserTransferDTOtoEntity(iterator.nextValue()));
+        result.setLines(result.getLines() + 1);
+        if (batch.size() == batchSize) {
+          insertBatch(batch, result);
+          batch.clear();
+        }
+      }
+    }
+    if (!batch.isEmpty()) {
+      insertBatch(batch, result);
+    }
+    log.info("Imported {} users, skipped {}", result.getImported(), result.getSkipped());
+    return result;
+  }
+
+  private void insertBatch(List<User> batch, UserImportResultDTO result) {
+    transactionTemplate.executeWithoutResult(status -> {
+      Set<String> usernames = new HashSet<>();
+      for (User user : batch) {
+        usernames.add(user.getUsername());
+      }
+      Set<String> existing = new HashSet<>(userRepository.findExistingUsernames(usernames));
+
+      List<User> toInsert = new ArrayList<>(batch.size());
+      for (User user : batch) {
+        // existing.add also catches duplicates within the same batch
+        if (user.getUsername() == null || user.getPassword() == null || !existing.add(user.getUsername())) {
+          result.setSkipped(result.getSkipped() + 1);
+          continue;
+        }
+        fillDefaults(user);
+        userChangeLog.stamp(user);
+        toInsert.add(user);
+      }
+      userRepository.saveAll(toInsert);
+      userRepository.flush();
+      entityManager.clear();
+      for (User user : toInsert) {
+        eventPublisher.publishEvent(UserChangedEvent.created(user));
+      }
+      result.setImported(result.getImported() + toInsert.size());
+    });
+  }
+
+  private void fillDefaults(User user) {
+    if (user.getToken() == null) {
+      user.setToken(tokenGenerator.newUuid());
+    }
+    if (user.getStatus() == null) {
+      user.setStatus(UserStatus.OFFLINE);
+    }
+    if (user.getDate() == null) {
+      user.setDate(LocalDate.now());
+    }
+    if (user.getName() == null) {
+      user.setName(user.getUsername());
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import ch.uzh.ifi.hase.soprafs24.constant.RequestPriority;
+
+public class AdaptiveConcurrencyLimitTest {
+
+  private static final long MILLI = 1_000_000;
+
+  @Test
+  public void release_growsWhileFastAndShrinksWhenLatencyRises() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 4, 200, 10, 100);
+
+    for (int i = 0; i < 100; i++) {
+      limit.release(5 * MILLI, 20);
+    }
+    int grown = limit.getLimit();
+    assertTrue(grown > 20, "limit should grow at steady latency, was " + grown);
+
+    for (int i = 0; i < 100; i++) {
+      limit.release(50 * MILLI, grown);
+    }
+    assertTrue(limit.getLimit() < grown * 2 / 3, "limit should shrink when requests queue, was " + limit.getLimit());
+  }
+
+  @Test
+  public void release_unusedLimitDoesNotGrow() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 4, 200, 10, 100);
+
+    for (int i = 0; i < 100; i++) {
+      limit.release(5 * MILLI, 2);
+    }
+    assertEquals(20, limit.getLimit());
+  }
+
+  @Test
+  public void tryAcquire_shedsLowPriorityFirst() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 4, 200, 10, 100);
+
+    for (int i = 0; i < 15; i++) {
+      assertTrue(limit.tryAcquire(RequestPriority.LOW) > 0);
+    }
+    assertEquals(0, limit.tryAcquire(RequestPriority.LOW));
+    for (int i = 0; i < 3; i++) {
+      assertTrue(limit.tryAcquire(RequestPriority.NORMAL) > 0);
+    }
+    assertEquals(0, limit.tryAcquire(RequestPriority.NORMAL));
+    assertEquals(19, limit.tryAcquire(RequestPriority.HIGH));
+    assertEquals(20, limit.tryAcquire(RequestPriority.HIGH));
+    assertEquals(0, limit.tryAcquire(RequestPriority.HIGH));
+
+    limit.release(MILLI, 20);
+    assertEquals(20, limit.tryAcquire(RequestPriority.HIGH));
+  }
+}
@@ -0,0 +1,161 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs24.service.SessionService;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Test class for the read/write split. replica-0 is the primary database
+ * itself (so it never lags), replica-1 is an empty database without any
+ * heartbeat (so it is never used).
+ *
+ * @see ReplicaRoutingDataSource
+ */
+@WebAppConfiguration
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:replicated",
+    "users.replicas.urls=jdbc:h2:mem:replicated,jdbc:h2:mem:lagging" })
+public class ReplicaRoutingIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private SessionService sessionService;
+
+  @Autowired
+  private ReadYourWrites readYourWrites;
+
+  @Autowired
+  private ReplicaLagMonitor replicaLagMonitor;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    replicaLagMonitor.heartbeat();
+  }
+
+  private double routed(String target) {
+    return meterRegistry.get("datasource.routing.connections").tag("target", target).counter().count();
+  }
+
+  private User createUser(String username) {
+    User user = new User();
+    user.setName("testName");
+    user.setUsername(username);
+    user.setPassword("testPassword");
+    return userService.createUser(user);
+  }
+
+  @Test
+  public void writes_useThePrimary_readsUseTheReplica() {
+    double primaryBefore = routed("primary");
+    createUser("testUsername");
+    assertTrue(routed("primary") > primaryBefore);
+
+    double replicaBefore = routed("replica-0");
+    primaryBefore = routed("primary");
+    assertEquals(1, userService.getUsers().size());
+    assertEquals(replicaBefore + 1, routed("replica-0"));
+    assertEquals(primaryBefore, routed("primary"));
+
+    // the lookups that only join a transaction open a read-only one
+    User created = userService.getUserByUsername("testUsername");
+    assertEquals(created.getId(), userService.getUserById(created.getId()).getId());
+    assertEquals(1, userService.getStatuses(List.of(created.getId())).size());
+    assertEquals(1, userService.getUsersInOrder(List.of(created.getId())).size());
+    assertEquals("testUsername", userService.getUserById(created.getId(), Set.of(UserField.USERNAME)).getUsername());
+    assertEquals(replicaBefore + 6, routed("replica-0"));
+    assertEquals(primaryBefore, routed("primary"));
+  }
+
+  @Test
+  public void laggingReplica_isNeverUsed() {
+    createUser("testUsername");
+    double laggingBefore = routed("replica-1");
+    for (int i = 0; i < 10; i++) {
+      userService.getUsers();
+    }
+    assertEquals(laggingBefore, routed("replica-1"));
+    assertEquals(ReplicaLagMonitor.UNKNOWN, replicaLagMonitor.getLagMillis(1));
+  }
+
+  @Test
+  public void readsAfterOwnWrite_useThePrimary() throws Exception {
+    User created = createUser("testUsername");
+    // a new session: a replica may not have it yet
+    String token = sessionService.open(created).getToken();
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader("Authorization", token);
+    readYourWrites.preHandle(request, new MockHttpServletResponse(), null);
+    try {
+      double replicaBefore = routed("replica-0");
+      assertNotNull(userService.getUserByToken(token));
+      assertEquals(replicaBefore, routed("replica-0"));
+    } finally {
+      readYourWrites.afterCompletion(request, new MockHttpServletResponse(), null, null);
+    }
+
+    // other callers still read from the replica
+    double replicaBefore = routed("replica-0");
+    userService.getUserByToken(token);
+    assertEquals(replicaBefore + 1, routed("replica-0"));
+  }
+
+  @Test
+  public void readsAfterEditWithSessionToken_useThePrimary() throws Exception {
+    User created = createUser("testUsername");
+    // a session token that was issued long ago, so only the edit marks it
+    String token = SessionService.ACCESS_TOKEN_PREFIX + "issued-long-ago";
+    assertEquals(Long.MAX_VALUE, withToken(token, readYourWrites::millisSinceLastWrite));
+
+    withToken(token, () -> {
+      UserPutDTO userPutDTO = new UserPutDTO();
+      userPutDTO.setUsername("renamed");
+      return userService.editUser(userService.getUserById(created.getId()), userPutDTO);
+    });
+
+    double replicaBefore = routed("replica-0");
+    assertEquals("renamed", withToken(token, () -> userService.getUserById(created.getId()).getUsername()));
+    assertEquals(replicaBefore, routed("replica-0"));
+  }
+
+  private <T> T withToken(String token, Supplier<T> call) throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader("Authorization", token);
+    readYourWrites.preHandle(request, new MockHttpServletResponse(), null);
+    try {
+      return call.get();
+    } finally {
+      readYourWrites.afterCompletion(request, new MockHttpServletResponse(), null, null);
+    }
+  }
+}
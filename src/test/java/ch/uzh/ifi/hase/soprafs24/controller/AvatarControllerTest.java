@@ -0,0 +1,206 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+
+@SpringBootTest(properties = "sessions.account-tokens=true")
+@AutoConfigureMockMvc
+public class AvatarControllerTest {
+
+  @TempDir
+  static Path avatarDir;
+
+  @DynamicPropertySource
+  static void avatarProperties(DynamicPropertyRegistry registry) {
+    registry.add("avatars.dir", () -> avatarDir.toString());
+  }
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  private User testUser;
+  private User otherUser;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    testUser = userRepository.saveAndFlush(user("avatar"));
+    otherUser = userRepository.saveAndFlush(user("other"));
+  }
+
+  @Test
+  public void avatar_PUT204_thenGETWithETagAndRange() throws Exception {
+    byte[] image = png(300, 200);
+
+    String etag = mockMvc.perform(put("/users/{id}/avatar", testUser.getId()).contentType(MediaType.IMAGE_PNG)
+            .content(image).header("Authorization", testUser.getToken()))
+        .andExpect(status().isNoContent())
+        .andReturn().getResponse().getHeader("ETag");
+
+    byte[] downloaded = mockMvc.perform(get("/users/{id}/avatar", testUser.getId())
+            .header("Authorization", otherUser.getToken()))
+        .andExpect(status().isOk())
+        .andExpect(header().string("ETag", etag))
+        .andExpect(header().string("Content-Type", MediaType.IMAGE_PNG_VALUE))
+        .andReturn().getResponse().getContentAsByteArray();
+    assertArrayEquals(image, downloaded);
+
+    mockMvc.perform(get("/users/{id}/avatar", testUser.getId()).header("Authorization", otherUser.getToken())
+            .header("If-None-Match", etag))
+        .andExpect(status().isNotModified());
+    mockMvc.perform(get("/users/{id}/avatar", testUser.getId()).header("Authorization", otherUser.getToken())
+            .header("If-None-Match", "\"outdated\", W/" + etag))
+        .andExpect(status().isNotModified());
+    mockMvc.perform(get("/users/{id}/avatar", testUser.getId()).header("Authorization", otherUser.getToken())
+            .header("If-None-Match", "*"))
+        .andExpect(status().isNotModified());
+    mockMvc.perform(get("/users/{id}/avatar", testUser.getId()).header("Authorization", otherUser.getToken())
+            .header("If-None-Match", "\"outdated\""))
+        .andExpect(status().isOk());
+
+    byte[] part = mockMvc.perform(get("/users/{id}/avatar", testUser.getId())
+            .header("Authorization", otherUser.getToken()).header("Range", "bytes=10-19"))
+        .andExpect(status().isPartialContent())
+        .andExpect(header().string("Content-Range", "bytes 10-19/" + image.length))
+        .andReturn().getResponse().getContentAsByteArray();
+    assertArrayEquals(Arrays.copyOfRange(image, 10, 20), part);
+
+    mockMvc.perform(get("/users/{id}/avatar", testUser.getId()).header("Authorization", otherUser.getToken())
+            .header("Range", "bytes=" + image.length + "-"))
+        .andExpect(status().isRequestedRangeNotSatisfiable());
+  }
+
+  @Test
+  public void avatar_GETThumbnail_fitsIntoSize() throws Exception {
+    mockMvc.perform(put("/users/{id}/avatar", testUser.getId()).contentType(MediaType.IMAGE_PNG)
+            .content(png(300, 200)).header("Authorization", testUser.getToken()))
+        .andExpect(status().isNoContent());
+
+    for (int i = 0; i < 2; i++) {
+      byte[] thumbnail = mockMvc.perform(get("/users/{id}/avatar", testUser.getId()).param("size", "64")
+              .header("Authorization", testUser.getToken()))
+          .andExpect(status().isOk())
+          .andReturn().getResponse().getContentAsByteArray();
+      BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+      assertEquals(64, image.getWidth());
+      assertEquals(43, image.getHeight());
+    }
+
+    mockMvc.perform(get("/users/{id}/avatar", testUser.getId()).param("size", "65")
+            .header("Authorization", testUser.getToken()))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void avatar_PUT_writesThumbnails_missingOneGeneratedOnRequest() throws Exception {
+    mockMvc.perform(put("/users/{id}/avatar", testUser.getId()).contentType(MediaType.IMAGE_PNG)
+            .content(png(2000, 1000)).header("Authorization", testUser.getToken()))
+        .andExpect(status().isNoContent());
+    String hash = userRepository.findById(testUser.getId()).orElseThrow().getAvatarHash();
+    Path dir = avatarDir.resolve(hash.substring(0, 2));
+
+    // all sizes are on disk before anyone asks for them
+    for (int size : new int[] { 64, 128, 256 }) {
+      BufferedImage thumbnail = ImageIO.read(dir.resolve(hash + "-" + size + ".png").toFile());
+      assertEquals(size, thumbnail.getWidth());
+      assertEquals(size / 2, thumbnail.getHeight());
+    }
+
+    // like an image stored before the size was configured
+    Files.delete(dir.resolve(hash + "-128.png"));
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<byte[]>> responses = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        responses.add(executor.submit(() -> mockMvc.perform(get("/users/{id}/avatar", testUser.getId())
+                .param("size", "128").header("Authorization", testUser.getToken()))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getContentAsByteArray()));
+      }
+      for (Future<byte[]> response : responses) {
+        assertEquals(128, ImageIO.read(new ByteArrayInputStream(response.get(10, TimeUnit.SECONDS))).getWidth());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      // no temporary files left behind by concurrent generation
+      assertTrue(files.noneMatch(file -> file.toString().endsWith(".tmp")));
+    }
+  }
+
+  @Test
+  public void avatar_PUT_rejectedForOtherUsersAndNonImages() throws Exception {
+    mockMvc.perform(put("/users/{id}/avatar", testUser.getId()).contentType(MediaType.IMAGE_PNG)
+            .content(png(10, 10)).header("Authorization", otherUser.getToken()))
+        .andExpect(status().isForbidden());
+
+    mockMvc.perform(put("/users/{id}/avatar", testUser.getId()).contentType(MediaType.IMAGE_PNG)
+            .content("not an image".getBytes()).header("Authorization", testUser.getToken()))
+        .andExpect(status().isBadRequest());
+
+    mockMvc.perform(get("/users/{id}/avatar", testUser.getId()).header("Authorization", testUser.getToken()))
+        .andExpect(status().isNotFound());
+  }
+
+  private static User user(String username) {
+    User user = new User();
+    user.setName(username);
+    user.setUsername(username);
+    user.setPassword("password");
+    user.setToken(UUID.randomUUID().toString());
+    user.setStatus(UserStatus.ONLINE);
+    user.setDate(LocalDate.now());
+    return user;
+  }
+
+  private static byte[] png(int width, int height) throws Exception {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < width; x++) {
+      image.setRGB(x, x % height, 0xFF0000);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", out);
+    return out.toByteArray();
+  }
+}
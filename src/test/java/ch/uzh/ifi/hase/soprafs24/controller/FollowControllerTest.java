@@ -0,0 +1,140 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class FollowControllerTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private JsonNode alice;
+  private JsonNode bob;
+  private JsonNode carol;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    userRepository.deleteAll();
+    // signed up through the API, so that their presence is known
+    alice = signup("alice");
+    bob = signup("bob");
+    carol = signup("carol");
+  }
+
+  @Test
+  public void follow_mutualFollowsAreFriends_onlineFiltered() throws Exception {
+    follow(alice, bob);
+    follow(bob, alice);
+    follow(alice, carol);
+    follow(carol, alice);
+    follow(bob, carol);
+
+    mockMvc.perform(get("/users/{id}/following", id(alice)).header("Authorization", token(bob)))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.users[*].username", contains("bob", "carol")))
+        .andExpect(jsonPath("$.users[0].token").doesNotExist())
+        .andExpect(jsonPath("$.next").doesNotExist());
+    mockMvc.perform(get("/users/{id}/followers", id(carol)).header("Authorization", token(bob)))
+        .andExpect(jsonPath("$.users[*].username", contains("alice", "bob")));
+    mockMvc.perform(get("/users/{id}/friends", id(bob)).header("Authorization", token(bob)))
+        .andExpect(jsonPath("$.users[*].username", contains("alice")));
+
+    // pages of one
+    mockMvc.perform(get("/users/{id}/friends", id(alice)).param("limit", "1").header("Authorization", token(bob)))
+        .andExpect(jsonPath("$.users[*].username", contains("bob")))
+        .andExpect(jsonPath("$.next", is(id(bob).intValue())));
+    mockMvc.perform(get("/users/{id}/friends", id(alice)).param("limit", "1").param("after", id(bob).toString())
+            .header("Authorization", token(bob)))
+        .andExpect(jsonPath("$.users[*].username", contains("carol")));
+
+    mockMvc.perform(put("/users/logout").contentType(MediaType.APPLICATION_JSON)
+            .content("{\"id\": " + id(carol) + ", \"token\": \"" + token(carol) + "\"}"))
+        .andExpect(status().isNoContent());
+    mockMvc.perform(get("/users/{id}/friends", id(alice)).param("online", "true").header("Authorization", token(bob)))
+        .andExpect(jsonPath("$.users[*].username", contains("bob")))
+        .andExpect(jsonPath("$.users[0].status", is("ONLINE")));
+
+    mockMvc.perform(delete("/users/{id}/following/{followeeId}", id(alice), id(bob))
+            .header("Authorization", token(alice)))
+        .andExpect(status().isNoContent());
+    mockMvc.perform(get("/users/{id}/friends", id(alice)).header("Authorization", token(bob)))
+        .andExpect(jsonPath("$.users[*].username", contains("carol")));
+
+    userService.deleteUser(userService.getUserById(id(carol)));
+    mockMvc.perform(get("/users/{id}/followers", id(alice)).header("Authorization", token(bob)))
+        .andExpect(jsonPath("$.users[*].username", contains("bob")));
+    mockMvc.perform(get("/users/{id}/following", id(bob)).header("Authorization", token(bob)))
+        .andExpect(jsonPath("$.users[*].username", contains("alice")));
+  }
+
+  @Test
+  public void follow_onlyOwnEdges_notThemselves_knownUsers() throws Exception {
+    mockMvc.perform(put("/users/{id}/following/{followeeId}", id(alice), id(bob)).header("Authorization", token(bob)))
+        .andExpect(status().isForbidden())
+        .andExpect(jsonPath("$.code", is("NOT_OWNER")));
+    mockMvc.perform(put("/users/{id}/following/{followeeId}", id(alice), id(alice))
+            .header("Authorization", token(alice)))
+        .andExpect(status().isBadRequest());
+    mockMvc.perform(put("/users/{id}/following/{followeeId}", id(alice), id(carol) + 1000)
+            .header("Authorization", token(alice)))
+        .andExpect(status().isNotFound());
+    mockMvc.perform(get("/users/{id}/friends", id(alice)).param("limit", "0").header("Authorization", token(alice)))
+        .andExpect(status().isBadRequest());
+    mockMvc.perform(get("/users/{id}/friends", id(alice)))
+        .andExpect(status().isUnauthorized());
+    mockMvc.perform(get("/users/{id}/friends", id(alice)).header("Authorization", token(alice)))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.users", hasSize(0)));
+  }
+
+  private JsonNode signup(String username) throws Exception {
+    String body = "{\"username\": \"" + username + "\", \"name\": \"" + username + "\", \"password\": \"password\"}";
+    return objectMapper.readTree(mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).content(body))
+        .andExpect(status().isCreated())
+        .andReturn().getResponse().getContentAsString());
+  }
+
+  private void follow(JsonNode follower, JsonNode followee) throws Exception {
+    mockMvc.perform(put("/users/{id}/following/{followeeId}", id(follower), id(followee))
+            .header("Authorization", token(follower)))
+        .andExpect(status().isNoContent());
+  }
+
+  private static Long id(JsonNode user) {
+    return user.get("id").asLong();
+  }
+
+  private static String token(JsonNode user) {
+    return user.get("token").asText();
+  }
+}
@@ -0,0 +1,29 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread.
+ * Registered with hibernate.session_factory.statement_inspector, so it sees
+ * every statement of the repositories, also the generated ones.
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final ThreadLocal<int[]> COUNT = ThreadLocal.withInitial(() -> new int[1]);
+
+  @Override
+  public String inspect(String sql) {
+    COUNT.get()[0]++;
+    return sql;
+  }
+
+  static void reset() {
+    COUNT.get()[0] = 0;
+  }
+
+  static int count() {
+    return COUNT.get()[0];
+  }
+}
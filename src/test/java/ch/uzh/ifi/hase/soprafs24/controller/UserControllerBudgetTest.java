@@ -0,0 +1,210 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultMatcher;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.LogOutDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs24.service.FollowService;
+
+/**
+ * Statement and allocation budgets per UserController endpoint. Every
+ * endpoint declares how many SQL statements one request may run and how many
+ * bytes the request thread may allocate; an extra lookup or an N+1 fails the
+ * build. Raise a budget only together with the change that needs it.
+ * Allocations are the minimum over a few runs after a warm-up, so they are
+ * stable against JIT and class loading, the budgets still leave some room.
+ */
+@SpringBootTest(properties = { "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+    + "ch.uzh.ifi.hase.soprafs24.controller.SqlStatementCounter", "sessions.account-tokens=true" })
+@AutoConfigureMockMvc
+public class UserControllerBudgetTest {
+
+  private static final int USERS = 20;
+  private static final int WARMUP = 3;
+  private static final int RUNS = 5;
+
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private FollowService followService;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private User testUser;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    for (int i = 0; i < USERS; i++) {
+      User user = new User();
+      user.setName("name" + i);
+      user.setUsername("username" + i);
+      user.setPassword("password");
+      user.setToken(UUID.randomUUID().toString());
+      user.setStatus(UserStatus.ONLINE);
+      user.setDate(LocalDate.now());
+      testUser = userRepository.saveAndFlush(user);
+    }
+  }
+
+  @Test
+  public void getUsers_withinBudget() throws Exception {
+    assertWithinBudget("GET /users", 1, 150_000, status().isOk(),
+        run -> get("/users").header("Authorization", testUser.getToken()));
+  }
+
+  @Test
+  public void getUsersFields_withinBudget() throws Exception {
+    assertWithinBudget("GET /users?fields", 2, 200_000, status().isOk(),
+        run -> get("/users").param("fields", "username,status").header("Authorization", testUser.getToken()));
+  }
+
+  @Test
+  public void getUsersSorted_withinBudget() throws Exception {
+    assertWithinBudget("GET /users?sort", 2, 200_000, status().isOk(),
+        run -> get("/users").param("sort", "newest").param("limit", "10").header("Authorization", testUser.getToken()));
+  }
+
+  @Test
+  public void getUser_withinBudget() throws Exception {
+    assertWithinBudget("GET /users/{id}", 2, 200_000, status().isOk(),
+        run -> get("/users/{id}", testUser.getId()).header("Authorization", testUser.getToken()));
+  }
+
+  @Test
+  public void getFriends_withinBudget() throws Exception {
+    for (long id = testUser.getId() - USERS + 1; id < testUser.getId(); id++) {
+      followService.follow(testUser.getId(), id);
+      followService.follow(id, testUser.getId());
+    }
+    assertWithinBudget("GET /users/{id}/friends", 2, 200_000, status().isOk(),
+        run -> get("/users/{id}/friends", testUser.getId()).header("Authorization", testUser.getToken()));
+  }
+
+  @Test
+  public void getUserStats_withinBudget() throws Exception {
+    assertWithinBudget("GET /users/stats", 1, 150_000, status().isOk(),
+        run -> get("/users/stats").header("Authorization", testUser.getToken()));
+  }
+
+  @Test
+  public void getUserChanges_withinBudget() throws Exception {
+    assertWithinBudget("GET /users/changes", 3, 200_000, status().isOk(),
+        run -> get("/users/changes").header("Authorization", testUser.getToken()));
+  }
+
+  @Test
+  public void getUserStatuses_withinBudget() throws Exception {
+    StringBuilder ids = new StringBuilder();
+    for (long id = testUser.getId() - USERS + 1; id <= testUser.getId(); id++) {
+      ids.append(ids.length() == 0 ? "" : ",").append(id);
+    }
+    assertWithinBudget("POST /users/status:batch", 2, 200_000, status().isOk(),
+        run -> post("/users/status:batch").contentType(MediaType.APPLICATION_JSON)
+            .content("{\"ids\": [" + ids + "]}").header("Authorization", testUser.getToken()));
+  }
+
+  @Test
+  public void createUser_withinBudget() throws Exception {
+    assertWithinBudget("POST /users", 4, 200_000, status().isCreated(), run -> {
+      UserPostDTO userPostDTO = new UserPostDTO();
+      userPostDTO.setName("new" + run);
+      userPostDTO.setUsername("new" + run);
+      userPostDTO.setPassword("password");
+      return post("/users").contentType(MediaType.APPLICATION_JSON).content(json(userPostDTO));
+    });
+  }
+
+  @Test
+  public void loginUser_withinBudget() throws Exception {
+    assertWithinBudget("POST /login/auth", 3, 200_000, status().isOk(), run -> {
+      UserPostDTO userPostDTO = new UserPostDTO();
+      userPostDTO.setUsername(testUser.getUsername());
+      userPostDTO.setPassword("password");
+      return post("/login/auth").contentType(MediaType.APPLICATION_JSON).content(json(userPostDTO));
+    });
+  }
+
+  @Test
+  public void editUser_withinBudget() throws Exception {
+    assertWithinBudget("PUT /users/{id}", 5, 300_000, status().isNoContent(), run -> {
+      UserPutDTO userPutDTO = new UserPutDTO();
+      userPutDTO.setUsername("edited" + run);
+      return put("/users/{id}", testUser.getId()).contentType(MediaType.APPLICATION_JSON)
+          .content(json(userPutDTO)).header("Authorization", testUser.getToken());
+    });
+  }
+
+  @Test
+  public void logoutUser_withinBudget() throws Exception {
+    assertWithinBudget("PUT /users/logout", 3, 200_000, status().isNoContent(), run -> {
+      LogOutDTO logOutDTO = new LogOutDTO();
+      logOutDTO.setId(testUser.getId());
+      logOutDTO.setToken(testUser.getToken());
+      return put("/users/logout").contentType(MediaType.APPLICATION_JSON).content(json(logOutDTO));
+    });
+  }
+
+  private void assertWithinBudget(String endpoint, int maxStatements, long maxAllocatedBytes,
+      ResultMatcher expectedStatus, IntFunction<RequestBuilder> request) throws Exception {
+    int run = 0;
+    for (int i = 0; i < WARMUP; i++) {
+      mockMvc.perform(request.apply(run++)).andExpect(expectedStatus);
+    }
+    int statements = 0;
+    long allocated = Long.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      RequestBuilder builder = request.apply(run++);
+      SqlStatementCounter.reset();
+      long before = THREADS.getCurrentThreadAllocatedBytes();
+      mockMvc.perform(builder).andExpect(expectedStatus);
+      allocated = Math.min(allocated, THREADS.getCurrentThreadAllocatedBytes() - before);
+      statements = Math.max(statements, SqlStatementCounter.count());
+    }
+    assertTrue(statements <= maxStatements,
+        String.format("%s ran %d SQL statements, the budget is %d", endpoint, statements, maxStatements));
+    assertTrue(allocated <= maxAllocatedBytes,
+        String.format("%s allocated %d bytes, the budget is %d", endpoint, allocated, maxAllocatedBytes));
+  }
+
+  private String json(Object object) {
+    try {
+      return objectMapper.writeValueAsString(object);
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
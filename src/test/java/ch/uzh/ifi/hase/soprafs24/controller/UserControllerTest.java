@@ -6,6 +6,10 @@ import java.util.UUID;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,23 +20,31 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.options;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import org.springframework.web.server.ResponseStatusException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import ch.uzh.ifi.hase.soprafs24.config.AdaptiveConcurrencyLimit;
+import ch.uzh.ifi.hase.soprafs24.constant.RequestPriority;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
 import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
 import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import io.micrometer.core.instrument.MeterRegistry;
 
-@SpringBootTest
+// the tests authenticate with the account token of a user saved directly
+@SpringBootTest(properties = "sessions.account-tokens=true")
 @AutoConfigureMockMvc
 public class UserControllerTest {
 
@@ -45,6 +57,14 @@ public class UserControllerTest {
   @Autowired
   private UserRepository userRepository;
 
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private AdaptiveConcurrencyLimit concurrencyLimit;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
   private static User testUser;
   private static String authTOKEN;
 
@@ -148,6 +168,192 @@ public class UserControllerTest {
   }
 
 
+  @Test
+  void userChanges_GET200_onlyChangesAfterCursor() throws Exception {
+      String body = mockMvc.perform(get("/users/changes").header("Authorization", authTOKEN))
+          .andExpect(status().isOk())
+          .andReturn().getResponse().getContentAsString();
+      long cursor = new ObjectMapper().readTree(body).get("cursor").asLong();
+
+      UserPutDTO updatedDTO = new UserPutDTO();
+      updatedDTO.setUsername("updatedUsername");
+      mockMvc.perform(put("/users/" + testUser.getId())
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(asJsonString(updatedDTO))
+        .header("Authorization", authTOKEN)).andExpect(status().isNoContent());
+
+      mockMvc.perform(get("/users/changes").param("since", Long.toString(cursor)).header("Authorization", authTOKEN))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.upserts", hasSize(1)))
+          .andExpect(jsonPath("$.upserts[0].username", is("updatedUsername")))
+          .andExpect(jsonPath("$.more", is(false)));
+  }
+
+  @Test
+  void users_GET200_sparseFieldset() throws Exception {
+      mockMvc.perform(get("/users").param("fields", "username,status").header("Authorization", authTOKEN))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$", hasSize(1)))
+          .andExpect(jsonPath("$[0].username", is(testUser.getUsername())))
+          .andExpect(jsonPath("$[0].status", is(testUser.getStatus().toString())))
+          .andExpect(jsonPath("$[0].token").doesNotExist())
+          .andExpect(jsonPath("$[0].id").doesNotExist());
+
+      mockMvc.perform(get("/users/{id}", testUser.getId()).param("fields", "id,name").header("Authorization", authTOKEN))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.id", is(testUser.getId().intValue())))
+          .andExpect(jsonPath("$.name", is(testUser.getName())))
+          .andExpect(jsonPath("$.username").doesNotExist());
+
+      mockMvc.perform(get("/users").param("fields", "password").header("Authorization", authTOKEN))
+          .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void users_GET200_onlyIdField() throws Exception {
+      // a single selected column
+      mockMvc.perform(get("/users").param("fields", "id").header("Authorization", authTOKEN))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$", hasSize(1)))
+          .andExpect(jsonPath("$[0].id", is(testUser.getId().intValue())))
+          .andExpect(jsonPath("$[0].username").doesNotExist());
+
+      mockMvc.perform(get("/users/{id}", testUser.getId()).param("fields", "id").header("Authorization", authTOKEN))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.id", is(testUser.getId().intValue())))
+          .andExpect(jsonPath("$.name").doesNotExist());
+  }
+
+  @Test
+  void user_POST201_retryWithIdempotencyKey() throws Exception {
+      UserPostDTO userPostDTO = new UserPostDTO();
+      userPostDTO.setUsername("retriedUser");
+      userPostDTO.setName("retriedUser");
+      userPostDTO.setPassword("testPassword");
+      String key = UUID.randomUUID().toString();
+
+      JsonNode first = objectMapper.readTree(mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON)
+              .header("Idempotency-Key", key).content(asJsonString(userPostDTO)))
+          .andExpect(status().isCreated())
+          .andExpect(header().string("Idempotent-Replayed", "false"))
+          .andReturn().getResponse().getContentAsString());
+
+      // the same user, but a session of its own: a refresh by one client does not revoke the other
+      JsonNode replayed = objectMapper.readTree(mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON)
+              .header("Idempotency-Key", key).content(asJsonString(userPostDTO)))
+          .andExpect(status().isCreated())
+          .andExpect(header().string("Idempotent-Replayed", "true"))
+          .andExpect(jsonPath("$.id", is(first.get("id").asInt())))
+          .andExpect(jsonPath("$.username", is("retriedUser")))
+          .andExpect(jsonPath("$.refreshToken", startsWith("rt_")))
+          .andReturn().getResponse().getContentAsString());
+      assertNotEquals(first.get("token").asText(), replayed.get("token").asText());
+      assertNotEquals(first.get("refreshToken").asText(), replayed.get("refreshToken").asText());
+      for (JsonNode response : List.of(first, replayed)) {
+        mockMvc.perform(post("/login/refresh").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"refreshToken\": \"" + response.get("refreshToken").asText() + "\"}"))
+            .andExpect(status().isOk());
+      }
+
+      // without the key the retry is a conflict as before
+      mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+          .andExpect(status().isConflict());
+  }
+
+  @Test
+  void userStatusBatch_POST200_statusPerKnownId() throws Exception {
+      User offline = new User();
+      offline.setPassword("password");
+      offline.setUsername("offline");
+      offline.setName("offline");
+      offline.setToken(UUID.randomUUID().toString());
+      offline.setStatus(UserStatus.OFFLINE);
+      offline.setDate(LocalDate.now());
+      offline = userRepository.saveAndFlush(offline);
+      String body = String.format("{\"ids\": [%d, %d, %d, 99999]}", testUser.getId(), offline.getId(),
+          testUser.getId());
+
+      mockMvc.perform(post("/users/status:batch").contentType(MediaType.APPLICATION_JSON).content(body)
+              .header("Authorization", authTOKEN))
+          .andExpect(status().isOk())
+          .andExpect(content().json(String.format("{\"%d\": \"ONLINE\", \"%d\": \"OFFLINE\"}",
+              testUser.getId(), offline.getId()), true));
+
+      mockMvc.perform(post("/users/status:batch").contentType(MediaType.APPLICATION_JSON).content(body))
+          .andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  void login_POST401_errorBodyAndCounter() throws Exception {
+      double before = meterRegistry.counter("http.errors", "code", "WRONG_PASSWORD").count();
+      UserPostDTO userPostDTO = new UserPostDTO();
+      userPostDTO.setUsername(testUser.getUsername());
+      userPostDTO.setPassword("wrongPassword");
+
+      mockMvc.perform(post("/login/auth").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+          .andExpect(status().isUnauthorized())
+          .andExpect(jsonPath("$.status", is(401)))
+          .andExpect(jsonPath("$.code", is("WRONG_PASSWORD")))
+          .andExpect(jsonPath("$.message", is("Password not correct")));
+
+      assertEquals(before + 1, meterRegistry.counter("http.errors", "code", "WRONG_PASSWORD").count());
+  }
+
+  @Test
+  void overloaded_lowPriorityShedWith503_highPriorityServed() throws Exception {
+      double before = meterRegistry.counter("http.concurrency.rejected", "priority", "LOW").count();
+      int held = 0;
+      try {
+          // fill the share of the limit that LOW requests may use
+          int inFlight;
+          while ((inFlight = concurrencyLimit.tryAcquire(RequestPriority.LOW)) > 0) {
+              held = inFlight;
+          }
+
+          mockMvc.perform(get("/users").header("Authorization", authTOKEN))
+              .andExpect(status().isServiceUnavailable())
+              .andExpect(header().string("Retry-After", "1"))
+              .andExpect(jsonPath("$.code", is("OVERLOADED")));
+          mockMvc.perform(get("/users/{id}", testUser.getId()).header("Authorization", authTOKEN))
+              .andExpect(status().isOk());
+      } finally {
+          for (; held > 0; held--) {
+              concurrencyLimit.release(1_000_000, held);
+          }
+      }
+      assertEquals(before + 1, meterRegistry.counter("http.concurrency.rejected", "priority", "LOW").count());
+  }
+
+  @Test
+  void corsPreflight_answeredWithMaxAge_evenWhenOverloaded() throws Exception {
+      int held = 0;
+      try {
+          int inFlight;
+          while ((inFlight = concurrencyLimit.tryAcquire(RequestPriority.LOW)) > 0) {
+              held = inFlight;
+          }
+
+          mockMvc.perform(options("/users")
+                  .header("Origin", "http://localhost:3000")
+                  .header("Access-Control-Request-Method", "GET")
+                  .header("Access-Control-Request-Headers", "Authorization"))
+              .andExpect(status().isOk())
+              .andExpect(header().string("Access-Control-Allow-Origin", "*"))
+              .andExpect(header().string("Access-Control-Allow-Headers", "Authorization"))
+              .andExpect(header().string("Access-Control-Max-Age", "1800"));
+      } finally {
+          for (; held > 0; held--) {
+              concurrencyLimit.release(1_000_000, held);
+          }
+      }
+
+      mockMvc.perform(get("/users/{id}", testUser.getId())
+              .header("Origin", "http://localhost:3000")
+              .header("Authorization", authTOKEN))
+          .andExpect(status().isOk())
+          .andExpect(header().string("Access-Control-Allow-Origin", "*"));
+  }
+
   @Test
   public void createUser_validInput_userCreated() throws Exception {
       // given
@@ -190,8 +396,101 @@ public class UserControllerTest {
           .andExpect(jsonPath("$", hasSize(2))) // There's also the admin in there
           .andExpect(jsonPath("$[1].username", is(user.getUsername()))) // Verify the username
           .andExpect(jsonPath("$[1].status", is(user.getStatus().toString()))) // Verify the status
-          .andExpect(jsonPath("$[1].date", is(user.getDate().toString())));
+          .andExpect(jsonPath("$[1].date", is(user.getDate().toString())))
+          .andExpect(jsonPath("$[1].token", nullValue())); // account tokens are never shown
+  }
+  @Test
+  void getUsers_gzipAndNotModified() throws Exception {
+      String etag = mockMvc.perform(get("/users").header("Authorization", authTOKEN))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$", hasSize(1)))
+          .andReturn().getResponse().getHeader("ETag");
+
+      // the gzipped body is another representation with its own ETag
+      String gzipEtag = mockMvc.perform(get("/users").header("Authorization", authTOKEN)
+              .header("Accept-Encoding", "gzip, br"))
+          .andExpect(status().isOk())
+          .andExpect(header().string("Content-Encoding", "gzip"))
+          .andExpect(header().string("Vary", "Accept-Encoding"))
+          .andReturn().getResponse().getHeader("ETag");
+      assertEquals(etag.substring(0, etag.length() - 1) + "-gzip\"", gzipEtag);
+      mockMvc.perform(get("/users").header("Authorization", authTOKEN).header("If-None-Match", etag))
+          .andExpect(status().isNotModified());
+      mockMvc.perform(get("/users").header("Authorization", authTOKEN).header("Accept-Encoding", "gzip")
+              .header("If-None-Match", etag))
+          .andExpect(status().isOk());
+      mockMvc.perform(get("/users").header("Authorization", authTOKEN).header("Accept-Encoding", "gzip")
+              .header("If-None-Match", etag + ", " + gzipEtag))
+          .andExpect(status().isNotModified());
+
+      // a change makes the ETag outdated
+      User user = new User();
+      user.setUsername("second");
+      user.setName("second");
+      user.setPassword("password");
+      user.setStatus(UserStatus.OFFLINE);
+      user.setDate(LocalDate.now());
+      user.setToken(UUID.randomUUID().toString());
+      userRepository.saveAndFlush(user);
+      mockMvc.perform(get("/users").header("Authorization", authTOKEN).header("If-None-Match", etag))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$", hasSize(2)));
+  }
+
+  @Test
+  void getUsers_sorted() throws Exception {
+      UserPostDTO userPostDTO = new UserPostDTO();
+      userPostDTO.setUsername("newer");
+      userPostDTO.setName("newer");
+      userPostDTO.setPassword("password");
+      mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+          .andExpect(status().isCreated());
+
+      mockMvc.perform(get("/users").param("sort", "newest").param("limit", "1").header("Authorization", authTOKEN))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$", hasSize(1)))
+          .andExpect(jsonPath("$[0].username", is("newer")));
+      mockMvc.perform(get("/users").param("sort", "oldest").header("Authorization", authTOKEN))
+          .andExpect(status().isBadRequest())
+          .andExpect(jsonPath("$.code", is("INVALID_REQUEST")));
   }
+
+  @Test
+  void login_sessionTokens_refreshAndLogout() throws Exception {
+      UserPostDTO userPostDTO = new UserPostDTO();
+      userPostDTO.setUsername("king");
+      userPostDTO.setPassword("kahn");
+      JsonNode login = objectMapper.readTree(mockMvc.perform(post("/login/auth")
+              .contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.token", startsWith("at_")))
+          .andExpect(jsonPath("$.refreshToken", startsWith("rt_")))
+          .andExpect(jsonPath("$.tokenExpiresAt").exists())
+          .andReturn().getResponse().getContentAsString());
+      String token = login.get("token").asText();
+
+      mockMvc.perform(get("/users/{id}", testUser.getId()).header("Authorization", token))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.token").doesNotExist())
+          .andExpect(jsonPath("$.refreshToken").doesNotExist());
+
+      JsonNode refreshed = objectMapper.readTree(mockMvc.perform(post("/login/refresh")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"refreshToken\": \"" + login.get("refreshToken").asText() + "\"}"))
+          .andExpect(status().isOk())
+          .andReturn().getResponse().getContentAsString());
+      mockMvc.perform(get("/users/{id}", testUser.getId()).header("Authorization", token))
+          .andExpect(status().isNotFound());
+
+      String refreshedToken = refreshed.get("token").asText();
+      mockMvc.perform(put("/users/logout").contentType(MediaType.APPLICATION_JSON)
+              .content("{\"id\": " + testUser.getId() + ", \"token\": \"" + refreshedToken + "\"}"))
+          .andExpect(status().isNoContent());
+      mockMvc.perform(get("/users/{id}", testUser.getId()).header("Authorization", refreshedToken))
+          .andExpect(status().isNotFound());
+      assertEquals(UserStatus.OFFLINE, userRepository.findById(testUser.getId()).get().getStatus());
+  }
+
   /**
    * Helper Method to convert userPostDTO into a JSON string such that the input
    * can be processed
@@ -0,0 +1,53 @@
+package ch.uzh.ifi.hase.soprafs24.logging;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class JsonLogEncoderTest {
+
+  @Test
+  public void encode_oneJsonLineWithRedactedFields() throws Exception {
+    JsonLogEncoder encoder = new JsonLogEncoder();
+    encoder.addRedact("password");
+    encoder.addRedact("token");
+    encoder.start();
+
+    LoggerContext context = new LoggerContext();
+    LoggingEvent event = new LoggingEvent("test", context.getLogger("test.Logger"), Level.INFO,
+        "Created {} from {}", null,
+        new Object[] { "User{id=1, token='abc', password=secret}", "{\"username\":\"u\",\"password\":\"secret\"}" });
+
+    String line = new String(encoder.encode(event), StandardCharsets.UTF_8);
+
+    assertEquals('\n', line.charAt(line.length() - 1));
+    JsonNode json = new ObjectMapper().readTree(line);
+    assertEquals("INFO", json.get("level").asText());
+    assertEquals("test.Logger", json.get("logger").asText());
+    assertEquals("Created User{id=1, token='***', password=***} from {\"username\":\"u\",\"password\":\"***\"}",
+        json.get("message").asText());
+    assertFalse(line.contains("secret"));
+  }
+
+  @Test
+  public void redact_keysEndingInField() {
+    JsonLogEncoder encoder = new JsonLogEncoder();
+    encoder.addRedact("token");
+    encoder.start();
+
+    assertEquals("{\"accessToken\":\"***\",\"refreshToken\":\"***\",\"expiresIn\":900}",
+        encoder.redact("{\"accessToken\":\"a1\",\"refreshToken\":\"r1\",\"expiresIn\":900}"));
+    assertEquals("Session{refreshToken='***', userId=7}", encoder.redact("Session{refreshToken='r1', userId=7}"));
+    // only keys that end in the field
+    assertEquals("tokens=5 tokenCount=2", encoder.redact("tokens=5 tokenCount=2"));
+  }
+}
@@ -0,0 +1,28 @@
+package ch.uzh.ifi.hase.soprafs24.logging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.FilterReply;
+
+public class SamplingTurboFilterTest {
+
+  @Test
+  public void decide_samplesOnlyInfoAndBelowOfMatchingLoggers() {
+    SamplingTurboFilter filter = new SamplingTurboFilter();
+    filter.setSamples("app=0, app.important=1");
+    LoggerContext context = new LoggerContext();
+
+    assertEquals(FilterReply.DENY, filter.decide(null, context.getLogger("app.Controller"), Level.INFO, "m", null, null));
+    assertEquals(FilterReply.NEUTRAL,
+        filter.decide(null, context.getLogger("app.Controller"), Level.WARN, "m", null, null));
+    assertEquals(FilterReply.NEUTRAL,
+        filter.decide(null, context.getLogger("app.important.Service"), Level.INFO, "m", null, null));
+    assertEquals(FilterReply.NEUTRAL, filter.decide(null, context.getLogger("other"), Level.INFO, "m", null, null));
+    // isInfoEnabled() checks are not sampled
+    assertEquals(FilterReply.NEUTRAL,
+        filter.decide(null, context.getLogger("app.Controller"), Level.INFO, null, null, null));
+  }
+}
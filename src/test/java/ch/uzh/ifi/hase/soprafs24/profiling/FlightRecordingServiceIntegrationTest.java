@@ -0,0 +1,85 @@
+package ch.uzh.ifi.hase.soprafs24.profiling;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+@SpringBootTest
+public class FlightRecordingServiceIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private FlightRecordingService flightRecordingService;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+  }
+
+  @AfterEach
+  public void stopRecording() {
+    flightRecordingService.destroy();
+  }
+
+  @Test
+  public void recording_containsServiceAndRepositoryEvents() throws Exception {
+    flightRecordingService.start(Duration.ZERO);
+
+    User user = new User();
+    user.setName("testName");
+    user.setUsername("testUsername");
+    user.setPassword("testPassword");
+    User created = userService.createUser(user);
+    userService.getUserById(created.getId());
+
+    Path file = flightRecordingService.stop();
+    List<RecordedEvent> events;
+    try {
+      events = RecordingFile.readAllEvents(file);
+    } finally {
+      Files.delete(file);
+    }
+
+    assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("soprafs.UserService")
+        && event.getString("operation").equals("createUser") && event.getLong("userId") == created.getId()));
+    assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("soprafs.UserService")
+        && event.getString("operation").equals("getUserById") && event.getLong("userId") == created.getId()));
+    assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("soprafs.Repository")
+        && event.getString("repository").equals("UserRepository") && event.getString("method").equals("save")));
+  }
+
+  @Test
+  public void start_whileRecording_throwsException() {
+    flightRecordingService.start(Duration.ZERO);
+
+    assertThrows(DomainException.class, () -> flightRecordingService.start(Duration.ZERO));
+  }
+
+  @Test
+  public void stop_withoutRecording_throwsException() {
+    assertThrows(DomainException.class, () -> flightRecordingService.stop());
+  }
+}
@@ -0,0 +1,162 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs24.service.SessionService;
+import ch.uzh.ifi.hase.soprafs24.service.UserListSnapshot;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+
+/**
+ * Runs the UserService against three in-memory shards.
+ *
+ * @see ShardedUserRepository
+ */
+@WebAppConfiguration
+@SpringBootTest(properties = "users.sharding.urls="
+    + "jdbc:h2:mem:shard0;DB_CLOSE_DELAY=-1,jdbc:h2:mem:shard1;DB_CLOSE_DELAY=-1,jdbc:h2:mem:shard2;DB_CLOSE_DELAY=-1")
+public class ShardedUserRepositoryIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private SessionService sessionService;
+
+  @Autowired
+  private UserListSnapshot userListSnapshot;
+
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+  }
+
+  private User createUser(String username) {
+    User user = new User();
+    user.setName("name");
+    user.setUsername(username);
+    user.setPassword("password");
+    return userService.createUser(user);
+  }
+
+  @Test
+  public void createdUsers_spreadOverShardsAndFoundAgain() {
+    ShardedUserRepository sharded = (ShardedUserRepository) userRepository;
+    int[] perShard = new int[sharded.getShardCount()];
+    for (int i = 0; i < 30; i++) {
+      User created = createUser("user" + i);
+      perShard[sharded.shardOf(created.getId()).getIndex()]++;
+
+      assertEquals(created.getUsername(), userService.getUserById(created.getId()).getUsername());
+      assertEquals(created.getId(), userService.getUserByUsername("user" + i).getId());
+      assertEquals(created.getId(), userService.getUserByToken(sessionService.open(created).getToken()).getId());
+    }
+    for (int count : perShard) {
+      assertTrue(count > 0);
+    }
+
+    List<User> all = userService.getUsers();
+    assertEquals(30, all.size());
+    for (int i = 1; i < all.size(); i++) {
+      assertTrue(all.get(i - 1).getId() < all.get(i).getId());
+    }
+    assertEquals(30, userRepository.count());
+  }
+
+  @Test
+  public void writesToShards_invalidateUserListSnapshot() throws InterruptedException {
+    createUser("first");
+    String etag = userListSnapshot.get().getEtag();
+
+    createUser("second");
+    String rebuilt = userListSnapshot.get().getEtag();
+    // a slow rebuild serves the outdated snapshot meanwhile
+    for (int i = 0; i < 50 && rebuilt.equals(etag); i++) {
+      Thread.sleep(20);
+      rebuilt = userListSnapshot.get().getEtag();
+    }
+    assertNotEquals(etag, rebuilt);
+    assertTrue(new String(userListSnapshot.get().getJson(), StandardCharsets.UTF_8).contains("\"second\""));
+  }
+
+  @Test
+  public void usernamesStayUniqueAcrossShards() {
+    User first = createUser("first");
+    createUser("second");
+
+    User duplicate = new User();
+    duplicate.setName("name");
+    duplicate.setUsername("first");
+    duplicate.setPassword("password");
+    assertThrows(ResponseStatusException.class, () -> userService.createUser(duplicate));
+
+    // renaming keeps the user on its shard and updates the directory
+    UserPutDTO userPutDTO = new UserPutDTO();
+    userPutDTO.setUsername("renamed");
+    userService.editUser(userService.getUserById(first.getId()), userPutDTO);
+
+    assertNull(userService.getUserByUsername("first"));
+    assertEquals(first.getId(), userService.getUserByUsername("renamed").getId());
+    assertEquals(2, userRepository.count());
+  }
+
+  @Test
+  public void rolledBackWrites_undoneOnShards() {
+    User changed = createUser("changed");
+    User deleted = createUser("deleted");
+    ShardedUserRepository sharded = (ShardedUserRepository) userRepository;
+
+    transactionTemplate.executeWithoutResult(status -> {
+      User user = userRepository.findById(changed.getId()).orElseThrow();
+      user.setStatus(UserStatus.OFFLINE);
+      userRepository.save(user);
+      user.setName("second change");
+      userRepository.save(user);
+      userRepository.deleteById(deleted.getId());
+      User created = new User();
+      created.setName("name");
+      created.setUsername("created");
+      created.setPassword("password");
+      created.setToken("created-token");
+      created.setStatus(UserStatus.ONLINE);
+      created.setDate(LocalDate.now());
+      userRepository.save(created);
+      status.setRollbackOnly();
+    });
+
+    // restored as before the first write, on the same shard
+    User restored = sharded.shardOf(changed.getId()).getRepository().findById(changed.getId()).orElseThrow();
+    assertEquals(UserStatus.ONLINE, restored.getStatus());
+    assertEquals("name", restored.getName());
+    // inserted again with its id, and found through the directory
+    assertEquals(deleted.getId(), userRepository.findByUsername("deleted").getId());
+    assertEquals(deleted.getToken(), userRepository.findById(deleted.getId()).orElseThrow().getToken());
+    assertNull(userRepository.findByUsername("created"));
+    assertEquals(2, userRepository.count());
+  }
+}
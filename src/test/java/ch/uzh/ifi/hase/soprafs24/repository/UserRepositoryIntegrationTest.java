@@ -1,14 +1,18 @@
 package ch.uzh.ifi.hase.soprafs24.repository;
 
 import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
 
@@ -45,4 +49,28 @@ public class UserRepositoryIntegrationTest {
     assertEquals(found.getToken(), user.getToken());
     assertEquals(found.getStatus(), user.getStatus());
   }
+
+  @Test
+  public void findAllWithFields_setsOnlySelectedFields() {
+    User user = new User();
+    user.setName("Firstname Lastname");
+    user.setUsername("firstname@lastname");
+    user.setPassword("Password");
+    user.setDate(LocalDate.now());
+    user.setStatus(UserStatus.OFFLINE);
+    user.setToken("1");
+
+    entityManager.persist(user);
+    entityManager.flush();
+
+    List<User> found = userRepository.findAllWithFields(EnumSet.of(UserField.USERNAME, UserField.STATUS));
+
+    assertEquals(1, found.size());
+    assertEquals(user.getId(), found.get(0).getId());
+    assertEquals(user.getUsername(), found.get(0).getUsername());
+    assertEquals(user.getStatus(), found.get(0).getStatus());
+    assertNull(found.get(0).getName());
+    assertNull(found.get(0).getToken());
+    assertNull(found.get(0).getPassword());
+  }
 }
@@ -0,0 +1,75 @@
+package ch.uzh.ifi.hase.soprafs24.rest.mapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+/**
+ * UserJsonWriterTest
+ * Tests if the direct writer produces the same JSON as Jackson does for the
+ * corresponding UserGetDTOs.
+ */
+public class UserJsonWriterTest {
+
+  @Test
+  public void writeUsers_sameJsonAsUserGetDTOs() throws Exception {
+    // same settings as the ObjectMapper of Spring Boot
+    ObjectMapper objectMapper = new ObjectMapper()
+        .registerModule(new JavaTimeModule())
+        .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    User first = new User();
+    first.setId(1L);
+    first.setName("Firstname Lastname");
+    first.setUsername("firstname@lastname");
+    first.setStatus(UserStatus.ONLINE);
+    first.setDate(LocalDate.of(2025, 3, 1));
+    first.setBirthday(LocalDate.of(1999, 12, 31));
+    first.setToken("1");
+
+    // nulls and characters that need escaping
+    User second = new User();
+    second.setId(2L);
+    second.setName("\"quoted\" \\ ünïcödé");
+    second.setUsername("second");
+    second.setStatus(UserStatus.OFFLINE);
+    second.setDate(LocalDate.of(2025, 3, 2));
+    second.setToken("2");
+
+    List<User> users = List.of(first, second);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new UserJsonWriter(objectMapper).writeUsers(users, out);
+
+    String expected = objectMapper.writeValueAsString(DTOMapper.INSTANCE.convertEntitiesToUserGetDTOs(users));
+    assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void writeUsers_onlySelectedFields() throws Exception {
+    User user = new User();
+    user.setId(1L);
+    user.setName("name");
+    user.setUsername("username");
+    user.setStatus(UserStatus.ONLINE);
+    user.setToken("1");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new UserJsonWriter(new ObjectMapper()).writeUsers(List.of(user), EnumSet.of(UserField.USERNAME, UserField.STATUS),
+        out);
+
+    assertEquals("[{\"username\":\"username\",\"status\":\"ONLINE\"}]", out.toString(StandardCharsets.UTF_8));
+  }
+}
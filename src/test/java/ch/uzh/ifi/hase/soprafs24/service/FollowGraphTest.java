@@ -0,0 +1,155 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class FollowGraphTest {
+
+  @Test
+  public void randomChanges_matchSetsOfEdges() {
+    FollowGraph graph = new FollowGraph();
+    Map<Long, TreeSet<Long>> following = new HashMap<>();
+    Random random = new Random(42);
+
+    // bulk load with duplicates, then single changes
+    int count = 3000;
+    long[] followerIds = new long[count];
+    long[] followeeIds = new long[count];
+    for (int i = 0; i < count; i++) {
+      followerIds[i] = 1 + random.nextInt(50);
+      followeeIds[i] = 1 + random.nextInt(50);
+      following.computeIfAbsent(followerIds[i], id -> new TreeSet<>()).add(followeeIds[i]);
+    }
+    graph.addAll(followerIds, followeeIds, count);
+    for (int i = 0; i < 5000; i++) {
+      long followerId = 1 + random.nextInt(50);
+      long followeeId = 1 + random.nextInt(50);
+      TreeSet<Long> expected = following.computeIfAbsent(followerId, id -> new TreeSet<>());
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(followeeId), graph.remove(followerId, followeeId));
+      } else {
+        assertEquals(expected.add(followeeId), graph.add(followerId, followeeId));
+      }
+    }
+    graph.removeUser(7);
+    following.remove(7L);
+    following.values().forEach(followees -> followees.remove(7L));
+
+    long edges = 0;
+    for (long userId = 1; userId <= 50; userId++) {
+      TreeSet<Long> out = following.getOrDefault(userId, new TreeSet<>());
+      TreeSet<Long> in = new TreeSet<>();
+      TreeSet<Long> mutual = new TreeSet<>();
+      for (Map.Entry<Long, TreeSet<Long>> entry : following.entrySet()) {
+        if (entry.getValue().contains(userId)) {
+          in.add(entry.getKey());
+          if (out.contains(entry.getKey())) {
+            mutual.add(entry.getKey());
+          }
+        }
+      }
+      edges += out.size();
+      assertArrayEquals(toArray(out), graph.following(userId, 0, 1000));
+      assertArrayEquals(toArray(in), graph.followers(userId, 0, 1000));
+      assertArrayEquals(toArray(mutual), graph.friends(userId, 0, 1000, id -> true));
+    }
+    assertEquals(edges, graph.size());
+  }
+
+  @Test
+  public void pages_startAfterCursor_friendsFiltered() {
+    FollowGraph graph = new FollowGraph();
+    for (long id = 2; id <= 10; id++) {
+      graph.add(1, id);
+      if (id % 2 == 0) {
+        graph.add(id, 1);
+      }
+    }
+
+    assertArrayEquals(new long[] { 2, 3, 4 }, graph.following(1, 0, 3));
+    assertArrayEquals(new long[] { 5, 6, 7 }, graph.following(1, 4, 3));
+    assertArrayEquals(new long[] { 10 }, graph.following(1, 9, 3));
+    assertArrayEquals(new long[] { 2, 4, 6, 8, 10 }, graph.friends(1, 0, 10, id -> true));
+    assertArrayEquals(new long[] { 8, 10 }, graph.friends(1, 7, 10, id -> true));
+    assertArrayEquals(new long[] { 4, 8 }, graph.friends(1, 0, 2, id -> id % 4 == 0));
+    assertTrue(graph.follows(1, 5));
+    assertFalse(graph.follows(5, 1));
+    assertEquals(9, graph.followingCount(1));
+    assertEquals(5, graph.followersCount(1));
+  }
+
+  @Test
+  public void millionEdges_bulkLoaded_listsPagesAndFriendsCorrect() {
+    // every user follows the users at nine offsets (+1 and -1 follow back), and a celebrity that
+    // everyone follows, who follows back the first ten users
+    int users = 100_000;
+    int[] offsets = { 1, 2, 3, 5, 8, 13, 21, 34, -1 };
+    long celebrity = users + 1;
+    int count = users * offsets.length + users + 10;
+    long[] followerIds = new long[count];
+    long[] followeeIds = new long[count];
+    int i = 0;
+    for (long userId = 1; userId <= users; userId++) {
+      for (int offset : offsets) {
+        followerIds[i] = userId;
+        followeeIds[i++] = shift(userId, offset, users);
+      }
+      followerIds[i] = userId;
+      followeeIds[i++] = celebrity;
+    }
+    for (long userId = 1; userId <= 10; userId++) {
+      followerIds[i] = celebrity;
+      followeeIds[i++] = userId;
+    }
+    FollowGraph graph = new FollowGraph();
+    graph.addAll(followerIds, followeeIds, count);
+
+    assertEquals(count, graph.size());
+    for (long userId = 1; userId <= users; userId += 997) {
+      long[] out = new long[offsets.length + 1];
+      for (int j = 0; j < offsets.length; j++) {
+        out[j] = shift(userId, offsets[j], users);
+      }
+      out[offsets.length] = celebrity;
+      Arrays.sort(out);
+      assertArrayEquals(out, graph.following(userId, 0, 100));
+      assertEquals(offsets.length + (userId <= 10 ? 1 : 0), graph.followersCount(userId));
+      long[] friends = { shift(userId, 1, users), shift(userId, -1, users) };
+      Arrays.sort(friends);
+      assertArrayEquals(friends, graph.friends(userId, 0, 100, id -> id != celebrity));
+    }
+    assertEquals(users, graph.followersCount(celebrity));
+    assertArrayEquals(new long[] { 501, 502, 503 }, graph.followers(celebrity, 500, 3));
+    assertArrayEquals(new long[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 }, graph.friends(celebrity, 0, 100, id -> true));
+    assertArrayEquals(new long[] { 6, 8, 10 }, graph.friends(celebrity, 5, 100, id -> id % 2 == 0));
+
+    // single changes on the long lists of the celebrity
+    assertTrue(graph.remove(5, celebrity));
+    assertFalse(graph.follows(5, celebrity));
+    assertArrayEquals(new long[] { 4, 6 }, graph.friends(celebrity, 3, 2, id -> true));
+    assertTrue(graph.add(5, celebrity));
+    assertFalse(graph.add(5, celebrity));
+    assertEquals(count, graph.size());
+    graph.removeUser(celebrity);
+    assertEquals((long) users * offsets.length, graph.size());
+    assertEquals(offsets.length, graph.followingCount(1));
+  }
+
+  // the user offset places after userId, wrapping around within 1..users
+  private static long shift(long userId, int offset, int users) {
+    return Math.floorMod(userId - 1 + offset, users) + 1;
+  }
+
+  private static long[] toArray(TreeSet<Long> ids) {
+    return ids.stream().mapToLong(Long::longValue).toArray();
+  }
+}
@@ -0,0 +1,59 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserFollowRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@SpringBootTest
+public class FollowServiceIntegrationTest {
+
+  @Qualifier("userFollowRepository")
+  @Autowired
+  private UserFollowRepository userFollowRepository;
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @BeforeEach
+  public void setup() {
+    userFollowRepository.deleteAll();
+  }
+
+  @Test
+  public void follow_concurrentDuplicate_alreadyFollowing() {
+    // the repository of a second request that checked before the first one committed
+    UserFollowRepository checkedTooEarly = mock(UserFollowRepository.class,
+        AdditionalAnswers.delegatesTo(userFollowRepository));
+    doReturn(false).when(checkedTooEarly).existsByFollowerIdAndFolloweeId(anyLong(), anyLong());
+    FollowService followService = new FollowService(checkedTooEarly, userRepository, transactionManager,
+        new SimpleMeterRegistry());
+
+    assertTrue(followService.follow(1, 2));
+    assertFalse(followService.follow(1, 2));
+    assertEquals(1, userFollowRepository.count());
+    assertArrayEquals(new long[] { 2 }, followService.getFollowing(1, 0, 10));
+
+    // the failed insert only rolled back its own transaction
+    assertTrue(followService.follow(1, 3));
+    assertArrayEquals(new long[] { 2, 3 }, followService.getFollowing(1, 0, 10));
+  }
+}
@@ -0,0 +1,152 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.uzh.ifi.hase.soprafs24.entity.IdempotencyRecord;
+import ch.uzh.ifi.hase.soprafs24.repository.IdempotencyRecordRepository;
+
+public class IdempotencyServiceTest {
+
+  @Mock
+  private IdempotencyRecordRepository idempotencyRecordRepository;
+
+  private IdempotencyService idempotencyService;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+    Mockito.when(idempotencyRecordRepository.findById(Mockito.any())).thenReturn(Optional.empty());
+    idempotencyService = new IdempotencyService(idempotencyRecordRepository, new ObjectMapper(), 2, 60000, 5000,
+        false);
+  }
+
+  private static String body(IdempotencyService.StoredResponse response) {
+    return new String(response.getBody(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void sameKey_runsOnceAndReplays() {
+    AtomicInteger runs = new AtomicInteger();
+    IdempotencyService.StoredResponse first = idempotencyService.execute("POST /users", "k", Map.of("a", 1),
+        HttpStatus.CREATED, () -> Map.of("run", runs.incrementAndGet()));
+    IdempotencyService.StoredResponse retry = idempotencyService.execute("POST /users", "k", Map.of("a", 1),
+        HttpStatus.CREATED, () -> Map.of("run", runs.incrementAndGet()));
+
+    assertEquals(1, runs.get());
+    assertEquals(201, retry.getStatus());
+    assertFalse(first.isReplayed());
+    assertTrue(retry.isReplayed());
+    assertEquals("{\"run\":1}", body(retry));
+  }
+
+  @Test
+  public void sameKey_differentRequest_isRejected() {
+    idempotencyService.execute("POST /users", "k", Map.of("a", 1), HttpStatus.CREATED, () -> "done");
+
+    ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> idempotencyService
+        .execute("POST /users", "k", Map.of("a", 2), HttpStatus.CREATED, () -> "done"));
+    assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, e.getStatus());
+  }
+
+  @Test
+  public void failure_isNotStored() {
+    assertThrows(ResponseStatusException.class, () -> idempotencyService.execute("POST /users", "k", "request",
+        HttpStatus.CREATED, () -> {
+          throw new ResponseStatusException(HttpStatus.CONFLICT);
+        }));
+
+    IdempotencyService.StoredResponse retry = idempotencyService.execute("POST /users", "k", "request",
+        HttpStatus.CREATED, () -> "done");
+    assertFalse(retry.isReplayed());
+  }
+
+  @Test
+  public void storeIsBounded() {
+    AtomicInteger runs = new AtomicInteger();
+    for (String key : new String[] { "a", "b", "c", "a" }) {
+      idempotencyService.execute("POST /users", key, "request", HttpStatus.CREATED, runs::incrementAndGet);
+    }
+    // "a" was dropped when "c" came in
+    assertEquals(4, runs.get());
+  }
+
+  @Test
+  public void concurrentDuplicate_waitsForTheFirst() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger runs = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<IdempotencyService.StoredResponse> first = executor.submit(() -> idempotencyService
+          .execute("POST /users", "k", "request", HttpStatus.CREATED, () -> {
+            started.countDown();
+            await(release);
+            return runs.incrementAndGet();
+          }));
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      Future<IdempotencyService.StoredResponse> duplicate = executor.submit(() -> idempotencyService
+          .execute("POST /users", "k", "request", HttpStatus.CREATED, runs::incrementAndGet));
+      Thread.sleep(100);
+      assertFalse(duplicate.isDone());
+
+      release.countDown();
+      assertArrayEquals(first.get(5, TimeUnit.SECONDS).getBody(), duplicate.get(5, TimeUnit.SECONDS).getBody());
+      assertTrue(duplicate.get().isReplayed());
+      assertEquals(1, runs.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  public void persistent_storesAndFindsRecords() {
+    IdempotencyService persistentService = new IdempotencyService(idempotencyRecordRepository, new ObjectMapper(),
+        10, 60000, 5000, true);
+    persistentService.execute("POST /users", "k", "request", HttpStatus.CREATED, () -> "done");
+
+    ArgumentCaptor<IdempotencyRecord> saved = ArgumentCaptor.forClass(IdempotencyRecord.class);
+    Mockito.verify(idempotencyRecordRepository).save(saved.capture());
+    assertEquals("POST /users k", saved.getValue().getId());
+
+    // a new instance (e.g. after a restart) finds the record in the database
+    Mockito.when(idempotencyRecordRepository.findById("POST /users k")).thenReturn(Optional.of(saved.getValue()));
+    IdempotencyService restarted = new IdempotencyService(idempotencyRecordRepository, new ObjectMapper(), 10,
+        60000, 5000, true);
+    IdempotencyService.StoredResponse replayed = restarted.execute("POST /users", "k", "request",
+        HttpStatus.CREATED, () -> "again");
+    assertTrue(replayed.isReplayed());
+    assertEquals("\"done\"", body(replayed));
+  }
+}
@@ -0,0 +1,118 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserSessionRepository;
+
+/**
+ * Sessions with short lifetimes, so expiry and the sweeper can be seen
+ * within a test.
+ *
+ * @see SessionService
+ */
+@SpringBootTest(properties = { "sessions.access-ttl-ms=500", "sessions.refresh-ttl-ms=1000",
+    "sessions.sweep-interval-ms=50" })
+public class SessionServiceIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Qualifier("userSessionRepository")
+  @Autowired
+  private UserSessionRepository userSessionRepository;
+
+  @Autowired
+  private SessionService sessionService;
+
+  private User user;
+
+  @BeforeEach
+  public void setup() {
+    userSessionRepository.deleteAll();
+    userRepository.deleteAll();
+    user = new User();
+    user.setName("name");
+    user.setUsername("username");
+    user.setPassword("password");
+    user.setToken(UUID.randomUUID().toString());
+    user.setStatus(UserStatus.ONLINE);
+    user.setDate(LocalDate.now());
+    user = userRepository.saveAndFlush(user);
+  }
+
+  @Test
+  public void open_tokenAuthenticatesUntilClosed() {
+    SessionService.IssuedTokens tokens = sessionService.open(user);
+
+    assertTrue(SessionService.isAccessToken(tokens.getToken()));
+    assertEquals(user.getId(), sessionService.authenticate(tokens.getToken()).getId());
+    assertNull(sessionService.authenticate(SessionService.ACCESS_TOKEN_PREFIX + "unknown"));
+
+    assertTrue(sessionService.close(tokens.getToken(), user.getId()));
+    assertNull(sessionService.authenticate(tokens.getToken()));
+    assertFalse(sessionService.close(tokens.getToken(), user.getId()));
+  }
+
+  @Test
+  public void refresh_rotatesTokens_reuseClosesSession() {
+    SessionService.IssuedTokens first = sessionService.open(user);
+
+    SessionService.IssuedTokens second = sessionService.refresh(first.getRefreshToken());
+
+    assertNotEquals(first.getToken(), second.getToken());
+    assertNotEquals(first.getRefreshToken(), second.getRefreshToken());
+    assertNull(sessionService.authenticate(first.getToken()));
+    assertEquals(user.getId(), sessionService.authenticate(second.getToken()).getId());
+
+    // the old refresh token again: somebody else has a copy of it
+    DomainException reused = assertThrows(DomainException.class,
+        () -> sessionService.refresh(first.getRefreshToken()));
+    assertEquals(ErrorCode.REFRESH_TOKEN_REUSED, reused.getCode());
+    assertNull(sessionService.authenticate(second.getToken()));
+    DomainException invalid = assertThrows(DomainException.class,
+        () -> sessionService.refresh(second.getRefreshToken()));
+    assertEquals(ErrorCode.INVALID_REFRESH_TOKEN, invalid.getCode());
+  }
+
+  @Test
+  public void sweep_removesExpiredSessions() throws InterruptedException {
+    SessionService.IssuedTokens tokens = sessionService.open(user);
+    assertTrue(sessionService.hasOpenSessions(user.getId()));
+
+    Thread.sleep(600);
+    assertNull(sessionService.authenticate(tokens.getToken()));
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (userSessionRepository.count() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertEquals(0, userSessionRepository.count());
+    assertFalse(sessionService.hasOpenSessions(user.getId()));
+    assertThrows(DomainException.class, () -> sessionService.refresh(tokens.getRefreshToken()));
+    // the last session is gone, so is the user
+    while (userRepository.findById(user.getId()).get().getStatus() == UserStatus.ONLINE
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertEquals(UserStatus.OFFLINE, userRepository.findById(user.getId()).get().getStatus());
+  }
+}
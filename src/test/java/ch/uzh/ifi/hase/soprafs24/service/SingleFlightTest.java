@@ -0,0 +1,171 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SingleFlightTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+  @AfterEach
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void concurrentCallsForSameKey_runLoaderOnce() throws Exception {
+    SingleFlight<String, String> singleFlight = new SingleFlight<>("test", Duration.ofSeconds(5),
+        value -> value + "-shared", new SimpleMeterRegistry());
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+      loads.incrementAndGet();
+      await(release);
+      return "value";
+    }));
+    // wait until the leader is in flight
+    while (loads.get() == 0) {
+      Thread.sleep(1);
+    }
+    List<Future<String>> followers = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      followers.add(executor.submit(() -> singleFlight.execute("key", () -> {
+        loads.incrementAndGet();
+        return "own";
+      })));
+    }
+    while (singleFlight.getCollapsed() < 7) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+
+    assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+    for (Future<String> follower : followers) {
+      // the snapshot of the leader, copied for the follower
+      assertEquals("value-shared-shared", follower.get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(1, loads.get());
+    assertEquals(1, singleFlight.getExecuted());
+    assertEquals(7, singleFlight.getCollapsed());
+  }
+
+  @Test
+  public void leaderChangesItsResult_followersGetCopiesOfSnapshot() throws Exception {
+    Set<String> sharedOn = ConcurrentHashMap.newKeySet();
+    SingleFlight<String, StringBuilder> singleFlight = new SingleFlight<>("test", Duration.ofSeconds(5),
+        value -> {
+          sharedOn.add(Thread.currentThread().getName());
+          return new StringBuilder(value);
+        }, new SimpleMeterRegistry());
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    String[] leaderThread = new String[1];
+
+    Future<StringBuilder> leader = executor.submit(() -> {
+      leaderThread[0] = Thread.currentThread().getName();
+      StringBuilder result = singleFlight.execute("key", () -> {
+        started.countDown();
+        await(release);
+        return new StringBuilder("value");
+      });
+      // like a caller that goes on changing its managed entity
+      result.append("-changed");
+      return result;
+    });
+    started.await();
+    List<Future<StringBuilder>> followers = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      followers.add(executor.submit(() -> singleFlight.execute("key", () -> new StringBuilder("own"))));
+    }
+    while (singleFlight.getCollapsed() < 7) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+
+    StringBuilder leaderResult = leader.get(5, TimeUnit.SECONDS);
+    assertEquals("value-changed", leaderResult.toString());
+    List<StringBuilder> followerResults = new ArrayList<>();
+    for (Future<StringBuilder> follower : followers) {
+      StringBuilder followerResult = follower.get(5, TimeUnit.SECONDS);
+      assertEquals("value", followerResult.toString());
+      assertNotSame(leaderResult, followerResult);
+      for (StringBuilder other : followerResults) {
+        assertNotSame(other, followerResult);
+      }
+      followerResults.add(followerResult);
+    }
+    // the snapshot was taken by the leader, not by the followers from its result
+    assertTrue(sharedOn.contains(leaderThread[0]));
+  }
+
+  @Test
+  public void followerTimesOut_runsLoaderItself() throws Exception {
+    SingleFlight<String, String> singleFlight = new SingleFlight<>("test", Duration.ofMillis(20),
+        value -> value, new SimpleMeterRegistry());
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+      started.countDown();
+      await(release);
+      return "slow";
+    }));
+    started.await();
+
+    assertEquals("fast", singleFlight.execute("key", () -> "fast"));
+    assertEquals(1, singleFlight.getTimedOut());
+    release.countDown();
+    assertEquals("slow", leader.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void leaderFails_followersGetSameException() throws Exception {
+    SingleFlight<String, String> singleFlight = new SingleFlight<>("test", Duration.ofSeconds(5),
+        value -> value, new SimpleMeterRegistry());
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+      started.countDown();
+      await(release);
+      throw new IllegalArgumentException("boom");
+    }));
+    started.await();
+    Future<String> follower = executor.submit(() -> singleFlight.execute("key", () -> "own"));
+    while (singleFlight.getCollapsed() < 1) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+
+    Exception exception = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS));
+    assertEquals(IllegalArgumentException.class, exception.getCause().getClass());
+    assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
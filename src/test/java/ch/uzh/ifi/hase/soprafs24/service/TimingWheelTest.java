@@ -0,0 +1,57 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class TimingWheelTest {
+
+  @Test
+  public void advance_returnsEveryItemAtItsDeadlineOnAllLevels() {
+    long start = 1_000_000;
+    TimingWheel<Integer> wheel = new TimingWheel<>(1, start);
+    Random random = new Random(42);
+    Map<Integer, Long> deadlines = new HashMap<>();
+    // up to level 3 and beyond into the overflow
+    long[] ranges = { 64, 4096, 262_144, 16_777_216, 40_000_000 };
+    for (int i = 0; i < 2000; i++) {
+      long deadline = start + 1 + (long) (random.nextDouble() * ranges[i % ranges.length]);
+      deadlines.put(i, deadline);
+      wheel.schedule(i, deadline);
+    }
+    assertEquals(2000, wheel.size());
+
+    // large steps, as a late sweep would make them
+    long now = start;
+    List<Integer> expired = new ArrayList<>();
+    while (expired.size() < 2000) {
+      now += 1 + random.nextInt(5000);
+      for (Integer item : wheel.advance(now)) {
+        assertTrue(deadlines.get(item) <= now, "item " + item + " expired early");
+        assertTrue(deadlines.get(item) > now - 5001, "item " + item + " expired late");
+        expired.add(item);
+      }
+    }
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void advance_roundsDeadlinesUpToTicks() {
+    TimingWheel<String> wheel = new TimingWheel<>(1000, 0);
+    wheel.schedule("past", -5);
+    wheel.schedule("soon", 1500);
+    wheel.schedule("later", 70_000);
+
+    assertEquals(List.of("past"), wheel.advance(999));
+    assertEquals(List.of(), wheel.advance(1999));
+    assertEquals(List.of("soon"), wheel.advance(2000));
+    assertEquals(List.of(), wheel.advance(69_999));
+    assertEquals(List.of("later"), wheel.advance(70_000));
+  }
+}
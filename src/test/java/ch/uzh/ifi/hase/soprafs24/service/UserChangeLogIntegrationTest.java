@@ -0,0 +1,117 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserChangesDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
+
+/**
+ * Test class for the delta sync of the users.
+ *
+ * @see UserChangeLog
+ */
+@WebAppConfiguration
+@SpringBootTest
+public class UserChangeLogIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UserChangeLog userChangeLog;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+  }
+
+  private User createUser(String username) {
+    User user = new User();
+    user.setName("testName");
+    user.setUsername(username);
+    user.setPassword("testPassword");
+    return userService.createUser(user);
+  }
+
+  @Test
+  public void changesAfterCursor_containOnlyNewChanges() {
+    User first = createUser("first");
+    User second = createUser("second");
+    long cursor = userChangeLog.getChanges(0, 100).getCursor();
+
+    userService.logoutUser(userService.getUserById(first.getId()));
+    UserPutDTO userPutDTO = new UserPutDTO();
+    userPutDTO.setUsername("renamed");
+    userService.editUser(userService.getUserById(second.getId()), userPutDTO);
+    userService.deleteUser(userService.getUserById(first.getId()));
+
+    UserChangesDTO changes = userChangeLog.getChanges(cursor, 100);
+    assertEquals(1, changes.getUpserts().size());
+    assertEquals("renamed", changes.getUpserts().get(0).getUsername());
+    assertEquals(1, changes.getDeleted().size());
+    assertEquals(first.getId(), changes.getDeleted().get(0));
+    assertFalse(changes.isMore());
+
+    UserChangesDTO none = userChangeLog.getChanges(changes.getCursor(), 100);
+    assertTrue(none.getUpserts().isEmpty());
+    assertEquals(changes.getCursor(), none.getCursor());
+  }
+
+  @Test
+  public void limit_pagesThroughChanges() {
+    long cursor = userChangeLog.getChanges(0, 100).getCursor();
+    for (int i = 0; i < 5; i++) {
+      createUser("user" + i);
+    }
+
+    UserChangesDTO page = userChangeLog.getChanges(cursor, 2);
+    assertEquals(2, page.getUpserts().size());
+    assertTrue(page.isMore());
+    int seen = page.getUpserts().size();
+    while (page.isMore()) {
+      page = userChangeLog.getChanges(page.getCursor(), 2);
+      seen += page.getUpserts().size();
+    }
+    assertEquals(5, seen);
+  }
+
+  @Test
+  public void uncommittedChange_holdsBackTheHorizon() {
+    long before = userChangeLog.horizon();
+    new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+      createUser("pending");
+      assertEquals(before, userChangeLog.horizon());
+    });
+    assertTrue(userChangeLog.horizon() > before);
+  }
+
+  @Test
+  public void cursorAheadOfLog_isGone() {
+    long ahead = userChangeLog.horizon() + 1000;
+    ResponseStatusException e = assertThrows(ResponseStatusException.class,
+        () -> userChangeLog.getChanges(ahead, 10));
+    assertEquals(HttpStatus.GONE, e.getStatus());
+  }
+}
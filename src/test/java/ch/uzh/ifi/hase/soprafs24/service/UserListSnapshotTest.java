@@ -0,0 +1,106 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.UserJsonWriter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class UserListSnapshotTest {
+
+  private final UserService userService = Mockito.mock(UserService.class);
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private UserListSnapshot userListSnapshot;
+
+  @BeforeEach
+  public void setup() {
+    userListSnapshot = new UserListSnapshot(userService, new UserJsonWriter(new ObjectMapper()),
+        Mockito.mock(PlatformTransactionManager.class), 50, meterRegistry);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    userListSnapshot.destroy();
+  }
+
+  @Test
+  public void get_unchanged_servesSameBytesWithoutQuery() throws IOException {
+    Mockito.when(userService.getUsers()).thenReturn(List.of(user("first")));
+
+    UserListSnapshot.Snapshot snapshot = userListSnapshot.get();
+
+    assertSame(snapshot, userListSnapshot.get());
+    Mockito.verify(userService, Mockito.times(1)).getUsers();
+    assertTrue(new String(snapshot.getJson(), StandardCharsets.UTF_8).contains("\"username\":\"first\""));
+    assertArrayEquals(snapshot.getJson(), new GZIPInputStream(new ByteArrayInputStream(snapshot.getGzip())).readAllBytes());
+  }
+
+  @Test
+  public void get_slowRebuild_servesStaleUntilRebuilt() throws Exception {
+    Mockito.when(userService.getUsers()).thenReturn(List.of(user("first")));
+    UserListSnapshot.Snapshot first = userListSnapshot.get();
+
+    CountDownLatch release = new CountDownLatch(1);
+    Mockito.when(userService.getUsers()).thenAnswer(invocation -> {
+      release.await();
+      return List.of(user("first"), user("second"));
+    });
+    userListSnapshot.invalidate();
+
+    assertSame(first, userListSnapshot.get());
+    assertEquals(1, meterRegistry.counter("users.snapshot.served", "state", "stale").count());
+
+    release.countDown();
+    UserListSnapshot.Snapshot rebuilt = userListSnapshot.get();
+    for (int i = 0; i < 100 && rebuilt == first; i++) {
+      rebuilt = userListSnapshot.get();
+    }
+    assertNotEquals(first.getEtag(), rebuilt.getEtag());
+    assertTrue(new String(rebuilt.getJson(), StandardCharsets.UTF_8).contains("\"username\":\"second\""));
+  }
+
+  @Test
+  public void get_firstRebuildFailsWithError_throwsInsteadOfWaitingForever() {
+    Mockito.when(userService.getUsers()).thenThrow(new OutOfMemoryError("list too large"));
+
+    assertTimeoutPreemptively(Duration.ofSeconds(5),
+        () -> assertThrows(IllegalStateException.class, userListSnapshot::get));
+    assertEquals(1, meterRegistry.counter("users.snapshot.rebuild.failures").count());
+  }
+
+  private static User user(String username) {
+    User user = new User();
+    user.setId((long) username.hashCode());
+    user.setName(username);
+    user.setUsername(username);
+    user.setPassword("password");
+    user.setToken(username);
+    user.setStatus(UserStatus.ONLINE);
+    user.setDate(LocalDate.of(2024, 1, 1));
+    return user;
+  }
+}
@@ -2,6 +2,7 @@ package ch.uzh.ifi.hase.soprafs24.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -9,17 +10,51 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.server.ResponseStatusException;
 
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.exceptions.DomainException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ErrorCode;
 import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 public class UserServiceTest {
 
   @Mock
   private UserRepository userRepository;
 
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
+  @Mock
+  private UserChangeLog userChangeLog;
+
+  @Mock
+  private SessionService sessionService;
+
+  @Mock
+  private UserSortIndex userSortIndex;
+
+  @Mock
+  private FollowService followService;
+
+  @Mock
+  private UserTableService userTableService;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @Spy
+  private TokenGenerator tokenGenerator = new TokenGenerator();
+
+  @Spy
+  private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
   @InjectMocks
   private UserService userService;
 
@@ -85,4 +120,38 @@ public class UserServiceTest {
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
   }
 
+  @Test
+  public void loginUser_wrongPassword_throwsStacklessDomainException() {
+    Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(testUser);
+    User login = new User();
+    login.setUsername("testUsername");
+    login.setPassword("wrongPassword");
+
+    DomainException e = assertThrows(DomainException.class, () -> userService.loginUser(login));
+
+    assertEquals(ErrorCode.WRONG_PASSWORD, e.getCode());
+    assertEquals(0, e.getStackTrace().length);
+  }
+
+  @Test
+  public void getUserByToken_accountTokensOffByDefault() {
+    testUser.setToken("account-token");
+    Mockito.when(userRepository.findByToken("account-token")).thenReturn(testUser);
+
+    assertNull(userService.getUserByToken("account-token"));
+
+    userService.setAccountTokens(true);
+    assertEquals(testUser, userService.getUserByToken("account-token"));
+  }
+
+  @Test
+  public void getUserById_userTableEnabled_servedWithoutRepository() {
+    Mockito.when(userTableService.isReady()).thenReturn(true);
+    Mockito.when(userTableService.findById(1L)).thenReturn(testUser);
+
+    assertEquals(testUser, userService.getUserById(1L));
+    DomainException e = assertThrows(DomainException.class, () -> userService.getUserById(2L));
+    assertEquals(ErrorCode.USER_NOT_FOUND, e.getCode());
+    Mockito.verifyNoInteractions(userRepository);
+  }
 }
@@ -0,0 +1,113 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserSort;
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
+
+/**
+ * Test class for the ordered user indexes behind GET /users?sort=.
+ *
+ * @see UserSortIndex
+ */
+@WebAppConfiguration
+@SpringBootTest
+public class UserSortIndexIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UserSortIndex userSortIndex;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    userSortIndex.reconcile();
+  }
+
+  @Test
+  public void serviceMutations_updateIndexes() {
+    User first = create("first");
+    User second = create("second");
+    User third = create("third");
+
+    // same signup day, the later signup first
+    assertEquals(List.of("third", "second"), usernames(userService.getUsers(UserSort.NEWEST, 2)));
+
+    setBirthday(first, LocalDate.of(1990, 3, 1));
+    setBirthday(second, LocalDate.of(1985, 12, 24));
+    setBirthday(third, LocalDate.of(2001, 7, 14));
+
+    // from today on, wrapping into the next year; without birthday left out
+    assertEquals(List.of(third.getId(), second.getId(), first.getId()),
+        userSortIndex.first(UserSort.BIRTHDAY, 10, LocalDate.of(2024, 6, 1)));
+    assertEquals(List.of(first.getId(), third.getId()),
+        userSortIndex.first(UserSort.BIRTHDAY, 2, LocalDate.of(2024, 3, 1)));
+
+    userService.deleteUser(third);
+    assertEquals(List.of("second", "first"), usernames(userService.getUsers(UserSort.NEWEST, 5)));
+    assertEquals(List.of(second.getId(), first.getId()),
+        userSortIndex.first(UserSort.BIRTHDAY, 10, LocalDate.of(2024, 6, 1)));
+  }
+
+  @Test
+  public void reconcile_repairsChangesOutsideTheService() {
+    User user = new User();
+    user.setName("direct");
+    user.setUsername("direct");
+    user.setPassword("password");
+    user.setToken(UUID.randomUUID().toString());
+    user.setStatus(UserStatus.OFFLINE);
+    user.setDate(LocalDate.now());
+    user.setBirthday(LocalDate.of(1999, 1, 1));
+    user = userRepository.saveAndFlush(user);
+    assertEquals(List.of(), userService.getUsers(UserSort.NEWEST, 10));
+
+    userSortIndex.reconcile();
+    assertEquals(List.of("direct"), usernames(userService.getUsers(UserSort.NEWEST, 10)));
+    assertEquals(List.of(user.getId()), userSortIndex.first(UserSort.BIRTHDAY, 10, LocalDate.now()));
+
+    userRepository.deleteById(user.getId());
+    userSortIndex.reconcile();
+    assertEquals(List.of(), userSortIndex.first(UserSort.NEWEST, 10, LocalDate.now()));
+    assertEquals(List.of(), userSortIndex.first(UserSort.BIRTHDAY, 10, LocalDate.now()));
+  }
+
+  private User create(String username) {
+    User user = new User();
+    user.setName(username);
+    user.setUsername(username);
+    user.setPassword("password");
+    return userService.createUser(user);
+  }
+
+  private void setBirthday(User user, LocalDate birthday) {
+    UserPutDTO userPutDTO = new UserPutDTO();
+    userPutDTO.setUsername(user.getUsername());
+    userPutDTO.setBirthday(birthday);
+    userService.editUser(userService.getUserById(user.getId()), userPutDTO);
+  }
+
+  private static List<String> usernames(List<User> users) {
+    return users.stream().map(User::getUsername).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,93 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.LocalDate;
+import java.time.Month;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserStatsDTO;
+
+/**
+ * Test class for the incrementally maintained user statistics.
+ *
+ * @see UserStatistics
+ */
+@WebAppConfiguration
+@SpringBootTest(properties = "users.stats.reconcile-initial-delay-ms=3600000")
+public class UserStatisticsIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UserStatistics userStatistics;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    userStatistics.reconcile();
+  }
+
+  @Test
+  public void serviceMutations_updateCounters() {
+    User user = new User();
+    user.setName("testName");
+    user.setUsername("testUsername");
+    user.setPassword("testPassword");
+    user = userService.createUser(user);
+
+    UserStatsDTO stats = userStatistics.getStats();
+    assertEquals(1, stats.getTotal());
+    assertEquals(1, stats.getByStatus().get(UserStatus.ONLINE));
+    assertEquals(1, stats.getSignupsPerDay().get(LocalDate.now()));
+    assertEquals(1, stats.getWithoutBirthday());
+
+    userService.logoutUser(user);
+    UserPutDTO userPutDTO = new UserPutDTO();
+    userPutDTO.setUsername("testUsername");
+    userPutDTO.setBirthday(LocalDate.of(2000, 5, 17));
+    userService.editUser(user, userPutDTO);
+
+    stats = userStatistics.getStats();
+    assertEquals(0, stats.getByStatus().get(UserStatus.ONLINE));
+    assertEquals(1, stats.getByStatus().get(UserStatus.OFFLINE));
+    assertEquals(1, stats.getBirthdaysPerMonth().get(Month.MAY));
+    assertEquals(0, stats.getWithoutBirthday());
+  }
+
+  @Test
+  public void reconcile_picksUpChangesOutsideTheService() {
+    User user = new User();
+    user.setName("testName");
+    user.setUsername("testUsername");
+    user.setPassword("testPassword");
+    user.setToken("token");
+    user.setStatus(UserStatus.OFFLINE);
+    user.setDate(LocalDate.of(2025, 1, 1));
+    user.setBirthday(LocalDate.of(1990, 2, 3));
+    userRepository.saveAndFlush(user);
+    assertEquals(0, userStatistics.getStats().getTotal());
+
+    userStatistics.reconcile();
+
+    UserStatsDTO stats = userStatistics.getStats();
+    assertEquals(1, stats.getTotal());
+    assertEquals(1, stats.getByStatus().get(UserStatus.OFFLINE));
+    assertEquals(1, stats.getSignupsPerDay().get(LocalDate.of(2025, 1, 1)));
+    assertEquals(1, stats.getBirthdaysPerMonth().get(Month.FEBRUARY));
+  }
+}
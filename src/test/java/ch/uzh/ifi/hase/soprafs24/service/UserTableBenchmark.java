@@ -0,0 +1,194 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+
+/**
+ * Run with `./gradlew benchmarkUserTable`, not part of the tests. Inserts
+ * benchmark.users users and reports the heap per user and the time per
+ * lookup of the UserTable, of detached entities and of entities managed by
+ * one persistence context, next to a lookup from the database.
+ *
+ * @see UserTableService
+ */
+@Tag("benchmark")
+@SpringBootTest(properties = { "users.table.enabled=true", "users.table.reconcile-interval-ms=3600000",
+    "logging.level.root=WARN" })
+public class UserTableBenchmark {
+
+  private static final int USERS = Integer.getInteger("benchmark.users", 1_000_000);
+  private static final int LOOKUPS = 1_000_000;
+  // a query per lookup, so fewer of them
+  private static final int DATABASE_LOOKUPS = 50_000;
+  private static final int PAGE_SIZE = 10_000;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UserTableService userTableService;
+
+  @Test
+  public void lookupsAndHeap() throws InterruptedException {
+    // the table of the empty database, loaded in the background at startup
+    while (!userTableService.isReady()) {
+      Thread.sleep(10);
+    }
+    long firstId = insertUsers();
+    Random random = new Random(42);
+    long[] ids = new long[LOOKUPS];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = firstId + random.nextInt(USERS);
+    }
+
+    long before = usedHeap();
+    long started = System.nanoTime();
+    userTableService.load();
+    report("user table", (System.nanoTime() - started) / 1_000_000, usedHeap() - before);
+
+    before = usedHeap();
+    started = System.nanoTime();
+    List<User> detached = loadDetached();
+    report("detached entities", (System.nanoTime() - started) / 1_000_000, usedHeap() - before);
+    detached.clear();
+
+    before = usedHeap();
+    started = System.nanoTime();
+    EntityManager entityManager = entityManagerFactory.createEntityManager();
+    List<User> managed = entityManager.createQuery("from User u order by u.id", User.class).getResultList();
+    report("managed entities", (System.nanoTime() - started) / 1_000_000, usedHeap() - before);
+
+    try {
+      for (int round = 1; round <= 3; round++) {
+        long sink = 0;
+        started = System.nanoTime();
+        for (long id : ids) {
+          sink += entityManager.find(User.class, id).getName().length();
+        }
+        long persistenceContext = (System.nanoTime() - started) / ids.length;
+        started = System.nanoTime();
+        for (long id : ids) {
+          sink += userTableService.findById(id).getName().length();
+        }
+        long table = (System.nanoTime() - started) / ids.length;
+        started = System.nanoTime();
+        for (long id : ids) {
+          sink += userTableService.findByToken(managed.get((int) (id - firstId)).getToken()).getName().length();
+        }
+        long tableByToken = (System.nanoTime() - started) / ids.length;
+        started = System.nanoTime();
+        for (long id : ids) {
+          sink += userService.getUserById(id).getName().length();
+        }
+        long service = (System.nanoTime() - started) / ids.length;
+        started = System.nanoTime();
+        for (int i = 0; i < DATABASE_LOOKUPS; i++) {
+          sink += userRepository.findById(ids[i]).orElseThrow().getName().length();
+        }
+        long database = (System.nanoTime() - started) / DATABASE_LOOKUPS;
+        System.out.printf("round %d, ns per lookup: persistence context %d, table %d, table by token %d, "
+            + "UserService.getUserById %d, database %d (%d)%n", round, persistenceContext, table, tableByToken,
+            service, database, sink);
+      }
+    } finally {
+      entityManager.close();
+      jdbcTemplate.update("delete from user");
+    }
+  }
+
+  // @return the id of the first user
+  private long insertUsers() {
+    jdbcTemplate.update("delete from user");
+    long firstId = 1_000_000;
+    Date date = Date.valueOf("2025-03-01");
+    for (int from = 0; from < USERS; from += PAGE_SIZE) {
+      List<Object[]> batch = new ArrayList<>(PAGE_SIZE);
+      for (int i = from; i < Math.min(USERS, from + PAGE_SIZE); i++) {
+        batch.add(new Object[] { firstId + i, "Name " + i, "user" + i, "password" + i, date,
+            UUID.randomUUID().toString(), 1, (long) i });
+      }
+      jdbcTemplate.batchUpdate("insert into user (id, name, username, password, date, token, status, change_seq) "
+          + "values (?, ?, ?, ?, ?, ?, ?, ?)", batch);
+    }
+    return firstId;
+  }
+
+  // what a cache of entities would hold; copied, because the in-memory H2
+  // hands out the Strings it holds itself, which a cache in front of a real
+  // database would not share with anyone
+  private List<User> loadDetached() {
+    List<User> users = new ArrayList<>(USERS);
+    long after = 0;
+    List<User> page;
+    do {
+      long from = after;
+      page = transactionTemplate.execute(status ->
+          userRepository.findByIdGreaterThanOrderByIdAsc(from, PageRequest.of(0, PAGE_SIZE)));
+      for (User user : page) {
+        users.add(copy(user));
+      }
+      if (!page.isEmpty()) {
+        after = page.get(page.size() - 1).getId();
+      }
+    } while (page.size() == PAGE_SIZE);
+    return users;
+  }
+
+  private static User copy(User user) {
+    User copy = new User();
+    copy.setId(Long.valueOf(user.getId()));
+    copy.setName(new String(user.getName()));
+    copy.setUsername(new String(user.getUsername()));
+    copy.setPassword(new String(user.getPassword()));
+    copy.setToken(new String(user.getToken()));
+    copy.setStatus(user.getStatus());
+    copy.setDate(LocalDate.ofEpochDay(user.getDate().toEpochDay()));
+    copy.setChangeSeq(Long.valueOf(user.getChangeSeq()));
+    return copy;
+  }
+
+  private static void report(String name, long loadMillis, long heapBytes) {
+    System.out.printf("%-18s %d users, load %d ms, heap %d MB (%d bytes per user)%n", name, USERS, loadMillis,
+        heapBytes >> 20, heapBytes / USERS);
+  }
+
+  private static long usedHeap() {
+    for (int i = 0; i < 4; i++) {
+      System.gc();
+    }
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+}
@@ -0,0 +1,89 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The table with the scheduled reconciliation off, so the test decides when
+ * it runs.
+ *
+ * @see UserTableService
+ */
+@SpringBootTest(properties = { "users.table.enabled=true", "users.table.reconcile-interval-ms=3600000" })
+public class UserTableServiceIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UserTableService userTableService;
+
+  @Autowired
+  private UserChangeLog userChangeLog;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @BeforeEach
+  public void setup() throws InterruptedException {
+    // loaded in the background once the application is ready
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!userTableService.isReady() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(userTableService.isReady());
+  }
+
+  @Test
+  public void changesWithoutEvent_repairedByReconcile() {
+    User user = new User();
+    user.setName("testName");
+    user.setUsername("tableUsername");
+    user.setPassword("testPassword");
+    User created = userService.createUser(user);
+    assertEquals("tableUsername", userTableService.findById(created.getId()).getUsername());
+
+    // changed and deleted past the services, only the change log knows
+    User renamed = userRepository.findByUsername("tableUsername");
+    renamed.setUsername("renamedUsername");
+    renamed.setStatus(UserStatus.OFFLINE);
+    userChangeLog.stamp(renamed);
+    userRepository.saveAndFlush(renamed);
+    User other = new User();
+    other.setName("otherName");
+    other.setUsername("otherUsername");
+    other.setPassword("testPassword");
+    Long otherId = userService.createUser(other).getId();
+    userChangeLog.recordDeletion(otherId);
+    userRepository.deleteById(otherId);
+    assertEquals("tableUsername", userTableService.findById(created.getId()).getUsername());
+
+    double repairedBefore = meterRegistry.get("users.table.repaired").counter().count();
+    userTableService.reconcile();
+
+    assertEquals("renamedUsername", userService.getUserById(created.getId()).getUsername());
+    assertEquals(UserStatus.OFFLINE, userService.getUserByUsername("renamedUsername").getStatus());
+    assertNull(userService.getUserByUsername("tableUsername"));
+    assertNull(userTableService.findById(otherId));
+    assertEquals(repairedBefore + 2, meterRegistry.get("users.table.repaired").counter().count());
+
+    // nothing left to repair
+    userTableService.reconcile();
+    assertEquals(repairedBefore + 2, meterRegistry.get("users.table.repaired").counter().count());
+  }
+}
@@ -0,0 +1,129 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+public class UserTableTest {
+
+  @Test
+  public void randomChanges_matchMapOfUsers() {
+    UserTable table = new UserTable();
+    Map<Long, User> users = new HashMap<>();
+    Random random = new Random(42);
+    long changeSeq = 0;
+
+    // more users than the initial capacity, and enough renames for several arena compactions
+    for (int i = 0; i < 30_000; i++) {
+      long id = 1 + random.nextInt(3000);
+      if (users.containsKey(id) && users.get(id) == null) {
+        continue;
+      }
+      if (random.nextInt(20) == 0) {
+        table.delete(id);
+        users.put(id, null);
+        continue;
+      }
+      User user = user(id, ++changeSeq, "user-" + id + "-" + random.nextInt(5));
+      user.setName("name ".repeat(random.nextInt(50)) + "äöü");
+      user.setStatus(random.nextBoolean() ? UserStatus.ONLINE : UserStatus.OFFLINE);
+      user.setBirthday(random.nextBoolean() ? null : LocalDate.of(1990, 1, 1).plusDays(random.nextInt(10_000)));
+      user.setAvatarHash(random.nextBoolean() ? null : Long.toHexString(random.nextLong()));
+      assertTrue(table.put(user));
+      users.put(id, user);
+    }
+
+    int live = 0;
+    for (long id = 1; id <= 3000; id++) {
+      User expected = users.get(id);
+      User actual = table.get(id);
+      if (expected == null) {
+        assertNull(actual);
+        continue;
+      }
+      live++;
+      assertSameUser(expected, actual);
+      assertSameUser(expected, table.getByUsername(expected.getUsername()));
+      assertSameUser(expected, table.getByToken(expected.getToken()));
+      assertEquals(expected.getStatus(), table.statuses(List.of(id)).get(id));
+    }
+    assertEquals(live, table.size());
+    assertNull(table.getByUsername("unknown"));
+    assertNull(table.getByToken("unknown"));
+  }
+
+  @Test
+  public void staleUpdates_ignored() {
+    UserTable table = new UserTable();
+    table.put(user(1, 5, "alice"));
+
+    // an older change that is applied late, and updates of a deleted user
+    assertFalse(table.put(user(1, 4, "old-alice")));
+    assertEquals("alice", table.get(1).getUsername());
+    table.delete(1);
+    assertFalse(table.put(user(1, 6, "alice")));
+    assertNull(table.get(1));
+    assertNull(table.getByUsername("alice"));
+
+    // deleted before it was ever added
+    table.delete(2);
+    assertFalse(table.put(user(2, 1, "bob")));
+    assertEquals(0, table.size());
+
+    // the username of a deleted user is free again
+    table.put(user(3, 7, "alice"));
+    assertEquals(3L, table.getByUsername("alice").getId());
+  }
+
+  @Test
+  public void replayedChanges_onlyNewerApplied() {
+    UserTable table = new UserTable();
+    table.put(user(1, 5, "alice"));
+
+    assertFalse(table.putIfNewer(user(1, 5, "alice")));
+    assertFalse(table.putIfNewer(user(1, 4, "old-alice")));
+    assertTrue(table.putIfNewer(user(1, 6, "new-alice")));
+    assertEquals("new-alice", table.get(1).getUsername());
+    assertTrue(table.putIfNewer(user(2, 1, "bob")));
+    assertTrue(table.delete(2));
+    assertFalse(table.delete(2));
+    assertEquals(1, table.size());
+  }
+
+  private static User user(long id, long changeSeq, String username) {
+    User user = new User();
+    user.setId(id);
+    user.setChangeSeq(changeSeq);
+    user.setUsername(username);
+    user.setName(username);
+    user.setPassword("password-" + id);
+    user.setToken("token-" + id + "-" + changeSeq);
+    user.setStatus(UserStatus.OFFLINE);
+    user.setDate(LocalDate.of(2025, 3, 1));
+    return user;
+  }
+
+  private static void assertSameUser(User expected, User actual) {
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals(expected.getChangeSeq(), actual.getChangeSeq());
+    assertEquals(expected.getUsername(), actual.getUsername());
+    assertEquals(expected.getName(), actual.getName());
+    assertEquals(expected.getPassword(), actual.getPassword());
+    assertEquals(expected.getToken(), actual.getToken());
+    assertEquals(expected.getStatus(), actual.getStatus());
+    assertEquals(expected.getDate(), actual.getDate());
+    assertEquals(expected.getBirthday(), actual.getBirthday());
+    assertEquals(expected.getAvatarHash(), actual.getAvatarHash());
+  }
+}
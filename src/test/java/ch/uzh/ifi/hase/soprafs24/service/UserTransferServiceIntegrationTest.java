@@ -0,0 +1,85 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserImportResultDTO;
+
+/**
+ * Test class for the bulk export and import.
+ *
+ * @see UserTransferService
+ */
+@WebAppConfiguration
+@SpringBootTest(properties = "users.transfer.batch-size=7")
+public class UserTransferServiceIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserTransferService userTransferService;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    for (int i = 0; i < 20; i++) {
+      User user = new User();
+      user.setName("name" + i);
+      user.setUsername("user" + i);
+      user.setPassword("password" + i);
+      user.setToken(UUID.randomUUID().toString());
+      user.setStatus(UserStatus.OFFLINE);
+      user.setDate(LocalDate.now());
+      userRepository.save(user);
+    }
+    userRepository.flush();
+  }
+
+  @Test
+  public void exportThenImport_restoresAllUsers() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(20, userTransferService.exportUsers(out));
+    assertEquals(20, out.toString(StandardCharsets.UTF_8).split("\n").length);
+
+    userRepository.deleteAll();
+    UserImportResultDTO result = userTransferService.importUsers(new ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals(20, result.getLines());
+    assertEquals(20, result.getImported());
+    assertEquals(0, result.getSkipped());
+    User restored = userRepository.findByUsername("user13");
+    assertNotNull(restored);
+    assertEquals("password13", restored.getPassword());
+  }
+
+  @Test
+  public void importTwice_skipsExistingUsers() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    userTransferService.exportUsers(out);
+    userRepository.deleteAll();
+    userTransferService.importUsers(new ByteArrayInputStream(out.toByteArray()));
+
+    UserImportResultDTO result = userTransferService.importUsers(new ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals(0, result.getImported());
+    assertEquals(20, result.getSkipped());
+    assertEquals(20, userRepository.count());
+  }
+}